@@ -240,10 +240,13 @@ void setupBLE()
     pBatteryCharacteristic->addDescriptor(new BLE2902());
 
     // Create Calibration Characteristic
+    // Commands from the app are written here; write without response lets
+    // the app stream a burst of them instead of waiting for each to be acked
     pCalibrationCharacteristic = pService->createCharacteristic(
         CALIBRATION_CHAR_UUID,
         BLECharacteristic::PROPERTY_READ |
             BLECharacteristic::PROPERTY_WRITE |
+            BLECharacteristic::PROPERTY_WRITE_NR |
             BLECharacteristic::PROPERTY_NOTIFY);
     pCalibrationCharacteristic->setCallbacks(new MyCharacteristicCallbacks());
     pCalibrationCharacteristic->addDescriptor(new BLE2902());
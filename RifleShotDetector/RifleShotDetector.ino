@@ -36,6 +36,9 @@ int accelZBaseline = 0;
 // Target ID to send shot notifications to
 String targetID = "ALL"; // Send to all targets, or specify specific target
 
+// Identifies this detector; the receiver keeps one clock estimate per shooter
+String shooterID = "SHOOTER1";
+
 void setup()
 {
   Serial.begin(9600);
@@ -221,7 +224,7 @@ void onShotDetected()
 
 void sendShotNotification()
 {
-  String message = "<SHOT," + targetID + "," + String(lastShotTime) + ">";
+  String message = "<SHOT," + targetID + "," + String(lastShotTime) + "," + shooterID + ">";
 
   Serial.print("Sending shot notification: ");
   Serial.println(message);
@@ -263,6 +266,21 @@ void handleSerialCommands()
         Serial.println("Invalid target ID");
       }
     }
+    else if (command.startsWith("SHOOTER "))
+    {
+      String newShooterID = command.substring(8);
+      newShooterID.trim();
+      if (newShooterID.length() > 0)
+      {
+        shooterID = newShooterID;
+        Serial.print("Shooter ID set to: ");
+        Serial.println(shooterID);
+      }
+      else
+      {
+        Serial.println("Invalid shooter ID");
+      }
+    }
     else if (command == "TEST")
     {
       Serial.println("Sending test shot...");
@@ -290,6 +308,8 @@ void printStatus()
   Serial.println("=== Shot Detector Status ===");
   Serial.print("Target ID: ");
   Serial.println(targetID);
+  Serial.print("Shooter ID: ");
+  Serial.println(shooterID);
   Serial.print("Audio baseline: ");
   Serial.println(audioBaseline);
   Serial.print("Audio threshold: ");
@@ -323,6 +343,7 @@ void printHelp()
   Serial.println("=== Shot Detector Commands ===");
   Serial.println("CAL - Recalibrate sensors");
   Serial.println("TARGET <ID> - Set target ID for notifications");
+  Serial.println("SHOOTER <ID> - Set shooter ID sent with shots");
   Serial.println("TEST - Send test shot message");
   Serial.println("STATUS - Show current status and sensor readings");
   Serial.println("HELP - Show this help");
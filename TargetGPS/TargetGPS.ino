@@ -14,6 +14,7 @@
 #define START_MARKER '<'
 #define END_MARKER '>'
 #define MAX_MSG_LEN 128
+#define MAX_PACKET_LEN 256 // LoRa payload limit; a packet may carry several frames
 #define MAX_CMD_LEN 32
 #define MAX_ID_LEN 16
 #define MAX_CSV_LEN 96
@@ -236,22 +237,28 @@ void handleLoRa()
   if (packetSize > 0)
   {
     // Serial.print("Received LoRa packet. Size: "); Serial.println(packetSize); // Less verbose
-    uint8_t raw[MAX_MSG_LEN];
+    uint8_t raw[MAX_PACKET_LEN];
     int len = 0;
-    while (LoRa.available() && len < MAX_MSG_LEN - 1)
+    while (LoRa.available() && len < MAX_PACKET_LEN - 1)
     {
       raw[len++] = (uint8_t)LoRa.read();
     }
     raw[len] = '\0';
     // Serial.print("Raw LoRa Data: "); Serial.println((char*)raw); // Less verbose
 
+    // The app packs several commands into one write, so handle every frame
     char extracted[MAX_MSG_LEN] = {0};
-    if (extractFramedMessage(raw, len, extracted))
+    int offset = 0;
+    int frames = 0;
+    int consumed;
+    while ((consumed = extractFramedMessage(raw + offset, len - offset, extracted)) > 0)
     {
       // Serial.print("Extracted Framed Msg: "); Serial.println(extracted); // Less verbose
       processMessage(extracted);
+      offset += consumed;
+      frames++;
     }
-    else
+    if (frames == 0)
     {
       Serial.println("ERROR: No valid frame found in LoRa packet.");
     }
@@ -355,7 +362,11 @@ void processMessage(char *msg)
     {
       Serial.print(" for ID: ");
       Serial.println(param);
-      sendCalibrationAck(param);
+      // Every target hears the broadcast; only the addressed one answers
+      if (strcmp(param, targetID) == 0)
+      {
+        sendCalibrationAck(param);
+      }
     }
     else
     {
@@ -495,42 +506,41 @@ void sendLoraMessage(const char *csv)
   }
 }
 
-// Extracts the first valid framed message <...> from a buffer
-bool extractFramedMessage(uint8_t *buf, int len, char *out)
+// Extracts the first valid framed message <...> from a buffer.
+// Returns the number of bytes consumed up to the end of that frame, or 0 if none.
+int extractFramedMessage(uint8_t *buf, int len, char *out)
 {
-  int startIdx = -1;
   for (int i = 0; i < len; i++)
   {
-    if (buf[i] == START_MARKER)
+    if (buf[i] != START_MARKER)
+    {
+      continue;
+    }
+    for (int j = i + 1; j < len; j++)
     {
-      startIdx = i;
-      for (int j = i + 1; j < len; j++)
+      if (buf[j] == START_MARKER)
       {
-        if (buf[j] == END_MARKER)
-        {
-          int msgLen = j - startIdx + 1;
-          if (msgLen < MAX_MSG_LEN)
-          {
-            memcpy(out, &buf[startIdx], msgLen);
-            out[msgLen] = '\0';
-            return true;
-          }
-          else
-          {
-            Serial.println("Warning: Found framed message, but it's too long for buffer.");
-            startIdx = -1;
-            break;
-          }
-        }
+        // Unterminated frame; resynchronise on the next start marker
+        i = j - 1;
+        break;
       }
-      if (startIdx != -1)
+      if (buf[j] == END_MARKER)
       {
-        startIdx = -1;
+        int msgLen = j - i + 1;
+        if (msgLen < MAX_MSG_LEN)
+        {
+          memcpy(out, &buf[i], msgLen);
+          out[msgLen] = '\0';
+          return j + 1;
+        }
+        Serial.println("Warning: Found framed message, but it's too long for buffer.");
+        i = j;
+        break;
       }
     }
   }
   out[0] = '\0';
-  return false;
+  return 0;
 }
 
 // Reads battery voltage
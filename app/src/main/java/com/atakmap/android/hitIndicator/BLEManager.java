@@ -7,6 +7,7 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
@@ -22,17 +23,23 @@ import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.ParcelUuid;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.core.content.ContextCompat;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -40,6 +47,16 @@ import java.util.concurrent.ConcurrentHashMap;
  * Manages Bluetooth Low Energy connections for the Hit Indicator system.
  * Handles multiple BLE devices advertising hit and position data from LoRa
  * sensors.
+ *
+ * GATT callbacks and scan results are handled on a dedicated BLE thread, so
+ * radio bursts never wait on the UI. The {@link BLEListener} is called on
+ * the main thread: connection changes as they happen, new devices batched
+ * at most every {@link #UI_UPDATE_INTERVAL_MS}.
+ *
+ * A link that drops without being asked to is brought back on its own,
+ * spaced by a {@link ReconnectPolicy}. Reconnecting through the dropped
+ * connection keeps its discovered services, so only the per-connection
+ * setup (MTU, notifications) is repeated.
  */
 public class BLEManager {
     private static final String TAG = "BLEManager";
@@ -53,6 +70,19 @@ public class BLEManager {
     public static final UUID BATTERY_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-1234-1234-123456789abf");
     public static final UUID CALIBRATION_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-1234-1234-123456789ac0");
 
+    // ATT MTU until the link negotiates a larger one; writes lose 3 bytes to the ATT header
+    public static final int DEFAULT_ATT_MTU = 23;
+    private static final int ATT_WRITE_OVERHEAD = 3;
+
+    // Largest ATT MTU; the peer settles on the smaller of its own and this
+    private static final int REQUESTED_ATT_MTU = 517;
+
+    // Discoveries reach the UI no more often than this
+    private static final long UI_UPDATE_INTERVAL_MS = 250;
+
+    // High connection priority is held this long after the last boost
+    private static final long HIGH_PRIORITY_HOLD_MS = 60000;
+
     // Interface for BLE events
     public interface BLEListener {
         void onDeviceDiscovered(BluetoothDevice device, int rssi);
@@ -61,7 +91,10 @@ public class BLEManager {
 
         void onDeviceDisconnected(BluetoothDevice device);
 
-        void onDataReceived(BluetoothDevice device, String characteristicUuid, byte[] data);
+        /**
+         * @param receivedAtNanos {@link SystemClock#elapsedRealtimeNanos()} in the GATT callback
+         */
+        void onDataReceived(BluetoothDevice device, String characteristicUuid, byte[] data, long receivedAtNanos);
 
         void onError(String message);
 
@@ -70,9 +103,22 @@ public class BLEManager {
         void onScanStopped();
     }
 
+    /**
+     * Receives characteristic notifications directly on the BLE thread,
+     * instead of {@link BLEListener#onDataReceived} on the main thread.
+     * Must not block. The receive time is taken first thing in the callback,
+     * before any queueing, as {@link SystemClock#elapsedRealtimeNanos()}.
+     */
+    public interface DataSink {
+        boolean offer(String deviceAddress, String characteristicUuid, byte[] data, long receivedAtNanos);
+    }
+
     private final Context context;
     private final BLEListener listener;
     private final Handler mainHandler;
+    private final HandlerThread bleThread;
+    private final Handler bleHandler;
+    private volatile DataSink dataSink;
 
     private BluetoothManager bluetoothManager;
     private BluetoothAdapter bluetoothAdapter;
@@ -82,7 +128,63 @@ public class BLEManager {
     private final Map<String, BluetoothGatt> connectedDevices = new ConcurrentHashMap<>();
     private final Map<String, BluetoothDevice> discoveredDevices = new ConcurrentHashMap<>();
 
-    private boolean isScanning = false;
+    /**
+     * GATT operations, negotiated parameters and notification traffic of one
+     * link. The fields are written from that link's callbacks only.
+     */
+    private static final class LinkInfo {
+        final GattOperationQueue operations;
+        final long connectedAt = SystemClock.elapsedRealtime();
+        volatile int mtu = DEFAULT_ATT_MTU;
+        volatile boolean mtuRejected;
+        volatile int txPhy = BluetoothDevice.PHY_LE_1M;
+        volatile int rxPhy = BluetoothDevice.PHY_LE_1M;
+        volatile int priority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+        volatile long notifications;
+        volatile long bytes;
+        // Set when the link came back from a drop, until it is ready again
+        volatile Reconnect reconnect;
+
+        LinkInfo(GattOperationQueue operations) {
+            this.operations = operations;
+        }
+    }
+
+    private final Map<String, LinkInfo> links = new ConcurrentHashMap<>();
+    private volatile long highPriorityUntil;
+    private final Runnable priorityRelease = () -> setPriorityOnAll(BluetoothGatt.CONNECTION_PRIORITY_BALANCED);
+
+    /**
+     * A dropped link being brought back. Attempts run on the BLE thread.
+     */
+    private final class Reconnect {
+        final BluetoothDevice device;
+        final long droppedAt = SystemClock.elapsedRealtime();
+        final Runnable attempt = () -> attemptReconnect(this);
+        final Runnable attemptTimeout = () -> abandonReconnectAttempt(this);
+        // The dropped connection until a fresh one replaces it
+        volatile BluetoothGatt gatt;
+        volatile int attempts;
+        volatile boolean connecting;
+
+        Reconnect(BluetoothDevice device, BluetoothGatt gatt) {
+            this.device = device;
+            this.gatt = gatt;
+        }
+    }
+
+    private final ReconnectPolicy reconnectPolicy = new ReconnectPolicy();
+    private final Map<String, Reconnect> reconnects = new ConcurrentHashMap<>();
+    // Links being disconnected on request, which are not brought back
+    private final Set<String> closingDevices = ConcurrentHashMap.newKeySet();
+    private volatile boolean destroyed;
+
+    // Discoveries waiting for the next UI update, by address; BLE thread only
+    private final Map<String, ScanResult> pendingDiscoveries = new LinkedHashMap<>();
+    private boolean discoveryUpdatePosted;
+    private final Runnable discoveryUpdate = this::deliverDiscoveries;
+
+    private volatile boolean isScanning = false;
     private boolean isInitialized = false;
 
     // Track scanning duration for debugging
@@ -93,52 +195,17 @@ public class BLEManager {
     private final ScanCallback scanCallback = new ScanCallback() {
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
-            BluetoothDevice device = result.getDevice();
-            if (device != null) {
-                String deviceAddress = device.getAddress();
-                String deviceName = "Unknown";
-
-                try {
-                    deviceName = device.getName();
-                    if (deviceName == null || deviceName.isEmpty()) {
-                        deviceName = "Unknown";
-                    }
-                } catch (SecurityException e) {
-                    deviceName = "Permission Denied";
-                }
-
-                Log.d(TAG, "BLE Device found: " + deviceName + " (" + deviceAddress + ") RSSI: " + result.getRssi());
-
-                // Check if device advertises our service UUID
-                if (result.getScanRecord() != null) {
-                    List<ParcelUuid> serviceUuids = result.getScanRecord().getServiceUuids();
-                    if (serviceUuids != null) {
-                        for (ParcelUuid uuid : serviceUuids) {
-                            Log.d(TAG, "Device " + deviceName + " advertises service: " + uuid.toString());
-                            if (HIT_INDICATOR_SERVICE_UUID.equals(uuid.getUuid())) {
-                                Log.i(TAG, "Found Hit Indicator device: " + deviceName);
-                            }
-                        }
-                    } else {
-                        Log.d(TAG, "Device " + deviceName + " advertises no service UUIDs");
-                    }
-                }
-
-                if (!discoveredDevices.containsKey(deviceAddress)) {
-                    discoveredDevices.put(deviceAddress, device);
-                    if (listener != null) {
-                        mainHandler.post(() -> listener.onDeviceDiscovered(device, result.getRssi()));
-                    }
-                }
-            }
+            bleHandler.post(() -> handleScanResult(result));
         }
 
         @Override
         public void onBatchScanResults(List<ScanResult> results) {
             Log.d(TAG, "Batch scan results: " + results.size() + " devices");
-            for (ScanResult result : results) {
-                onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, result);
-            }
+            bleHandler.post(() -> {
+                for (ScanResult result : results) {
+                    handleScanResult(result);
+                }
+            });
         }
 
         @Override
@@ -179,7 +246,77 @@ public class BLEManager {
         }
     };
 
-    // GATT callback for device connections and data
+    /**
+     * Log and record one scan result. Runs on the BLE thread.
+     */
+    private void handleScanResult(ScanResult result) {
+        BluetoothDevice device = result.getDevice();
+        if (device != null) {
+            String deviceAddress = device.getAddress();
+            String deviceName = "Unknown";
+
+            try {
+                deviceName = device.getName();
+                if (deviceName == null || deviceName.isEmpty()) {
+                    deviceName = "Unknown";
+                }
+            } catch (SecurityException e) {
+                deviceName = "Permission Denied";
+            }
+
+            Log.d(TAG, "BLE Device found: " + deviceName + " (" + deviceAddress + ") RSSI: " + result.getRssi());
+
+            // Check if device advertises our service UUID
+            if (result.getScanRecord() != null) {
+                List<ParcelUuid> serviceUuids = result.getScanRecord().getServiceUuids();
+                if (serviceUuids != null) {
+                    for (ParcelUuid uuid : serviceUuids) {
+                        Log.d(TAG, "Device " + deviceName + " advertises service: " + uuid.toString());
+                        if (HIT_INDICATOR_SERVICE_UUID.equals(uuid.getUuid())) {
+                            Log.i(TAG, "Found Hit Indicator device: " + deviceName);
+                        }
+                    }
+                } else {
+                    Log.d(TAG, "Device " + deviceName + " advertises no service UUIDs");
+                }
+            }
+
+            if (!discoveredDevices.containsKey(deviceAddress)) {
+                discoveredDevices.put(deviceAddress, device);
+                queueDiscovery(deviceAddress, result);
+            }
+        }
+    }
+
+    /**
+     * Hold a new device for the next UI update.
+     */
+    private void queueDiscovery(String deviceAddress, ScanResult result) {
+        if (listener == null) {
+            return;
+        }
+        pendingDiscoveries.put(deviceAddress, result);
+        if (!discoveryUpdatePosted) {
+            discoveryUpdatePosted = true;
+            bleHandler.postDelayed(discoveryUpdate, UI_UPDATE_INTERVAL_MS);
+        }
+    }
+
+    private void deliverDiscoveries() {
+        discoveryUpdatePosted = false;
+        if (pendingDiscoveries.isEmpty()) {
+            return;
+        }
+        List<ScanResult> results = new ArrayList<>(pendingDiscoveries.values());
+        pendingDiscoveries.clear();
+        mainHandler.post(() -> {
+            for (ScanResult result : results) {
+                listener.onDeviceDiscovered(result.getDevice(), result.getRssi());
+            }
+        });
+    }
+
+    // GATT callback for device connections and data, on the BLE thread
     private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
         @Override
         public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
@@ -189,9 +326,22 @@ public class BLEManager {
             if (newState == BluetoothProfile.STATE_CONNECTED) {
                 Log.d(TAG, "Connected to device: " + deviceAddress);
                 connectedDevices.put(deviceAddress, gatt);
-
-                // Discover services
-                if (hasBluetoothPermissions()) {
+                LinkInfo link = new LinkInfo(new GattOperationQueue(gatt, bleHandler));
+                Reconnect reconnect = reconnects.remove(deviceAddress);
+                if (reconnect != null) {
+                    reconnect.connecting = false;
+                    bleHandler.removeCallbacks(reconnect.attempt);
+                    bleHandler.removeCallbacks(reconnect.attemptTimeout);
+                    link.reconnect = reconnect;
+                }
+                links.put(deviceAddress, link);
+
+                if (reconnect != null && gatt.getService(HIT_INDICATOR_SERVICE_UUID) != null) {
+                    // Same connection object as before the drop; its service handles still apply
+                    Log.d(TAG, "Reusing discovered services for device: " + deviceAddress);
+                    onLinkReady(gatt);
+                } else if (hasBluetoothPermissions()) {
+                    // Discover services
                     gatt.discoverServices();
                 }
 
@@ -201,10 +351,25 @@ public class BLEManager {
 
             } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                 Log.d(TAG, "Disconnected from device: " + deviceAddress);
-                connectedDevices.remove(deviceAddress);
-                gatt.close();
+                boolean wasConnected = connectedDevices.remove(deviceAddress) != null;
+                LinkInfo link = links.remove(deviceAddress);
+                if (link != null) {
+                    link.operations.close();
+                    if (link.reconnect != null && !closingDevices.contains(deviceAddress) && !destroyed) {
+                        // Dropped again before notifications were back; this attempt failed
+                        link.reconnect.connecting = true;
+                        reconnects.putIfAbsent(deviceAddress, link.reconnect);
+                    }
+                }
+                boolean reconnecting = reconnects.containsKey(deviceAddress);
+                if (closingDevices.remove(deviceAddress) || destroyed) {
+                    gatt.close();
+                } else {
+                    bleHandler.post(() -> onLinkDropped(device, gatt, wasConnected));
+                }
 
-                if (listener != null) {
+                // A failed reconnect attempt is not news to the UI
+                if (listener != null && (wasConnected || !reconnecting)) {
                     mainHandler.post(() -> listener.onDeviceDisconnected(device));
                 }
             }
@@ -214,19 +379,89 @@ public class BLEManager {
         public void onServicesDiscovered(BluetoothGatt gatt, int status) {
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 Log.d(TAG, "Services discovered for device: " + gatt.getDevice().getAddress());
-                setupCharacteristicNotifications(gatt);
+                onLinkReady(gatt);
             } else {
                 Log.w(TAG, "Service discovery failed with status: " + status);
             }
         }
 
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            LinkInfo link = links.get(gatt.getDevice().getAddress());
+            if (link != null) {
+                link.operations.onMtuChanged(mtu, status);
+            }
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                Log.d(TAG, "MTU " + mtu + " for device: " + gatt.getDevice().getAddress());
+                if (link != null) {
+                    link.mtu = mtu;
+                }
+            } else {
+                Log.w(TAG, "MTU exchange failed with status " + status + ", keeping " + DEFAULT_ATT_MTU);
+                if (link != null) {
+                    link.mtuRejected = true;
+                }
+            }
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.w(TAG, "PHY update failed with status " + status + " on device: "
+                        + gatt.getDevice().getAddress());
+                return;
+            }
+            LinkInfo link = links.get(gatt.getDevice().getAddress());
+            Log.d(TAG, "PHY " + phyName(txPhy) + "/" + phyName(rxPhy) + " for device: "
+                    + gatt.getDevice().getAddress());
+            if (link != null) {
+                link.txPhy = txPhy;
+                link.rxPhy = rxPhy;
+            }
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic,
+                int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.w(TAG, "Write failed with status " + status + " on device: " + gatt.getDevice().getAddress());
+            }
+            LinkInfo link = links.get(gatt.getDevice().getAddress());
+            if (link != null) {
+                link.operations.onCharacteristicWrite(status);
+            }
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.w(TAG, "Descriptor write failed with status " + status + " on device: "
+                        + gatt.getDevice().getAddress());
+            }
+            LinkInfo link = links.get(gatt.getDevice().getAddress());
+            if (link != null) {
+                link.operations.onDescriptorWrite(status);
+            }
+        }
+
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            long receivedAtNanos = SystemClock.elapsedRealtimeNanos();
             byte[] data = characteristic.getValue();
             String characteristicUuid = characteristic.getUuid().toString();
 
-            if (listener != null) {
-                mainHandler.post(() -> listener.onDataReceived(gatt.getDevice(), characteristicUuid, data));
+            LinkInfo link = links.get(gatt.getDevice().getAddress());
+            if (link != null && data != null) {
+                link.notifications++;
+                link.bytes += data.length;
+            }
+
+            DataSink sink = dataSink;
+            if (sink != null) {
+                sink.offer(gatt.getDevice().getAddress(), characteristicUuid, data, receivedAtNanos);
+            } else if (listener != null) {
+                mainHandler.post(() -> listener.onDataReceived(gatt.getDevice(), characteristicUuid, data,
+                        receivedAtNanos));
             }
         }
     };
@@ -235,9 +470,20 @@ public class BLEManager {
         this.context = context;
         this.listener = listener;
         this.mainHandler = new Handler(Looper.getMainLooper());
+        this.bleThread = new HandlerThread("HitIndicatorBLE", Process.THREAD_PRIORITY_FOREGROUND);
+        bleThread.start();
+        this.bleHandler = new Handler(bleThread.getLooper());
         initialize();
     }
 
+    /**
+     * Route notifications to a sink on the callback thread, bypassing the
+     * main thread. Pass null to go back to {@link BLEListener#onDataReceived}.
+     */
+    public void setDataSink(DataSink dataSink) {
+        this.dataSink = dataSink;
+    }
+
     private void initialize() {
         if (!context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE)) {
             Log.e(TAG, "BLE not supported on this device");
@@ -333,8 +579,13 @@ public class BLEManager {
             return true;
         }
 
+        if (reconnects.containsKey(deviceAddress)) {
+            Log.w(TAG, "Already reconnecting to device: " + deviceAddress);
+            return true;
+        }
+
         try {
-            BluetoothGatt gatt = device.connectGatt(context, false, gattCallback);
+            BluetoothGatt gatt = openGatt(device);
             if (gatt != null) {
                 Log.d(TAG, "Connecting to device: " + deviceAddress);
                 return true;
@@ -354,11 +605,22 @@ public class BLEManager {
         }
     }
 
+    private BluetoothGatt openGatt(BluetoothDevice device) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return device.connectGatt(context, false, gattCallback, BluetoothDevice.TRANSPORT_LE,
+                    BluetoothDevice.PHY_LE_1M_MASK, bleHandler);
+        }
+        // Older releases call back on a binder thread, still off the main thread
+        return device.connectGatt(context, false, gattCallback);
+    }
+
     public void disconnectDevice(BluetoothDevice device) {
         String deviceAddress = device.getAddress();
+        cancelReconnect(deviceAddress);
         BluetoothGatt gatt = connectedDevices.get(deviceAddress);
 
         if (gatt != null) {
+            closingDevices.add(deviceAddress);
             try {
                 gatt.disconnect();
                 Log.d(TAG, "Disconnecting from device: " + deviceAddress);
@@ -368,6 +630,148 @@ public class BLEManager {
         }
     }
 
+    /**
+     * Per-connection setup once the services are known, also after a
+     * reconnect that kept them.
+     */
+    private void onLinkReady(BluetoothGatt gatt) {
+        // MTU first, so the notifications start at full size
+        tuneLink(gatt);
+        setupCharacteristicNotifications(gatt);
+
+        LinkInfo link = links.get(gatt.getDevice().getAddress());
+        if (link != null && link.reconnect != null) {
+            // The link is back in service once the last CCCD write has gone through
+            link.operations.whenDone(() -> onLinkRestored(gatt, link));
+        }
+    }
+
+    /**
+     * Record how long a dropped link took to deliver notifications again.
+     * Runs on the BLE thread.
+     */
+    private void onLinkRestored(BluetoothGatt gatt, LinkInfo link) {
+        Reconnect reconnect = link.reconnect;
+        if (reconnect == null || links.get(gatt.getDevice().getAddress()) != link) {
+            return;
+        }
+        link.reconnect = null;
+        long latency = SystemClock.elapsedRealtime() - reconnect.droppedAt;
+        reconnectPolicy.recordReconnect(latency, reconnect.attempts);
+        Log.i(TAG, "Link to " + gatt.getDevice().getAddress() + " back after " + latency + " ms, "
+                + reconnect.attempts + " attempts");
+    }
+
+    /**
+     * Start bringing back a link that went down on its own, or retry after
+     * a failed attempt. Runs on the BLE thread.
+     */
+    private void onLinkDropped(BluetoothDevice device, BluetoothGatt gatt, boolean wasConnected) {
+        String deviceAddress = device.getAddress();
+        Reconnect reconnect = reconnects.get(deviceAddress);
+        if (reconnect != null) {
+            // Unless the attempt already timed out, try again
+            if (reconnect.connecting) {
+                reconnect.connecting = false;
+                bleHandler.removeCallbacks(reconnect.attemptTimeout);
+                scheduleReconnect(reconnect);
+            }
+            return;
+        }
+        if (!wasConnected || destroyed) {
+            // A first connection that never came up is left to the user
+            gatt.close();
+            return;
+        }
+        Log.i(TAG, "Link to " + deviceAddress + " dropped, reconnecting");
+        reconnect = new Reconnect(device, gatt);
+        reconnects.put(deviceAddress, reconnect);
+        scheduleReconnect(reconnect);
+    }
+
+    private void scheduleReconnect(Reconnect reconnect) {
+        if (reconnectPolicy.shouldGiveUp(reconnect.attempts)) {
+            giveUpReconnect(reconnect);
+            return;
+        }
+        long delay = reconnectPolicy.delayFor(reconnect.attempts);
+        Log.d(TAG, "Reconnect attempt " + (reconnect.attempts + 1) + " to " + reconnect.device.getAddress()
+                + " in " + delay + " ms");
+        bleHandler.postDelayed(reconnect.attempt, delay);
+    }
+
+    private void attemptReconnect(Reconnect reconnect) {
+        if (reconnects.get(reconnect.device.getAddress()) != reconnect) {
+            return;
+        }
+        reconnect.attempts++;
+        boolean started = false;
+        try {
+            if (reconnect.gatt != null && reconnectPolicy.shouldReuseConnection(reconnect.attempts)) {
+                started = reconnect.gatt.connect();
+            } else {
+                // The old connection may be wedged; a fresh one has to discover services again
+                if (reconnect.gatt != null) {
+                    reconnect.gatt.close();
+                }
+                reconnect.gatt = openGatt(reconnect.device);
+                started = reconnect.gatt != null;
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "Security exception reconnecting to device", e);
+        }
+        if (started) {
+            reconnect.connecting = true;
+            bleHandler.postDelayed(reconnect.attemptTimeout, reconnectPolicy.getConfig().attemptTimeoutMs);
+        } else {
+            scheduleReconnect(reconnect);
+        }
+    }
+
+    private void abandonReconnectAttempt(Reconnect reconnect) {
+        if (reconnects.get(reconnect.device.getAddress()) != reconnect || !reconnect.connecting) {
+            return;
+        }
+        reconnect.connecting = false;
+        Log.w(TAG, "Reconnect attempt " + reconnect.attempts + " to " + reconnect.device.getAddress()
+                + " timed out");
+        try {
+            // Cancels the pending connection so the next attempt starts clean
+            reconnect.gatt.disconnect();
+        } catch (SecurityException e) {
+            Log.e(TAG, "Security exception cancelling reconnect", e);
+        }
+        scheduleReconnect(reconnect);
+    }
+
+    private void giveUpReconnect(Reconnect reconnect) {
+        String deviceAddress = reconnect.device.getAddress();
+        Log.w(TAG, "Giving up on " + deviceAddress + " after " + reconnect.attempts + " attempts");
+        reconnectPolicy.recordGiveUp(reconnect.attempts);
+        cancelReconnect(deviceAddress);
+        if (listener != null) {
+            mainHandler.post(() -> listener.onError("Could not reconnect to " + deviceAddress));
+        }
+    }
+
+    private void cancelReconnect(String deviceAddress) {
+        Reconnect reconnect = reconnects.remove(deviceAddress);
+        if (reconnect == null) {
+            return;
+        }
+        reconnect.connecting = false;
+        bleHandler.removeCallbacks(reconnect.attempt);
+        bleHandler.removeCallbacks(reconnect.attemptTimeout);
+        BluetoothGatt gatt = reconnect.gatt;
+        if (gatt != null) {
+            try {
+                gatt.close();
+            } catch (SecurityException e) {
+                Log.e(TAG, "Security exception closing connection", e);
+            }
+        }
+    }
+
     private void setupCharacteristicNotifications(BluetoothGatt gatt) {
         BluetoothGattService service = gatt.getService(HIT_INDICATOR_SERVICE_UUID);
         if (service == null) {
@@ -375,26 +779,148 @@ public class BLEManager {
             return;
         }
 
-        // Enable notifications for all characteristics
-        enableCharacteristicNotification(gatt, service, POSITION_CHARACTERISTIC_UUID);
-        enableCharacteristicNotification(gatt, service, HIT_CHARACTERISTIC_UUID);
-        enableCharacteristicNotification(gatt, service, BATTERY_CHARACTERISTIC_UUID);
-        enableCharacteristicNotification(gatt, service, CALIBRATION_CHARACTERISTIC_UUID);
+        LinkInfo link = links.get(gatt.getDevice().getAddress());
+        if (link == null) {
+            return;
+        }
+
+        // Enable notifications for all characteristics; the CCCD writes go out one at a time
+        enableCharacteristicNotification(link, service, POSITION_CHARACTERISTIC_UUID);
+        enableCharacteristicNotification(link, service, HIT_CHARACTERISTIC_UUID);
+        enableCharacteristicNotification(link, service, BATTERY_CHARACTERISTIC_UUID);
+        enableCharacteristicNotification(link, service, CALIBRATION_CHARACTERISTIC_UUID);
     }
 
-    private void enableCharacteristicNotification(BluetoothGatt gatt, BluetoothGattService service,
+    private void enableCharacteristicNotification(LinkInfo link, BluetoothGattService service,
             UUID characteristicUuid) {
         BluetoothGattCharacteristic characteristic = service.getCharacteristic(characteristicUuid);
         if (characteristic != null) {
-            try {
-                gatt.setCharacteristicNotification(characteristic, true);
+            if (link.operations.enableNotifications(characteristic)) {
                 Log.d(TAG, "Enabled notifications for characteristic: " + characteristicUuid);
-            } catch (SecurityException e) {
-                Log.e(TAG, "Security exception enabling notifications", e);
+            } else {
+                Log.w(TAG, "Could not enable notifications for characteristic: " + characteristicUuid);
             }
         }
     }
 
+    /**
+     * Ask for the largest MTU and the 2M PHY once the link is up, and high
+     * priority if firing is under way. Each request that the phone or the
+     * peer turns down leaves the link on its default.
+     */
+    private void tuneLink(BluetoothGatt gatt) {
+        String deviceAddress = gatt.getDevice().getAddress();
+        LinkInfo link = links.get(deviceAddress);
+        if (link != null) {
+            link.operations.requestMtu(REQUESTED_ATT_MTU);
+        }
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                if (bluetoothAdapter != null && bluetoothAdapter.isLe2MPhySupported()) {
+                    gatt.setPreferredPhy(BluetoothDevice.PHY_LE_2M_MASK, BluetoothDevice.PHY_LE_2M_MASK,
+                            BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+                } else {
+                    Log.d(TAG, "2M PHY not supported, staying on 1M for device: " + deviceAddress);
+                }
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "Security exception tuning link", e);
+        }
+        if (SystemClock.elapsedRealtime() < highPriorityUntil) {
+            setPriority(gatt, BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+        }
+    }
+
+    /**
+     * Put every link on high connection priority while firing is under way,
+     * for the shortest connection interval. Links go back to balanced
+     * priority {@link #HIGH_PRIORITY_HOLD_MS} after the last call.
+     */
+    public void boostConnectionPriority() {
+        bleHandler.post(() -> {
+            highPriorityUntil = SystemClock.elapsedRealtime() + HIGH_PRIORITY_HOLD_MS;
+            setPriorityOnAll(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+            bleHandler.removeCallbacks(priorityRelease);
+            bleHandler.postDelayed(priorityRelease, HIGH_PRIORITY_HOLD_MS);
+        });
+    }
+
+    private void setPriorityOnAll(int priority) {
+        for (BluetoothGatt gatt : connectedDevices.values()) {
+            setPriority(gatt, priority);
+        }
+    }
+
+    private void setPriority(BluetoothGatt gatt, int priority) {
+        LinkInfo link = links.get(gatt.getDevice().getAddress());
+        if (link == null || link.priority == priority) {
+            return;
+        }
+        try {
+            if (gatt.requestConnectionPriority(priority)) {
+                link.priority = priority;
+            } else {
+                Log.w(TAG, "Connection priority request refused for device: " + gatt.getDevice().getAddress());
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "Security exception setting connection priority", e);
+        }
+    }
+
+    /**
+     * One line per connected device: MTU, PHY, priority and notification
+     * throughput since it connected. Links being brought back and the
+     * reconnect history follow.
+     */
+    public String getLinkSummary() {
+        StringBuilder sb = new StringBuilder("BLE links:");
+        if (links.isEmpty() && reconnects.isEmpty()) {
+            sb.append(" none");
+        }
+        long now = SystemClock.elapsedRealtime();
+        for (Map.Entry<String, LinkInfo> entry : links.entrySet()) {
+            LinkInfo link = entry.getValue();
+            double seconds = Math.max(1, now - link.connectedAt) / 1000.0;
+            long notifications = link.notifications;
+            long bytes = link.bytes;
+            sb.append(String.format("\n  %s: MTU %d%s, PHY %s/%s, %s priority, %d notifications / %d B"
+                    + " (%.0f B avg, %.1f kB/s)", entry.getKey(), link.mtu, link.mtuRejected ? " (rejected)" : "",
+                    phyName(link.txPhy), phyName(link.rxPhy), priorityName(link.priority), notifications, bytes,
+                    notifications > 0 ? (double) bytes / notifications : 0.0, bytes / seconds / 1000));
+            sb.append("\n    GATT queue: ").append(link.operations.getSummary());
+        }
+        for (Reconnect reconnect : reconnects.values()) {
+            sb.append(String.format("\n  %s: reconnecting, %d attempts, down %d s", reconnect.device.getAddress(),
+                    reconnect.attempts, (now - reconnect.droppedAt) / 1000));
+        }
+        sb.append("\n").append(reconnectPolicy.getSummary());
+        return sb.toString();
+    }
+
+    private static String phyName(int phy) {
+        switch (phy) {
+            case BluetoothDevice.PHY_LE_1M:
+                return "1M";
+            case BluetoothDevice.PHY_LE_2M:
+                return "2M";
+            case BluetoothDevice.PHY_LE_CODED:
+                return "Coded";
+            default:
+                return "?" + phy;
+        }
+    }
+
+    private static String priorityName(int priority) {
+        switch (priority) {
+            case BluetoothGatt.CONNECTION_PRIORITY_HIGH:
+                return "high";
+            case BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER:
+                return "low power";
+            default:
+                return "balanced";
+        }
+    }
+
     public List<BluetoothDevice> getDiscoveredDevices() {
         return new ArrayList<>(discoveredDevices.values());
     }
@@ -472,52 +998,77 @@ public class BLEManager {
         return isBLESupported();
     }
 
+    /**
+     * Largest single write every connected device takes without a long
+     * write, from the smallest negotiated MTU.
+     */
+    public int getMaxWriteLength() {
+        int mtu = Integer.MAX_VALUE;
+        for (String address : connectedDevices.keySet()) {
+            LinkInfo link = links.get(address);
+            mtu = Math.min(mtu, link != null ? link.mtu : DEFAULT_ATT_MTU);
+        }
+        return (mtu == Integer.MAX_VALUE ? DEFAULT_ATT_MTU : mtu) - ATT_WRITE_OVERHEAD;
+    }
+
     /**
      * Write data to all connected devices
      */
     public boolean writeToAllDevices(byte[] data) {
+        return writeToAllDevices(Collections.singletonList(data));
+    }
+
+    /**
+     * Queue each buffer in order for all connected devices, e.g. the output
+     * of {@link CommandEncoder#finish()}. Each device's writes go out one
+     * at a time, without response where the device allows it.
+     *
+     * @return true if at least one device queued every write
+     */
+    public boolean writeToAllDevices(List<byte[]> writes) {
         if (connectedDevices.isEmpty()) {
             Log.w(TAG, "No connected devices to write to");
             return false;
         }
 
         boolean success = false;
-        for (BluetoothGatt gatt : connectedDevices.values()) {
-            if (writeToDevice(gatt, data)) {
-                success = true;
+        for (Map.Entry<String, BluetoothGatt> entry : connectedDevices.entrySet()) {
+            LinkInfo link = links.get(entry.getKey());
+            BluetoothGattCharacteristic characteristic = getCommandCharacteristic(entry.getValue());
+            if (link == null || characteristic == null) {
+                continue;
+            }
+            boolean queued = true;
+            for (byte[] data : writes) {
+                if (data != null && !link.operations.writeCharacteristic(characteristic, data)) {
+                    Log.w(TAG, "GATT queue full for device: " + entry.getKey());
+                    queued = false;
+                    break;
+                }
             }
+            success |= queued;
         }
         return success;
     }
 
     /**
-     * Write data to a specific GATT connection
+     * The characteristic commands are written to, once services are known
      */
-    private boolean writeToDevice(BluetoothGatt gatt, byte[] data) {
-        if (gatt == null || data == null) {
-            return false;
-        }
-
-        try {
-            BluetoothGattService service = gatt.getService(HIT_INDICATOR_SERVICE_UUID);
-            if (service != null) {
-                BluetoothGattCharacteristic characteristic = service.getCharacteristic(CALIBRATION_CHARACTERISTIC_UUID);
-                if (characteristic != null) {
-                    characteristic.setValue(data);
-                    return gatt.writeCharacteristic(characteristic);
-                }
-            }
-        } catch (SecurityException e) {
-            Log.e(TAG, "Security exception writing to device", e);
-        }
-        return false;
+    private BluetoothGattCharacteristic getCommandCharacteristic(BluetoothGatt gatt) {
+        BluetoothGattService service = gatt.getService(HIT_INDICATOR_SERVICE_UUID);
+        return service != null ? service.getCharacteristic(CALIBRATION_CHARACTERISTIC_UUID) : null;
     }
 
     public void destroy() {
         Log.d(TAG, "Destroying BLEManager");
+        destroyed = true;
 
         stopScanning();
 
+        for (String deviceAddress : new ArrayList<>(reconnects.keySet())) {
+            cancelReconnect(deviceAddress);
+        }
+
         // Disconnect all devices
         for (BluetoothGatt gatt : connectedDevices.values()) {
             try {
@@ -530,6 +1081,14 @@ public class BLEManager {
 
         connectedDevices.clear();
         discoveredDevices.clear();
+        for (LinkInfo link : links.values()) {
+            link.operations.close();
+        }
+        links.clear();
+
+        bleHandler.removeCallbacks(discoveryUpdate);
+        bleHandler.removeCallbacks(priorityRelease);
+        bleThread.quitSafely();
     }
 
     /**
@@ -0,0 +1,319 @@
+package com.atakmap.android.hitIndicator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding (protocol v2) of the relay messages.
+ *
+ * A frame is {@code SYNC LEN payload[LEN]}. SYNC (0xA5) can never start an
+ * ASCII frame, so MessageParser tells the two formats apart on the first byte
+ * of every frame and old ASCII firmware keeps working unchanged.
+ *
+ * <pre>
+ * payload    = VERSION_FLAGS TYPE fields...
+ * VERSION_FLAGS: high nibble protocol version (2), low nibble flags
+ * trailer    = [seq:u16 if FLAG_SEQUENCE] [crc:u16 if FLAG_CRC]
+ *
+ * POS        ID lat:s32 lon:s32 alt:s24 volt:u16
+ * POSQ       ID lat:s32 lon:s32 alt:s24 volt:u16 sats:u8 hdop:u8 altRef:u8
+ * HIT        ID
+ * SHOT       ID millis:u32 [shooter ID]
+ * CALACK     ID
+ * BATCH      count:u8 { len:u8 record[len] }...
+ * POSKEY     ID key:u8 lat:s32 lon:s32 alt:s24 volt:u16 sats:u8 hdop:u8 altRef:u8
+ * POSDELTA   ID key:u8 mask:u8 [dlat:zz] [dlon:zz] [dalt:zz] [dvolt:zz] [sats:u8] [hdop:u8] [altRef:u8]
+ * QUERY      -
+ * CAL, READY, BALLISTICS   ID
+ * EXPECT     ID timestamp:s64
+ * </pre>
+ *
+ * Integers are little-endian so the firmware can copy them straight out of
+ * memory. lat/lon are microdegrees, alt decimetres, volt millivolts and hdop
+ * tenths (255 = 25.5 or worse). Type codes stay below 0x20 so a binary record
+ * can never be mistaken for ASCII text.
+ *
+ * ID is a varint {@code n}: when the low bit is clear the ID is the firmware's
+ * canonical "ID%04X" form with value {@code n >> 1}; when set, {@code n >> 1}
+ * ASCII bytes of a free-form ID follow (IDs set through the CONFIG command).
+ * A canonical ID costs three bytes instead of six.
+ *
+ * The optional trailer closes the payload. The CRC (CRC-16/CCITT-FALSE)
+ * covers every payload byte before it, sequence included.
+ *
+ * A BATCH frame lets the relay send several queued LoRa frames in one BLE
+ * notification. Each record is either a binary message without its header
+ * (first byte is the TYPE, below 0x20) or the body of an ASCII frame without
+ * its markers, so frames from old and new targets can share a batch.
+ *
+ * POSKEY and POSDELTA replace POSQ for targets that barely move. A keyframe
+ * carries the full fix and a key number (incremented per keyframe, wrapping
+ * at 256). A delta names the key it is relative to and carries only the
+ * fields that differ from that keyframe, as flagged in its mask: positions,
+ * altitude and voltage as zigzag varints (zz) of the difference in wire
+ * units, the quality fields as new values. Deltas never update the
+ * keyframe, so a lost delta costs one fix; a delta whose keyframe was lost
+ * is dropped until the next keyframe resynchronises the target.
+ */
+final class BinaryProtocol {
+    static final byte SYNC_BYTE = (byte) 0xA5;
+    static final int VERSION = 2;
+    static final int FLAGS_MASK = 0x0F;
+    static final int FLAG_SEQUENCE = 0x01;
+    static final int FLAG_CRC = 0x02;
+
+    // SYNC and LEN
+    static final int HEADER_LENGTH = 2;
+    // VERSION_FLAGS and TYPE
+    static final int MIN_PAYLOAD_LENGTH = 2;
+    static final int MAX_PAYLOAD_LENGTH = FrameContext.MAX_BINARY_PAYLOAD_LENGTH;
+
+    // Incoming message types
+    static final int TYPE_POSITION = 0x01;
+    static final int TYPE_POSITION_QUALITY = 0x02;
+    static final int TYPE_HIT = 0x03;
+    static final int TYPE_SHOT_FIRED = 0x04;
+    static final int TYPE_CALIBRATE_ACK = 0x05;
+    static final int TYPE_BATCH = 0x06;
+    static final int TYPE_POSITION_KEY = 0x07;
+    static final int TYPE_POSITION_DELTA = 0x08;
+
+    // POSDELTA mask bits, in field order
+    static final int DELTA_LATITUDE = 0x01;
+    static final int DELTA_LONGITUDE = 0x02;
+    static final int DELTA_ALTITUDE = 0x04;
+    static final int DELTA_VOLTAGE = 0x08;
+    static final int DELTA_SATELLITES = 0x10;
+    static final int DELTA_HDOP = 0x20;
+    static final int DELTA_ALTITUDE_REF = 0x40;
+
+    // Batch records starting below this byte are binary, the rest ASCII
+    static final int FIRST_ASCII_RECORD_BYTE = 0x20;
+    // COUNT byte
+    static final int BATCH_HEADER_LENGTH = 1;
+    static final int MAX_BATCH_RECORDS = 255;
+
+    // Outgoing message types
+    static final int TYPE_QUERY = 0x10;
+    static final int TYPE_CALIBRATE = 0x11;
+    static final int TYPE_READY = 0x12;
+    static final int TYPE_SHOT_EXPECTED = 0x13;
+    static final int TYPE_BALLISTICS = 0x14;
+
+    // Altitude reference codes
+    static final int ALT_REF_UNKNOWN = 0;
+    static final int ALT_REF_HAE = 1;
+    static final int ALT_REF_MSL = 2;
+    static final String[] ALT_REF_NAMES = {"UNK", "HAE", "MSL"};
+
+    static final double COORDINATE_SCALE = 1e6;
+    static final double ALTITUDE_SCALE = 10.0;
+    static final double VOLTAGE_SCALE = 1000.0;
+    static final double HDOP_SCALE = 10.0;
+
+    static final int S24_MIN = -(1 << 23);
+    static final int S24_MAX = (1 << 23) - 1;
+    private static final int CANONICAL_ID_DIGITS = 4;
+    private static final int MAX_ID_LENGTH = 32;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private BinaryProtocol() {
+    }
+
+    static int altitudeRefCode(String altitudeRef) {
+        if ("HAE".equals(altitudeRef)) {
+            return ALT_REF_HAE;
+        }
+        if ("MSL".equals(altitudeRef)) {
+            return ALT_REF_MSL;
+        }
+        return ALT_REF_UNKNOWN;
+    }
+
+    static String altitudeRefName(int code) {
+        return code >= 0 && code < ALT_REF_NAMES.length ? ALT_REF_NAMES[code] : ALT_REF_NAMES[ALT_REF_UNKNOWN];
+    }
+
+    /**
+     * Value of a canonical "IDxxxx" identifier (four upper case hex digits),
+     * or -1 if the ID has to be sent as raw ASCII.
+     */
+    static int canonicalIdValue(String id) {
+        if (id.length() != 2 + CANONICAL_ID_DIGITS || id.charAt(0) != 'I' || id.charAt(1) != 'D') {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 2; i < id.length(); i++) {
+            char c = id.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+            } else {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    static String canonicalId(int value) {
+        char[] chars = new char[2 + CANONICAL_ID_DIGITS];
+        chars[0] = 'I';
+        chars[1] = 'D';
+        for (int i = chars.length - 1; i >= 2; i--) {
+            chars[i] = HEX_DIGITS[value & 0xF];
+            value >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    static int clamp(long value, int min, int max) {
+        return (int) Math.max(min, Math.min(max, value));
+    }
+
+    static int zigzagEncode(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int zigzagDecode(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Read an ID field from the current read position of a binary frame and
+     * intern it. Malformed IDs set {@link FrameContext#numberError} and
+     * return {@link TargetIdRegistry#NO_TARGET}.
+     */
+    static int readTarget(FrameContext frame, TargetIdRegistry ids) {
+        int n = frame.readVarint();
+        if (frame.numberError) {
+            return TargetIdRegistry.NO_TARGET;
+        }
+        int value = n >>> 1;
+        if ((n & 1) == 0) {
+            if (value > 0xFFFF) {
+                frame.numberError = true;
+                return TargetIdRegistry.NO_TARGET;
+            }
+            return ids.internCanonical(value);
+        }
+        return frame.readInterned(value, ids);
+    }
+
+    /**
+     * Builds one binary frame. One-off frames (simulator, benchmark) get
+     * their own small writer; CommandEncoder reuses one through
+     * {@link #reset(int)}.
+     */
+    static final class Writer {
+        private final byte[] buffer = new byte[HEADER_LENGTH + MAX_PAYLOAD_LENGTH];
+        private int length;
+
+        Writer(int type) {
+            reset(type);
+        }
+
+        /**
+         * Start a new frame in the same buffer.
+         */
+        Writer reset(int type) {
+            buffer[0] = SYNC_BYTE;
+            length = HEADER_LENGTH;
+            writeU8(VERSION << 4);
+            return writeU8(type);
+        }
+
+        int length() {
+            return length;
+        }
+
+        Writer writeBytes(byte[] data, int offset, int count) {
+            System.arraycopy(data, offset, buffer, length, count);
+            length += count;
+            return this;
+        }
+
+        Writer writeU8(int value) {
+            buffer[length++] = (byte) value;
+            return this;
+        }
+
+        Writer writeU16(int value) {
+            writeU8(value);
+            return writeU8(value >>> 8);
+        }
+
+        Writer writeS24(int value) {
+            writeU16(value);
+            return writeU8(value >>> 16);
+        }
+
+        Writer writeS32(int value) {
+            writeU16(value);
+            return writeU16(value >>> 16);
+        }
+
+        Writer writeS64(long value) {
+            writeS32((int) value);
+            return writeS32((int) (value >>> 32));
+        }
+
+        Writer writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeU8((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            return writeU8(value);
+        }
+
+        Writer writeSignedVarint(int value) {
+            return writeVarint(zigzagEncode(value));
+        }
+
+        Writer writeId(String id) {
+            int value = canonicalIdValue(id);
+            if (value >= 0) {
+                return writeVarint(value << 1);
+            }
+            byte[] ascii = id.getBytes(StandardCharsets.US_ASCII);
+            if (ascii.length > MAX_ID_LENGTH) {
+                throw new IllegalArgumentException("ID too long for binary frame: " + id);
+            }
+            writeVarint((ascii.length << 1) | 1);
+            return writeBytes(ascii, 0, ascii.length);
+        }
+
+        Writer writeCoordinate(double degrees) {
+            return writeS32((int) Math.round(degrees * COORDINATE_SCALE));
+        }
+
+        Writer writeAltitude(double metres) {
+            return writeS24(clamp(Math.round(metres * ALTITUDE_SCALE), S24_MIN, S24_MAX));
+        }
+
+        Writer writeVoltage(double volts) {
+            return writeU16(clamp(Math.round(volts * VOLTAGE_SCALE), 0, 0xFFFF));
+        }
+
+        Writer writeHdop(double hdop) {
+            return writeU8(clamp(Math.round(hdop * HDOP_SCALE), 0, 0xFF));
+        }
+
+        byte[] toFrame() {
+            buffer[1] = (byte) (length - HEADER_LENGTH);
+            return Arrays.copyOf(buffer, length);
+        }
+
+        /**
+         * Complete the frame into {@code target} at {@code offset}, which
+         * must have room for {@link #length()} bytes.
+         */
+        void copyFrameTo(byte[] target, int offset) {
+            buffer[1] = (byte) (length - HEADER_LENGTH);
+            System.arraycopy(buffer, 0, target, offset, length);
+        }
+
+    }
+}
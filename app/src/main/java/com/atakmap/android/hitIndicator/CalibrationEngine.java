@@ -0,0 +1,370 @@
+package com.atakmap.android.hitIndicator;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calibrates many targets at once: keeps up to {@link Config#window} CAL
+ * requests in flight, one per target, and refills the window as CALACKs
+ * arrive, so a full bank of targets calibrates in a single pass. The window
+ * is refilled once half of it has been answered rather than on every CALACK,
+ * so refills go out as a few packed writes instead of one write each.
+ *
+ * A request not answered within {@link Config#timeoutMs} is sent again, up
+ * to {@link Config#maxRetries} times, before the target is reported as
+ * failed. Round-trip times are kept per target for min/median/p95. A
+ * CALACK answering a retried request cannot be matched to one send, so it
+ * completes the target without adding an RTT sample.
+ *
+ * The window defaults to 1. Older TargetGPS firmware answers every CAL it
+ * hears, whatever the ID, so with several requests in flight one target's
+ * CALACK could complete another's request with a wrong RTT. Raise the
+ * window only once every target runs firmware that acks its own ID only.
+ *
+ * Thread safe: passes start on the UI thread, CALACKs arrive on the ingest
+ * thread and timeouts run on the main looper. Listener and sender calls are
+ * made outside the engine's lock.
+ */
+public class CalibrationEngine {
+    private static final String TAG = "CalibrationEngine";
+
+    public interface Listener {
+        /**
+         * @param rttMs round trip of the answered request, measured from its last send
+         * @param sampled whether the request was answered on its first send, so
+         *            that {@code rttMs} is a true round trip; after a retry the
+         *            CALACK may answer an earlier send
+         */
+        void onCalibrated(int target, long rttMs, boolean sampled);
+
+        void onCalibrationFailed(int target);
+
+        void onPassComplete(int calibrated, int failed);
+    }
+
+    /**
+     * Hands packed command writes to the link.
+     */
+    public interface Sender {
+        /** Largest write the link currently takes. */
+        int getMaxWriteLength();
+
+        boolean write(List<byte[]> writes);
+    }
+
+    public static final class Config {
+        /** CAL requests outstanding at once; see the class doc before raising it. */
+        public int window = 1;
+        public long timeoutMs = 2000;
+        /** Sends after the first before a target is given up. */
+        public int maxRetries = 2;
+        /** RTT samples kept per target. */
+        public int history = 32;
+    }
+
+    /**
+     * One outstanding CAL.
+     */
+    private static final class Request {
+        long sentAtNanos;
+        int attempts;
+    }
+
+    /**
+     * RTT history of one target, newest samples overwriting the oldest.
+     */
+    private static final class RttHistory {
+        final long[] samples;
+        int count;
+        int next;
+        int timeouts;
+        int failures;
+
+        RttHistory(int capacity) {
+            samples = new long[capacity];
+        }
+
+        void add(long rttMs) {
+            samples[next] = rttMs;
+            next = (next + 1) % samples.length;
+            if (count < samples.length) {
+                count++;
+            }
+        }
+
+        long[] sorted() {
+            long[] copy = Arrays.copyOf(samples, count);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+
+    private final Sender sender;
+    private final Listener listener;
+    private final TargetIdRegistry ids;
+    private final Config config;
+    private final Handler timeoutHandler;
+    private final CommandEncoder encoder = new CommandEncoder(MessageParser.WireFormat.ASCII);
+    private final Runnable timeoutCheck = this::checkTimeouts;
+
+    // Guarded by this
+    private final ArrayDeque<Integer> waiting = new ArrayDeque<>();
+    private final HandleMap<Request> inFlight = new HandleMap<>();
+    private final HandleMap<RttHistory> histories = new HandleMap<>();
+    private boolean timeoutPosted;
+    private int passCalibrated;
+    private int passFailed;
+
+    private long sentCount;
+    private long retryCount;
+    private long lateAckCount;
+
+    public CalibrationEngine(Sender sender, Listener listener, TargetIdRegistry ids) {
+        this(sender, listener, ids, new Config());
+    }
+
+    public CalibrationEngine(Sender sender, Listener listener, TargetIdRegistry ids, Config config) {
+        if (config.window < 1 || config.timeoutMs < 1 || config.maxRetries < 0 || config.history < 1) {
+            throw new IllegalArgumentException("Invalid calibration config");
+        }
+        this.sender = sender;
+        this.listener = listener;
+        this.ids = ids;
+        this.config = config;
+        this.timeoutHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Queue targets for calibration. Targets already waiting or in flight
+     * are not queued twice.
+     *
+     * @return targets added to the pass
+     */
+    public int calibrate(List<String> targetIds) {
+        int added = 0;
+        synchronized (this) {
+            if (waiting.isEmpty() && inFlight.isEmpty()) {
+                passCalibrated = 0;
+                passFailed = 0;
+            }
+            for (String id : targetIds) {
+                int handle = ids.intern(id);
+                if (inFlight.get(handle) == null && !waiting.contains(handle)) {
+                    waiting.add(handle);
+                    added++;
+                }
+            }
+        }
+        pump();
+        return added;
+    }
+
+    public int calibrate(String targetId) {
+        List<String> single = new ArrayList<>(1);
+        single.add(targetId);
+        return calibrate(single);
+    }
+
+    /**
+     * Match a CALACK to its request and free its slot in the window.
+     *
+     * @param receivedAtNanos {@link SystemClock#elapsedRealtimeNanos()} when the CALACK arrived
+     * @return false if no request was outstanding for the target
+     */
+    public boolean onCalibrationAck(int target, long receivedAtNanos) {
+        long rttMs;
+        boolean sampled;
+        boolean passComplete;
+        synchronized (this) {
+            Request request = inFlight.remove(target);
+            if (request == null) {
+                lateAckCount++;
+                return false;
+            }
+            rttMs = TimeUnit.NANOSECONDS.toMillis(receivedAtNanos - request.sentAtNanos);
+            sampled = request.attempts == 1;
+            if (sampled) {
+                history(target).add(rttMs);
+            }
+            passCalibrated++;
+            passComplete = waiting.isEmpty() && inFlight.isEmpty();
+        }
+        listener.onCalibrated(target, rttMs, sampled);
+        if (passComplete) {
+            finishPass();
+        } else {
+            pump();
+        }
+        return true;
+    }
+
+    /**
+     * Drop every waiting and outstanding request.
+     */
+    public void cancel() {
+        synchronized (this) {
+            waiting.clear();
+            inFlight.clear();
+            timeoutPosted = false;
+        }
+        timeoutHandler.removeCallbacks(timeoutCheck);
+    }
+
+    public synchronized boolean isActive() {
+        return !waiting.isEmpty() || !inFlight.isEmpty();
+    }
+
+    /**
+     * Median RTT of a target in ms, or -1 with no samples.
+     */
+    public synchronized long getMedianRtt(int target) {
+        RttHistory history = histories.get(target);
+        if (history == null || history.count == 0) {
+            return -1;
+        }
+        return percentile(history.sorted(), 50);
+    }
+
+    /**
+     * One line per calibrated target: min/median/p95 RTT, samples, timeouts.
+     */
+    public synchronized String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Calibration: %d sent, %d retries, %d late acks, %d in flight, %d waiting",
+                sentCount, retryCount, lateAckCount, inFlight.size(), waiting.size()));
+        histories.forEach((handle, history) -> {
+            sb.append("\n  ").append(ids.getId(handle)).append(": ");
+            if (history.count == 0) {
+                sb.append("no samples");
+            } else {
+                long[] sorted = history.sorted();
+                sb.append(String.format("rtt min %d / median %d / p95 %d ms (n=%d)", sorted[0],
+                        percentile(sorted, 50), percentile(sorted, 95), history.count));
+            }
+            if (history.timeouts > 0 || history.failures > 0) {
+                sb.append(String.format(", %d timeouts, %d failed", history.timeouts, history.failures));
+            }
+        });
+        return sb.toString();
+    }
+
+    /**
+     * Fill the window from the waiting queue and send the new requests as
+     * one packed burst, once in-flight requests are down to the low-water
+     * mark of half the window.
+     */
+    private void pump() {
+        List<byte[]> writes;
+        int count;
+        synchronized (this) {
+            if (waiting.isEmpty() || inFlight.size() > config.window / 2) {
+                return;
+            }
+            encoder.setMaxWriteLength(sender.getMaxWriteLength());
+            long now = SystemClock.elapsedRealtimeNanos();
+            while (!waiting.isEmpty() && inFlight.size() < config.window) {
+                int handle = waiting.poll();
+                Request request = new Request();
+                request.sentAtNanos = now;
+                request.attempts = 1;
+                inFlight.put(handle, request);
+                encoder.calibrate(ids.getId(handle));
+            }
+            count = encoder.getCommandCount();
+            sentCount += count;
+            writes = encoder.finish();
+            scheduleTimeoutCheck();
+        }
+        Log.d(TAG, "Sending " + count + " CAL in " + writes.size() + " writes");
+        sender.write(writes);
+    }
+
+    /**
+     * Resend requests past their timeout and give up on those out of
+     * retries.
+     */
+    private void checkTimeouts() {
+        List<byte[]> writes = null;
+        List<Integer> failed = new ArrayList<>();
+        boolean passComplete;
+        synchronized (this) {
+            timeoutPosted = false;
+            long now = SystemClock.elapsedRealtimeNanos();
+            long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.timeoutMs);
+            encoder.setMaxWriteLength(sender.getMaxWriteLength());
+            inFlight.forEach((handle, request) -> {
+                if (now - request.sentAtNanos < timeoutNanos) {
+                    return;
+                }
+                history(handle).timeouts++;
+                if (request.attempts > config.maxRetries) {
+                    inFlight.remove(handle);
+                    history(handle).failures++;
+                    passFailed++;
+                    failed.add(handle);
+                    return;
+                }
+                request.attempts++;
+                request.sentAtNanos = now;
+                retryCount++;
+                sentCount++;
+                encoder.calibrate(ids.getId(handle));
+            });
+            if (encoder.getCommandCount() > 0) {
+                writes = encoder.finish();
+            }
+            passComplete = !failed.isEmpty() && waiting.isEmpty() && inFlight.isEmpty();
+            scheduleTimeoutCheck();
+        }
+        if (writes != null) {
+            sender.write(writes);
+        }
+        for (int handle : failed) {
+            Log.w(TAG, "No CALACK from " + ids.getId(handle));
+            listener.onCalibrationFailed(handle);
+        }
+        if (passComplete) {
+            finishPass();
+        } else if (!failed.isEmpty()) {
+            pump();
+        }
+    }
+
+    private void finishPass() {
+        int calibrated;
+        int failed;
+        synchronized (this) {
+            calibrated = passCalibrated;
+            failed = passFailed;
+        }
+        listener.onPassComplete(calibrated, failed);
+    }
+
+    // Caller holds the lock
+    private void scheduleTimeoutCheck() {
+        if (!timeoutPosted && !inFlight.isEmpty()) {
+            timeoutPosted = true;
+            // A quarter of the timeout keeps the detection lag small without polling hard
+            timeoutHandler.postDelayed(timeoutCheck, Math.max(1, config.timeoutMs / 4));
+        }
+    }
+
+    private RttHistory history(int handle) {
+        return histories.computeIfAbsent(handle, h -> new RttHistory(config.history));
+    }
+
+    /**
+     * Nearest-rank percentile of sorted samples.
+     */
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
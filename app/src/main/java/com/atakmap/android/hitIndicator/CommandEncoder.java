@@ -0,0 +1,223 @@
+package com.atakmap.android.hitIndicator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes outgoing commands into reusable buffers and packs consecutive
+ * commands into as few GATT writes as the write length allows.
+ *
+ * Packed frames are only decoded one by one if the whole write reaches a
+ * target in a single LoRa packet, which the target then scans for every
+ * frame. Writes are therefore capped at {@link #MAX_PACKED_LENGTH} even when
+ * the MTU allows more. A frame is never split across writes; one longer than
+ * the write length goes out on its own.
+ *
+ * Not thread safe. Queue commands, then {@link #finish()} to collect the
+ * writes; the encoder is then ready for the next burst.
+ */
+public final class CommandEncoder {
+    /** ATT payload of one write at the default 23 byte MTU. */
+    public static final int DEFAULT_MAX_WRITE_LENGTH = 20;
+
+    /** Largest write that still fits one LoRa packet at the target (MAX_PACKET_LEN - 1). */
+    public static final int MAX_PACKED_LENGTH = 255;
+
+    private static final String TYPE_SHOT_EXPECTED = "EXPECT";
+    private static final String TYPE_BALLISTICS = "BALLISTICS";
+
+    private final MessageParser.WireFormat format;
+    private final BinaryProtocol.Writer binary = new BinaryProtocol.Writer(BinaryProtocol.TYPE_QUERY);
+    private final byte[] ascii = new byte[FrameContext.MAX_FRAME_LENGTH];
+    private int asciiLength;
+
+    // Write being filled, reused; finished writes are copied out since GATT keeps the value
+    private byte[] packet;
+    private int packetLength;
+    private int maxWriteLength;
+
+    private final List<byte[]> writes = new ArrayList<>();
+    private int commandCount;
+
+    public CommandEncoder(MessageParser.WireFormat format) {
+        this(format, DEFAULT_MAX_WRITE_LENGTH);
+    }
+
+    public CommandEncoder(MessageParser.WireFormat format, int maxWriteLength) {
+        this.format = format;
+        setMaxWriteLength(maxWriteLength);
+    }
+
+    /**
+     * Largest write the link takes, the negotiated MTU less the ATT header.
+     * Clamped to {@link #MAX_PACKED_LENGTH}. Applies from the next write started.
+     */
+    public void setMaxWriteLength(int maxWriteLength) {
+        if (maxWriteLength < 1) {
+            throw new IllegalArgumentException("Invalid write length " + maxWriteLength);
+        }
+        this.maxWriteLength = Math.min(maxWriteLength, MAX_PACKED_LENGTH);
+    }
+
+    public int getMaxWriteLength() {
+        return maxWriteLength;
+    }
+
+    public CommandEncoder query() {
+        if (format == MessageParser.WireFormat.BINARY) {
+            return appendBinary(binary.reset(BinaryProtocol.TYPE_QUERY));
+        }
+        beginAscii(MessageParser.TYPE_QUERY);
+        return appendAscii();
+    }
+
+    public CommandEncoder calibrate(String id) {
+        return idCommand(BinaryProtocol.TYPE_CALIBRATE, MessageParser.TYPE_CALIBRATE, id);
+    }
+
+    public CommandEncoder ready(String id) {
+        return idCommand(BinaryProtocol.TYPE_READY, MessageParser.TYPE_READY, id);
+    }
+
+    public CommandEncoder ballisticsRequest(String id) {
+        return idCommand(BinaryProtocol.TYPE_BALLISTICS, TYPE_BALLISTICS, id);
+    }
+
+    public CommandEncoder shotExpected(String id, long timestamp) {
+        if (format == MessageParser.WireFormat.BINARY) {
+            return appendBinary(binary.reset(BinaryProtocol.TYPE_SHOT_EXPECTED).writeId(id).writeS64(timestamp));
+        }
+        beginAscii(TYPE_SHOT_EXPECTED);
+        putField(id);
+        putField(timestamp);
+        return appendAscii();
+    }
+
+    /**
+     * Commands queued since the last {@link #finish()}.
+     */
+    public int getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * The writes holding every command queued so far, in order. Resets the
+     * encoder for the next burst.
+     */
+    public List<byte[]> finish() {
+        emitPacket();
+        List<byte[]> result = new ArrayList<>(writes);
+        writes.clear();
+        commandCount = 0;
+        return result;
+    }
+
+    private CommandEncoder idCommand(int binaryType, String asciiType, String id) {
+        if (format == MessageParser.WireFormat.BINARY) {
+            return appendBinary(binary.reset(binaryType).writeId(id));
+        }
+        beginAscii(asciiType);
+        putField(id);
+        return appendAscii();
+    }
+
+    // --- ASCII frames, written byte by byte without an intermediate String ---
+
+    private void beginAscii(String type) {
+        ascii[0] = MessageParser.START_BYTE;
+        asciiLength = 1;
+        putAscii(type);
+    }
+
+    private void putField(String value) {
+        putByte(',');
+        putAscii(value);
+    }
+
+    private void putField(long value) {
+        putByte(',');
+        // Digits are produced from the least significant one; work on the
+        // negative value so Long.MIN_VALUE needs no special case
+        if (value < 0) {
+            putByte('-');
+        } else {
+            value = -value;
+        }
+        int start = asciiLength;
+        do {
+            putByte('0' - (int) (value % 10));
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = asciiLength - 1; i < j; i++, j--) {
+            byte digit = ascii[i];
+            ascii[i] = ascii[j];
+            ascii[j] = digit;
+        }
+    }
+
+    private void putAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            putByte(c < 0x80 ? c : '?');
+        }
+    }
+
+    private void putByte(int value) {
+        // Keep room for the END byte
+        if (asciiLength >= ascii.length - 1) {
+            throw new IllegalArgumentException("Command longer than " + ascii.length + " bytes");
+        }
+        ascii[asciiLength++] = (byte) value;
+    }
+
+    private CommandEncoder appendAscii() {
+        ascii[asciiLength++] = MessageParser.END_BYTE;
+        return append(ascii, asciiLength, null);
+    }
+
+    private CommandEncoder appendBinary(BinaryProtocol.Writer writer) {
+        return append(null, writer.length(), writer);
+    }
+
+    // --- Packing ---
+
+    private CommandEncoder append(byte[] frame, int length, BinaryProtocol.Writer writer) {
+        commandCount++;
+        if (packetLength > 0 && packetLength + length > maxWriteLength) {
+            emitPacket();
+        }
+        if (length > maxWriteLength) {
+            // Too long to share a write; the stack splits it as a long write
+            byte[] single = new byte[length];
+            copyFrame(frame, writer, single, 0, length);
+            writes.add(single);
+            return this;
+        }
+        if (packet == null || packet.length < maxWriteLength) {
+            packet = packet == null ? new byte[maxWriteLength] : Arrays.copyOf(packet, maxWriteLength);
+        }
+        copyFrame(frame, writer, packet, packetLength, length);
+        packetLength += length;
+        return this;
+    }
+
+    private static void copyFrame(byte[] frame, BinaryProtocol.Writer writer, byte[] target, int offset,
+            int length) {
+        if (writer != null) {
+            writer.copyFrameTo(target, offset);
+        } else {
+            System.arraycopy(frame, 0, target, offset, length);
+        }
+    }
+
+    private void emitPacket() {
+        if (packetLength == 0) {
+            return;
+        }
+        byte[] write = new byte[packetLength];
+        System.arraycopy(packet, 0, write, 0, packetLength);
+        writes.add(write);
+        packetLength = 0;
+    }
+}
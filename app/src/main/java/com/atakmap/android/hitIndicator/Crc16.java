@@ -0,0 +1,32 @@
+package com.atakmap.android.hitIndicator;
+
+/**
+ * CRC-16/CCITT-FALSE (poly 0x1021, init 0xFFFF, no reflection), the variant
+ * the AVR and ESP32 toolchains ship, used for the optional frame check.
+ */
+final class Crc16 {
+    private static final int POLYNOMIAL = 0x1021;
+    private static final int INITIAL = 0xFFFF;
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < TABLE.length; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ POLYNOMIAL : crc << 1;
+            }
+            TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    private Crc16() {
+    }
+
+    static int compute(byte[] data, int offset, int length) {
+        int crc = INITIAL;
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) ^ TABLE[((crc >>> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+}
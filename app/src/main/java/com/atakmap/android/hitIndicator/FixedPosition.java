@@ -0,0 +1,114 @@
+package com.atakmap.android.hitIndicator;
+
+import com.atakmap.coremap.maps.coords.GeoPoint;
+
+/**
+ * Compact, immutable target position in fixed point: latitude and longitude
+ * in microdegrees (about 0.11 m) and altitude in centimetres, as the GPS
+ * units report them.
+ *
+ * Used from decoding through Target, ShotTracker and persistence; being
+ * immutable, one instance is shared by all of them instead of each keeping
+ * its own copy. Convert with {@link #toGeoPoint()} only where an ATAK API
+ * needs a GeoPoint.
+ */
+public final class FixedPosition {
+    public static final double MICRODEGREES = 1e6;
+    public static final double CENTIMETRES = 100.0;
+
+    /** Altitude value for a fix without a usable altitude. */
+    public static final int ALTITUDE_UNKNOWN = Integer.MIN_VALUE;
+
+    private final int latE6;
+    private final int lonE6;
+    private final int altCm;
+
+    public FixedPosition(int latE6, int lonE6, int altCm) {
+        this.latE6 = latE6;
+        this.lonE6 = lonE6;
+        this.altCm = altCm;
+    }
+
+    /**
+     * @param altitude metres, or NaN if unknown
+     */
+    public static FixedPosition fromDegrees(double latitude, double longitude, double altitude) {
+        int altCm = Double.isNaN(altitude) ? ALTITUDE_UNKNOWN
+                : (int) Math.max(Integer.MIN_VALUE + 1, Math.min(Integer.MAX_VALUE,
+                        Math.round(altitude * CENTIMETRES)));
+        return new FixedPosition((int) Math.round(latitude * MICRODEGREES),
+                (int) Math.round(longitude * MICRODEGREES), altCm);
+    }
+
+    public static FixedPosition fromGeoPoint(GeoPoint point) {
+        return point != null ? fromDegrees(point.getLatitude(), point.getLongitude(), point.getAltitude()) : null;
+    }
+
+    public int getLatitudeE6() {
+        return latE6;
+    }
+
+    public int getLongitudeE6() {
+        return lonE6;
+    }
+
+    public int getAltitudeCm() {
+        return altCm;
+    }
+
+    public double getLatitude() {
+        return latE6 / MICRODEGREES;
+    }
+
+    public double getLongitude() {
+        return lonE6 / MICRODEGREES;
+    }
+
+    /**
+     * @return altitude in metres, or NaN if unknown
+     */
+    public double getAltitude() {
+        return altCm == ALTITUDE_UNKNOWN ? Double.NaN : altCm / CENTIMETRES;
+    }
+
+    public boolean hasAltitude() {
+        return altCm != ALTITUDE_UNKNOWN;
+    }
+
+    /**
+     * The units report (0, 0) before their first fix.
+     */
+    public boolean isValid() {
+        return (latE6 != 0 || lonE6 != 0)
+                && Math.abs(latE6) <= 90 * (int) MICRODEGREES
+                && Math.abs(lonE6) <= 180 * (int) MICRODEGREES;
+    }
+
+    /**
+     * A new GeoPoint for the ATAK APIs, with the altitude as reported.
+     */
+    public GeoPoint toGeoPoint() {
+        return new GeoPoint(getLatitude(), getLongitude(), getAltitude());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof FixedPosition))
+            return false;
+
+        FixedPosition other = (FixedPosition) o;
+        return latE6 == other.latE6 && lonE6 == other.lonE6 && altCm == other.altCm;
+    }
+
+    @Override
+    public int hashCode() {
+        return (latE6 * 31 + lonE6) * 31 + altCm;
+    }
+
+    @Override
+    public String toString() {
+        return getLatitude() + ", " + getLongitude() + ", " + (hasAltitude() ? getAltitude() + " m" : "unknown alt");
+    }
+}
@@ -0,0 +1,524 @@
+package com.atakmap.android.hitIndicator;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Framing and decode state for one incoming byte stream.
+ * MessageParser keeps one of these per device/characteristic so that
+ * fragments from different relays never share a buffer. It also owns the
+ * scratch field offsets and the in-place number parsing used by the byte
+ * decoder, and the little-endian readers for binary (v2) frames.
+ */
+class FrameContext implements MessageParser.MessageFrame {
+    private static final byte FIELD_SEPARATOR = (byte) ',';
+    private static final byte SEQUENCE_MARKER = (byte) '#';
+    private static final byte CRC_MARKER = (byte) '*';
+    private static final int CRC_HEX_DIGITS = 4;
+    private static final int MAX_SEQUENCE_DIGITS = 5;
+    private static final int MAX_FIELDS = 16;
+
+    /**
+     * Longest frame the firmware can emit, markers included (MAX_MSG_LEN in
+     * TargetGPS.ino). Anything longer is a frame whose END byte was lost.
+     */
+    static final int MAX_FRAME_LENGTH = 128;
+    static final int MAX_BODY_LENGTH = MAX_FRAME_LENGTH - 2;
+
+    /**
+     * Largest binary payload, bounded by its one byte length field. Batch
+     * frames use the room an enlarged MTU gives them.
+     */
+    static final int MAX_BINARY_PAYLOAD_LENGTH = 255;
+
+    // Largest power of ten a double holds exactly; beyond it the fast path would round twice
+    private static final int MAX_EXACT_POW10 = 22;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POW10 = new double[MAX_EXACT_POW10 + 1];
+
+    static {
+        POW10[0] = 1.0;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10.0;
+        }
+    }
+
+    // Framing state
+    static final int STATE_IDLE = 0;
+    static final int STATE_ASCII = 1;
+    static final int STATE_BINARY_LENGTH = 2;
+    static final int STATE_BINARY_PAYLOAD = 3;
+
+    // Device address the stream belongs to
+    final String source;
+
+    // Frame accumulation, fixed size so a noisy link cannot grow it
+    final byte[] buffer = new byte[MAX_BINARY_PAYLOAD_LENGTH];
+    int bufferLength = 0;
+    int state = STATE_IDLE;
+    int binaryLength = 0;
+
+    // elapsedRealtimeNanos of the notification being fed and of the one that started the frame
+    long chunkReceivedAt = 0;
+    private long frameReceivedAt = 0;
+
+    // Data thrown away on this stream
+    long discardedBytes = 0;
+    long discardedFrames = 0;
+
+    // Scratch field offsets for the byte decoder, reused for every frame
+    private final int[] fieldStart = new int[MAX_FIELDS];
+    private final int[] fieldEnd = new int[MAX_FIELDS];
+    int fieldCount = 0;
+    boolean numberError = false;
+
+    // Read cursor for binary frames and records
+    int readPosition = 0;
+    private int readLimit = 0;
+
+    // Whether the frame being dispatched is binary (read cursor) or ASCII (fields)
+    private boolean binary = false;
+
+    // Integrity trailer of the last frame or record checked, -1 if absent
+    int sequence = -1;
+    boolean crcPresent = false;
+
+    // Shared with the parser; IDs are looked up from the buffer without a String
+    private final TargetIdRegistry ids;
+
+    FrameContext(String source, TargetIdRegistry ids) {
+        this.source = source;
+        this.ids = ids;
+    }
+
+    void startFrame() {
+        state = STATE_ASCII;
+        bufferLength = 0;
+        frameReceivedAt = chunkReceivedAt;
+    }
+
+    /**
+     * A binary SYNC byte arrived; the next byte is the payload length.
+     */
+    void startBinaryFrame() {
+        state = STATE_BINARY_LENGTH;
+        bufferLength = 0;
+        frameReceivedAt = chunkReceivedAt;
+    }
+
+    boolean inFrame() {
+        return state != STATE_IDLE;
+    }
+
+    /**
+     * Append a body byte to the current ASCII frame.
+     *
+     * @return false if the frame is already at the maximum length
+     */
+    boolean append(byte b) {
+        if (bufferLength == MAX_BODY_LENGTH) {
+            return false;
+        }
+        buffer[bufferLength++] = b;
+        return true;
+    }
+
+    /**
+     * Append a byte to the current binary payload, whose length was checked
+     * against the buffer when its LEN byte arrived.
+     */
+    void appendPayload(byte b) {
+        buffer[bufferLength++] = b;
+    }
+
+    /**
+     * Abandon the current partial frame and wait for the next START byte.
+     *
+     * @return number of bytes thrown away, START (or SYNC and LEN) included
+     */
+    int abandonFrame() {
+        int dropped = bufferLength + (state == STATE_BINARY_PAYLOAD ? 2 : 1);
+        state = STATE_IDLE;
+        bufferLength = 0;
+        discardedFrames++;
+        discardedBytes += dropped;
+        return dropped;
+    }
+
+    /**
+     * Record the start/end offset of every comma separated field of the
+     * current frame. Trailing empty fields are dropped to match
+     * String.split(",").
+     */
+    void splitFields() {
+        splitFields(0, bufferLength);
+    }
+
+    /**
+     * Check and strip the optional {@code #seq*crc} trailer of an ASCII
+     * frame body in {@code buffer[from, to)}. Either part may appear alone.
+     * The CRC covers the body up to the '*', sequence included.
+     *
+     * @return end of the body without the trailer, or -1 if the CRC does not match
+     */
+    int stripAsciiTrailer(int from, int to) {
+        sequence = -1;
+        crcPresent = false;
+
+        int end = to;
+        int crcStart = to - CRC_HEX_DIGITS;
+        if (crcStart - 1 >= from && buffer[crcStart - 1] == CRC_MARKER) {
+            int expected = 0;
+            for (int i = crcStart; i < to; i++) {
+                int digit = Character.digit(buffer[i], 16);
+                if (digit < 0) {
+                    return -1;
+                }
+                expected = (expected << 4) | digit;
+            }
+            end = crcStart - 1;
+            crcPresent = true;
+            if (Crc16.compute(buffer, from, end - from) != expected) {
+                return -1;
+            }
+        }
+
+        for (int i = end - 1; i >= from && i >= end - MAX_SEQUENCE_DIGITS - 1; i--) {
+            byte b = buffer[i];
+            if (b == SEQUENCE_MARKER) {
+                if (i < end - 1) {
+                    int value = 0;
+                    for (int j = i + 1; j < end; j++) {
+                        value = value * 10 + (buffer[j] - '0');
+                    }
+                    sequence = value & (LinkStatistics.SEQUENCE_MODULUS - 1);
+                    end = i;
+                }
+                break;
+            }
+            if (b < '0' || b > '9') {
+                break;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Check and strip the sequence/CRC trailer a binary payload carries when
+     * its flags ask for one.
+     *
+     * @return end of the payload without the trailer, or -1 if the CRC does not match
+     */
+    int stripBinaryTrailer() {
+        sequence = -1;
+        int flags = buffer[0] & BinaryProtocol.FLAGS_MASK;
+        crcPresent = (flags & BinaryProtocol.FLAG_CRC) != 0;
+
+        int end = bufferLength;
+        if (crcPresent) {
+            end -= 2;
+            if (end < BinaryProtocol.MIN_PAYLOAD_LENGTH
+                    || Crc16.compute(buffer, 0, end) != ((buffer[end] & 0xFF) | (buffer[end + 1] & 0xFF) << 8)) {
+                return -1;
+            }
+        }
+        if ((flags & BinaryProtocol.FLAG_SEQUENCE) != 0) {
+            end -= 2;
+            if (end < BinaryProtocol.MIN_PAYLOAD_LENGTH) {
+                return -1;
+            }
+            sequence = (buffer[end] & 0xFF) | (buffer[end + 1] & 0xFF) << 8;
+        }
+        return end;
+    }
+
+    /**
+     * ID field (the second) of an ASCII body in {@code buffer[from, to)}, or
+     * null if it has none.
+     */
+    String asciiSender(int from, int to) {
+        int start = -1;
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == FIELD_SEPARATOR) {
+                if (start >= 0) {
+                    return ids.getId(ids.intern(buffer, start, i - start));
+                }
+                start = i + 1;
+            }
+        }
+        return start >= 0 && start < to ? ids.getId(ids.intern(buffer, start, to - start)) : null;
+    }
+
+    /**
+     * As {@link #splitFields()} for an ASCII record held in
+     * {@code buffer[from, to)}, e.g. inside a batch frame.
+     */
+    void splitFields(int from, int to) {
+        binary = false;
+        fieldCount = 0;
+        numberError = false;
+        int start = from;
+        for (int i = from; i <= to && fieldCount < MAX_FIELDS; i++) {
+            if (i == to || buffer[i] == FIELD_SEPARATOR) {
+                fieldStart[fieldCount] = start;
+                fieldEnd[fieldCount] = i;
+                fieldCount++;
+                start = i + 1;
+            }
+        }
+        while (fieldCount > 1 && fieldStart[fieldCount - 1] == fieldEnd[fieldCount - 1]) {
+            fieldCount--;
+        }
+    }
+
+    @Override
+    public boolean isBinary() {
+        return binary;
+    }
+
+    @Override
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public long getReceivedAtNanos() {
+        return frameReceivedAt;
+    }
+
+    @Override
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    @Override
+    public boolean hasError() {
+        return numberError;
+    }
+
+    int fieldStart(int field) {
+        return fieldStart[field];
+    }
+
+    int fieldEnd(int field) {
+        return fieldEnd[field];
+    }
+
+    /**
+     * False, setting {@link #numberError}, if the frame has no such field.
+     */
+    private boolean hasField(int field) {
+        if (field < 0 || field >= fieldCount) {
+            numberError = true;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String fieldString(int field) {
+        if (!hasField(field)) {
+            return "";
+        }
+        return new String(buffer, fieldStart[field], fieldEnd[field] - fieldStart[field], StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public int fieldTarget(int field) {
+        if (!hasField(field)) {
+            return TargetIdRegistry.NO_TARGET;
+        }
+        return ids.intern(buffer, fieldStart[field], fieldEnd[field] - fieldStart[field]);
+    }
+
+    /**
+     * Parse a plain decimal field ("-77.144028", "4.10", "12") without creating
+     * a String. Anything outside the fast path (exponents, very long mantissas)
+     * falls back to Double.parseDouble on that field only. Failures set
+     * {@link #numberError}.
+     */
+    @Override
+    public double parseDouble(int field) {
+        if (!hasField(field)) {
+            return 0;
+        }
+        int i = fieldStart[field];
+        int end = fieldEnd[field];
+        if (i == end) {
+            numberError = true;
+            return 0;
+        }
+
+        boolean negative = false;
+        if (buffer[i] == '-' || buffer[i] == '+') {
+            negative = buffer[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int fractionDigits = 0;
+        int digits = 0;
+        boolean seenPoint = false;
+        for (; i < end; i++) {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (seenPoint) {
+                    fractionDigits++;
+                }
+                if (mantissa >= MAX_EXACT_MANTISSA) {
+                    return parseDoubleSlow(field);
+                }
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                return parseDoubleSlow(field);
+            }
+        }
+
+        if (digits == 0 || fractionDigits > MAX_EXACT_POW10) {
+            return parseDoubleSlow(field);
+        }
+
+        // Both operands are exact doubles, so a single division is correctly rounded
+        double value = mantissa / POW10[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    private double parseDoubleSlow(int field) {
+        try {
+            return Double.parseDouble(fieldString(field));
+        } catch (NumberFormatException e) {
+            numberError = true;
+            return 0;
+        }
+    }
+
+    @Override
+    public long parseLong(int field) {
+        if (!hasField(field)) {
+            return 0;
+        }
+        int i = fieldStart[field];
+        int end = fieldEnd[field];
+        if (i == end) {
+            numberError = true;
+            return 0;
+        }
+
+        boolean negative = false;
+        if (buffer[i] == '-' || buffer[i] == '+') {
+            negative = buffer[i] == '-';
+            i++;
+            if (i == end) {
+                numberError = true;
+                return 0;
+            }
+        }
+
+        long value = 0;
+        for (; i < end; i++) {
+            byte b = buffer[i];
+            if (b < '0' || b > '9' || value > (Long.MAX_VALUE - 9) / 10) {
+                numberError = true;
+                return 0;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    // --- Binary (v2) field readers ---
+    // Reads past the end of the frame set numberError and return 0
+
+    void beginRead(int position) {
+        beginRead(position, bufferLength);
+    }
+
+    /**
+     * Read from {@code buffer[position, limit)}, e.g. one record of a batch.
+     */
+    void beginRead(int position, int limit) {
+        binary = true;
+        readPosition = position;
+        readLimit = limit;
+        numberError = false;
+    }
+
+    @Override
+    public int remaining() {
+        return readLimit - readPosition;
+    }
+
+    @Override
+    public int readU8() {
+        if (readPosition >= readLimit) {
+            numberError = true;
+            return 0;
+        }
+        return buffer[readPosition++] & 0xFF;
+    }
+
+    @Override
+    public int readU16() {
+        return readU8() | (readU8() << 8);
+    }
+
+    @Override
+    public int readS24() {
+        int value = readU16() | (readU8() << 16);
+        return (value << 8) >> 8;
+    }
+
+    @Override
+    public int readS32() {
+        return readU16() | (readU16() << 16);
+    }
+
+    @Override
+    public long readU32() {
+        return readS32() & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public long readS64() {
+        return readU32() | ((long) readS32() << 32);
+    }
+
+    /**
+     * Unsigned LEB128 varint of at most five bytes.
+     */
+    @Override
+    public int readVarint() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readU8();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        numberError = true;
+        return 0;
+    }
+
+    @Override
+    public int readTarget() {
+        return BinaryProtocol.readTarget(this, ids);
+    }
+
+    @Override
+    public String readId() {
+        return ids.getId(readTarget());
+    }
+
+    int readInterned(int length, TargetIdRegistry registry) {
+        if (length < 0 || length > remaining()) {
+            numberError = true;
+            return TargetIdRegistry.NO_TARGET;
+        }
+        int handle = registry.intern(buffer, readPosition, length);
+        readPosition += length;
+        return handle;
+    }
+}
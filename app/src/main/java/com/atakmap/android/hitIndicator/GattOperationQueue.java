@@ -0,0 +1,336 @@
+package com.atakmap.android.hitIndicator;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import java.util.ArrayDeque;
+import java.util.UUID;
+
+/**
+ * Runs the GATT operations of one connection one at a time. Android drops
+ * an operation issued while another is outstanding on the same connection,
+ * so each one waits for the completion callback of the one before.
+ *
+ * Characteristic writes use write-without-response where the characteristic
+ * allows it: the stack completes those once the packet is buffered instead
+ * of after the peer's response, so a burst of writes streams out at the
+ * connection's full rate. A value longer than one packet (ATT MTU - 3)
+ * cannot go without response, so it is sent as an acknowledged write, which
+ * the stack splits into a long write. Relays with older firmware only
+ * accept acknowledged writes on their command characteristic, so their
+ * commands still wait for a response each.
+ * Operations that fail, are refused by a busy stack
+ * or get no callback within {@link Config#timeoutMs} are retried up to
+ * {@link Config#maxRetries} times and then dropped.
+ *
+ * Thread safe; the completion callbacks may arrive on any thread.
+ */
+public class GattOperationQueue {
+    private static final String TAG = "GattOperationQueue";
+
+    /** Client Characteristic Configuration descriptor, which turns notifications on. */
+    public static final UUID CCCD_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    // Wait before retrying an operation the stack refused as busy
+    private static final long BUSY_RETRY_DELAY_MS = 50;
+
+    // ATT header of a write; the rest of the MTU is payload
+    private static final int ATT_WRITE_OVERHEAD = 3;
+
+    public static final class Config {
+        public long timeoutMs = 3000;
+        /** Attempts after the first before an operation is dropped. */
+        public int maxRetries = 2;
+        /** Operations waiting at most; further ones are refused. */
+        public int maxQueued = 256;
+    }
+
+    private enum Kind {
+        WRITE, WRITE_NO_RESPONSE, DESCRIPTOR, MTU, ACTION
+    }
+
+    /**
+     * One queued operation.
+     */
+    private static final class Operation {
+        final Kind kind;
+        final BluetoothGattCharacteristic characteristic;
+        final BluetoothGattDescriptor descriptor;
+        final byte[] value;
+        final int mtu;
+        Runnable action;
+        int attempts;
+
+        Operation(Kind kind, BluetoothGattCharacteristic characteristic, BluetoothGattDescriptor descriptor,
+                byte[] value, int mtu) {
+            this.kind = kind;
+            this.characteristic = characteristic;
+            this.descriptor = descriptor;
+            this.value = value;
+            this.mtu = mtu;
+        }
+    }
+
+    private final BluetoothGatt gatt;
+    private final Handler handler;
+    private final Config config;
+    private final Runnable timeoutCheck = this::checkTimeout;
+    private final Runnable retryStart = this::retryStart;
+
+    // Guarded by this
+    private final ArrayDeque<Operation> queue = new ArrayDeque<>();
+    private Operation current;
+    private long startedAt;
+    private boolean closed;
+    private int mtu = BLEManager.DEFAULT_ATT_MTU;
+
+    private long completedCount;
+    private long retryCount;
+    private long timeoutCount;
+    private long failedCount;
+    private long refusedCount;
+
+    /**
+     * @param handler runs the timeouts and busy retries
+     */
+    public GattOperationQueue(BluetoothGatt gatt, Handler handler) {
+        this(gatt, handler, new Config());
+    }
+
+    public GattOperationQueue(BluetoothGatt gatt, Handler handler, Config config) {
+        if (config.timeoutMs < 1 || config.maxRetries < 0 || config.maxQueued < 1) {
+            throw new IllegalArgumentException("Invalid GATT queue config");
+        }
+        this.gatt = gatt;
+        this.handler = handler;
+        this.config = config;
+    }
+
+    /**
+     * Queue a write, without response if the characteristic supports it and
+     * the value fits in one packet at the time it is sent.
+     *
+     * @return false if the queue is full or closed
+     */
+    public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic, byte[] value) {
+        Kind kind = (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0
+                ? Kind.WRITE_NO_RESPONSE : Kind.WRITE;
+        return enqueue(new Operation(kind, characteristic, null, value, 0));
+    }
+
+    /**
+     * Turn on notifications, or indications where that is all the
+     * characteristic offers, and queue the write to its CCCD.
+     *
+     * @return false if the notification could not be set up or queued
+     */
+    public boolean enableNotifications(BluetoothGattCharacteristic characteristic) {
+        try {
+            if (!gatt.setCharacteristicNotification(characteristic, true)) {
+                return false;
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "Security exception enabling notifications", e);
+            return false;
+        }
+        BluetoothGattDescriptor cccd = characteristic.getDescriptor(CCCD_UUID);
+        if (cccd == null) {
+            // Nothing to write; the peer notifies without being asked
+            return true;
+        }
+        int properties = characteristic.getProperties();
+        byte[] value = (properties & BluetoothGattCharacteristic.PROPERTY_NOTIFY) == 0
+                && (properties & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0
+                ? BluetoothGattDescriptor.ENABLE_INDICATION_VALUE
+                : BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE;
+        return enqueue(new Operation(Kind.DESCRIPTOR, characteristic, cccd, value, 0));
+    }
+
+    public boolean requestMtu(int mtu) {
+        return enqueue(new Operation(Kind.MTU, null, null, null, mtu));
+    }
+
+    /**
+     * Post an action to the handler once every operation queued before it
+     * has completed or been dropped. Never runs if the queue is closed first.
+     */
+    public boolean whenDone(Runnable action) {
+        Operation operation = new Operation(Kind.ACTION, null, null, null, 0);
+        operation.action = action;
+        return enqueue(operation);
+    }
+
+    public void onCharacteristicWrite(int status) {
+        complete(Kind.WRITE, status);
+    }
+
+    public void onDescriptorWrite(int status) {
+        complete(Kind.DESCRIPTOR, status);
+    }
+
+    /**
+     * @param mtu the MTU now in effect, used when it succeeded
+     */
+    public void onMtuChanged(int mtu, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            synchronized (this) {
+                this.mtu = mtu;
+            }
+        }
+        complete(Kind.MTU, status);
+    }
+
+    /**
+     * Drop every operation, e.g. when the connection goes down. The queue
+     * refuses new operations afterwards.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            queue.clear();
+            current = null;
+        }
+        handler.removeCallbacks(timeoutCheck);
+        handler.removeCallbacks(retryStart);
+    }
+
+    public synchronized int getPendingCount() {
+        return queue.size() + (current != null ? 1 : 0);
+    }
+
+    public synchronized String getSummary() {
+        return String.format("%d done, %d pending, %d retries, %d timeouts, %d failed, %d refused",
+                completedCount, queue.size() + (current != null ? 1 : 0), retryCount, timeoutCount,
+                failedCount, refusedCount);
+    }
+
+    private boolean enqueue(Operation operation) {
+        synchronized (this) {
+            if (closed || queue.size() >= config.maxQueued) {
+                refusedCount++;
+                return false;
+            }
+            queue.add(operation);
+            startNext();
+        }
+        return true;
+    }
+
+    private void complete(Kind kind, int status) {
+        synchronized (this) {
+            // Both kinds of characteristic write complete through onCharacteristicWrite
+            if (current == null || (current.kind == Kind.WRITE_NO_RESPONSE ? Kind.WRITE : current.kind) != kind) {
+                Log.d(TAG, "Completion of " + kind + " matches no outstanding operation");
+                return;
+            }
+            Operation operation = current;
+            current = null;
+            handler.removeCallbacks(timeoutCheck);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                completedCount++;
+            } else {
+                Log.w(TAG, operation.kind + " failed with status " + status);
+                retryOrDrop(operation);
+            }
+            startNext();
+        }
+    }
+
+    private void checkTimeout() {
+        synchronized (this) {
+            if (current == null) {
+                return;
+            }
+            long elapsed = SystemClock.elapsedRealtime() - startedAt;
+            if (elapsed < config.timeoutMs) {
+                handler.postDelayed(timeoutCheck, config.timeoutMs - elapsed);
+                return;
+            }
+            Log.w(TAG, current.kind + " got no callback in " + elapsed + " ms");
+            Operation operation = current;
+            current = null;
+            timeoutCount++;
+            retryOrDrop(operation);
+            startNext();
+        }
+    }
+
+    private void retryStart() {
+        synchronized (this) {
+            startNext();
+        }
+    }
+
+    // Caller holds the lock
+    private void retryOrDrop(Operation operation) {
+        if (operation.attempts <= config.maxRetries) {
+            retryCount++;
+            queue.addFirst(operation);
+        } else {
+            failedCount++;
+            Log.w(TAG, "Dropping " + operation.kind + " after " + operation.attempts + " attempts");
+        }
+    }
+
+    // Caller holds the lock
+    private void startNext() {
+        while (current == null && !closed && !queue.isEmpty()) {
+            Operation operation = queue.peek();
+            if (operation.kind == Kind.ACTION) {
+                queue.poll();
+                handler.post(operation.action);
+                continue;
+            }
+            operation.attempts++;
+            if (issue(operation)) {
+                queue.poll();
+                current = operation;
+                startedAt = SystemClock.elapsedRealtime();
+                handler.removeCallbacks(timeoutCheck);
+                handler.postDelayed(timeoutCheck, config.timeoutMs);
+                return;
+            }
+            if (operation.attempts > config.maxRetries) {
+                queue.poll();
+                failedCount++;
+                Log.w(TAG, "Dropping " + operation.kind + ", refused " + operation.attempts + " times");
+                continue;
+            }
+            // Usually an operation issued outside the queue is still outstanding
+            retryCount++;
+            handler.removeCallbacks(retryStart);
+            handler.postDelayed(retryStart, BUSY_RETRY_DELAY_MS);
+            return;
+        }
+    }
+
+    // Caller holds the lock
+    private boolean issue(Operation operation) {
+        try {
+            switch (operation.kind) {
+                case WRITE:
+                case WRITE_NO_RESPONSE:
+                    boolean noResponse = operation.kind == Kind.WRITE_NO_RESPONSE
+                            && operation.value.length <= mtu - ATT_WRITE_OVERHEAD;
+                    operation.characteristic.setWriteType(noResponse
+                            ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+                            : BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+                    operation.characteristic.setValue(operation.value);
+                    return gatt.writeCharacteristic(operation.characteristic);
+                case DESCRIPTOR:
+                    operation.descriptor.setValue(operation.value);
+                    return gatt.writeDescriptor(operation.descriptor);
+                case MTU:
+                    return gatt.requestMtu(operation.mtu);
+                default:
+                    return false;
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "Security exception issuing " + operation.kind, e);
+            return false;
+        }
+    }
+}
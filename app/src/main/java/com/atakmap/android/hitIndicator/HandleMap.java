@@ -0,0 +1,126 @@
+package com.atakmap.android.hitIndicator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Map from {@link TargetIdRegistry} handles to values, backed by an array
+ * indexed by handle since handles are small and dense.
+ *
+ * Reads never lock and see the latest value written for a handle. Writes
+ * are serialised so a write cannot be lost while the array grows; they are
+ * rare on the hot path, where callers update the stored objects in place.
+ */
+final class HandleMap<V> {
+    private static final int INITIAL_CAPACITY = 64;
+
+    interface Visitor<V> {
+        void visit(int handle, V value);
+    }
+
+    interface Factory<V> {
+        V create(int handle);
+    }
+
+    private volatile AtomicReferenceArray<V> values = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private volatile int size;
+
+    V get(int handle) {
+        AtomicReferenceArray<V> current = values;
+        return handle >= 0 && handle < current.length() ? current.get(handle) : null;
+    }
+
+    synchronized V put(int handle, V value) {
+        V previous = ensureCapacity(handle).getAndSet(handle, value);
+        if (previous == null) {
+            size++;
+        }
+        return previous;
+    }
+
+    /**
+     * The value of a handle, created under the write lock if missing.
+     */
+    V computeIfAbsent(int handle, Factory<V> factory) {
+        V value = get(handle);
+        if (value != null) {
+            return value;
+        }
+        synchronized (this) {
+            AtomicReferenceArray<V> current = ensureCapacity(handle);
+            value = current.get(handle);
+            if (value == null) {
+                value = factory.create(handle);
+                current.set(handle, value);
+                size++;
+            }
+            return value;
+        }
+    }
+
+    synchronized V remove(int handle) {
+        AtomicReferenceArray<V> current = values;
+        if (handle < 0 || handle >= current.length()) {
+            return null;
+        }
+        V previous = current.getAndSet(handle, null);
+        if (previous != null) {
+            size--;
+        }
+        return previous;
+    }
+
+    synchronized void clear() {
+        values = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Visit every entry in handle order; entries changed during the walk
+     * may or may not be seen.
+     */
+    void forEach(Visitor<V> visitor) {
+        AtomicReferenceArray<V> current = values;
+        for (int handle = 0; handle < current.length(); handle++) {
+            V value = current.get(handle);
+            if (value != null) {
+                visitor.visit(handle, value);
+            }
+        }
+    }
+
+    List<V> values() {
+        List<V> result = new ArrayList<>(size);
+        forEach((handle, value) -> result.add(value));
+        return result;
+    }
+
+    private AtomicReferenceArray<V> ensureCapacity(int handle) {
+        if (handle < 0) {
+            throw new IllegalArgumentException("Invalid target handle " + handle);
+        }
+        AtomicReferenceArray<V> current = values;
+        if (handle < current.length()) {
+            return current;
+        }
+        int capacity = current.length();
+        while (capacity <= handle) {
+            capacity *= 2;
+        }
+        AtomicReferenceArray<V> grown = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < current.length(); i++) {
+            grown.set(i, current.get(i));
+        }
+        values = grown;
+        return grown;
+    }
+}
@@ -33,11 +33,16 @@ import com.atakmap.android.dropdown.DropDownReceiver;
 import com.atakmap.android.maps.MapView;
 import com.atakmap.android.maps.Marker;
 import com.atakmap.coremap.log.Log;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 import com.atakmap.android.hitIndicator.ElevationProfileView;
 
 /**
@@ -47,6 +52,7 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
         DropDown.OnStateListener,
         BLEManager.BLEListener,
         MessageParser.MessageListener,
+        IngestPipeline.DrainListener,
         TargetListAdapter.TargetActionListener,
         BLEDeviceAdapter.DeviceConnectListener {
 
@@ -86,6 +92,9 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
     private Button removeAllTargetsButton;
     private Button calibrateAllButton;
     private Button generateTestTargetsButton;
+    private Button recordLinkButton;
+    private Button replayLinkButton;
+    private Button simulateRangeButton;
     private Button backButtonSettings;
     private ListView deviceListView;
     private BLEDeviceAdapter deviceAdapter;
@@ -109,11 +118,34 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
     // Communication components
     private BLEManager bleManager;
     private MessageParser messageParser;
+    private IngestPipeline ingestPipeline;
+    private PositionCoalescer positionCoalescer;
+    private LinkRecorder linkRecorder;
+    // Set while a capture is being replayed through the ingest path
+    private volatile ReplayEngine linkReplay;
+    private RangeSimulator rangeSimulator;
     private ShotTracker shotTracker; // New shot tracking system
 
-    // Calibration variables
-    private String currentCalibrationTargetId;
-    private long calibrationStartTime;
+    // Target IDs as handles, shared by the parser, TargetManager and ShotTracker
+    private final TargetIdRegistry targetIds;
+
+    // Outstanding CALs per target; CALACKs are matched on the ingest thread
+    private CalibrationEngine calibrationEngine;
+
+    // Maps remote millis() timestamps onto the phone's clock; fed on the ingest thread
+    private final RemoteClockEstimator clockEstimator;
+
+    // Polls targets with QUERY while a device is connected
+    private QueryScheduler queryScheduler;
+
+    // Packs outgoing commands into as few GATT writes as possible; UI thread only
+    private final CommandEncoder commandEncoder = new CommandEncoder(MessageParser.WireFormat.ASCII);
+
+    // Ingest results waiting for the next UI refresh
+    private final HandleMap<Target> dirtyTargets = new HandleMap<>();
+    private volatile String pendingStatus;
+    private volatile boolean detailRefreshPending;
+    private final AtomicBoolean uiRefreshPosted = new AtomicBoolean();
 
     // Map markers for targets
     private final Map<String, Marker> targetMarkers = new HashMap<>();
@@ -126,6 +158,8 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
         this.mapView = mapView;
         this.pluginContext = context;
         this.targetManager = targetManager;
+        this.targetIds = targetManager.getIdRegistry();
+        this.clockEstimator = new RemoteClockEstimator(targetIds);
 
         // Inflate views
         this.mainView = View.inflate(context, R.layout.hit_indicator_main, null);
@@ -143,7 +177,62 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
 
         // Initialize BLE manager and message parser
         bleManager = new BLEManager(mapView.getContext(), this);
-        messageParser = new MessageParser(this);
+        // Hold position reports latest-wins until the UI is ready for them
+        positionCoalescer = new PositionCoalescer(this);
+        messageParser = new MessageParser(positionCoalescer, targetIds);
+
+        // Decode notifications on the ingest thread rather than the UI looper
+        ingestPipeline = new IngestPipeline(messageParser);
+        ingestPipeline.setDrainListener(this);
+        ingestPipeline.start();
+        // Tap raw notifications ahead of decoding so link sessions can be captured
+        linkRecorder = new LinkRecorder(ingestPipeline);
+        linkRecorder.setFailureListener(e -> mapView.post(() -> {
+            if (recordLinkButton != null) {
+                recordLinkButton.setText("Record Link");
+            }
+            updateStatus("Link recording stopped: " + e.getMessage());
+            showToast("Link recording failed: " + e.getMessage());
+        }));
+        bleManager.setDataSink(linkRecorder);
+
+        calibrationEngine = new CalibrationEngine(new CalibrationEngine.Sender() {
+            @Override
+            public int getMaxWriteLength() {
+                BLEManager manager = bleManager;
+                return manager != null ? manager.getMaxWriteLength() : CommandEncoder.DEFAULT_MAX_WRITE_LENGTH;
+            }
+
+            @Override
+            public boolean write(List<byte[]> writes) {
+                BLEManager manager = bleManager;
+                return manager != null && manager.writeToAllDevices(writes);
+            }
+        }, new CalibrationEngine.Listener() {
+            @Override
+            public void onCalibrated(int target, long rttMs, boolean sampled) {
+                if (sampled) {
+                    clockEstimator.onRoundTrip(target, rttMs);
+                }
+                targetManager.setCalibrationTime(target, rttMs);
+                Target calibrated = targetManager.getTarget(target);
+                if (calibrated != null) {
+                    markTargetDirty(target, calibrated, "Calibrated " + calibrated.getId() + ": " + rttMs + "ms");
+                }
+            }
+
+            @Override
+            public void onCalibrationFailed(int target) {
+                updateStatus("No calibration response from " + targetIds.getId(target));
+            }
+
+            @Override
+            public void onPassComplete(int calibrated, int failed) {
+                updateStatus("Calibration complete: " + calibrated + " calibrated, " + failed + " failed");
+            }
+        }, targetIds);
+
+        queryScheduler = new QueryScheduler(targetManager, this::pollTargets);
 
         // Initialize shot tracker for ballistics calculations
         shotTracker = new ShotTracker(new ShotTracker.ShotTrackerListener() {
@@ -151,9 +240,11 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
             public void onShotFired(String targetId, long shotTime) {
                 Log.d(TAG, "Shot fired at target: " + targetId);
                 updateStatus("Shot fired at " + targetId);
+                queryScheduler.noteEngagement(targetId);
 
                 // Send "expect hit" message to target
                 if (bleManager != null && bleManager.hasConnectedDevices()) {
+                    bleManager.boostConnectionPriority();
                     bleManager.writeToAllDevices(MessageParser.createShotExpectedMessage(targetId, shotTime));
                 }
             }
@@ -162,14 +253,19 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
             public void onHitCorrelated(String targetId, BallisticsCalculator.ShotData shotData) {
                 Log.d(TAG, "Hit correlated for target: " + targetId +
                         ", ToF: " + shotData.timeOfFlight + "s");
-                updateStatus(String.format("Hit confirmed: %s (%.3fs)", targetId, shotData.timeOfFlight));
+                String status = String.format("Hit confirmed: %s (%.3fs)", targetId, shotData.timeOfFlight);
 
-                // Update target with ballistics data
+                // Update target with ballistics data; the UI reads these fields, so write them on its thread
+                // ahead of the refresh that follows the drain
                 Target target = targetManager.getTarget(targetId);
                 if (target != null && shotData.ballistics != null) {
-                    target.setBallisticsData(shotData.ballistics);
-                    target.setAverageTimeOfFlight(shotData.timeOfFlight);
-                    updateTargetAdapter();
+                    mapView.post(() -> {
+                        target.setBallisticsData(shotData.ballistics);
+                        target.setAverageTimeOfFlight(shotData.timeOfFlight);
+                    });
+                    markTargetDirty(targetIds.find(targetId), target, status);
+                } else {
+                    pendingStatus = status;
                 }
             }
 
@@ -184,10 +280,10 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
                 Log.d(TAG, String.format("Ballistics calculated for %s: MV=%.1f m/s, BC=%.3f",
                         targetId, ballistics.muzzleVelocity, ballistics.ballisticCoefficient));
 
-                // Update the target detail view if it's currently showing this target
-                refreshDetailView();
+                // Update the target detail view if it's currently showing this target, with the next refresh
+                detailRefreshPending = true;
             }
-        });
+        }, targetIds);
 
         // Update shot tracker with current self position
         updateShotTrackerPosition();
@@ -255,6 +351,9 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
             removeAllTargetsButton = settingsView.findViewById(R.id.removeAllTargetsButton);
             calibrateAllButton = settingsView.findViewById(R.id.calibrateAllButton);
             generateTestTargetsButton = settingsView.findViewById(R.id.generateTestTargetsButton);
+            recordLinkButton = settingsView.findViewById(R.id.recordLinkButton);
+            replayLinkButton = settingsView.findViewById(R.id.replayLinkButton);
+            simulateRangeButton = settingsView.findViewById(R.id.simulateRangeButton);
             backButtonSettings = settingsView.findViewById(R.id.backButton);
             deviceListView = settingsView.findViewById(R.id.deviceListView);
             detailVerticalOffsetText = detailView.findViewById(R.id.detailVerticalOffsetText);
@@ -267,6 +366,10 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
             // Set click listeners
             if (diagButton != null) {
                 diagButton.setOnClickListener(v -> showBLEDiagnostics());
+                diagButton.setOnLongClickListener(v -> {
+                    runParserBenchmark();
+                    return true;
+                });
             } else {
                 Log.e(TAG, "SettingsUI: diagButton not found");
             }
@@ -307,6 +410,24 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
                 Log.e(TAG, "SettingsUI: generateTestTargetsButton not found");
             }
 
+            if (recordLinkButton != null) {
+                recordLinkButton.setOnClickListener(v -> toggleLinkRecording());
+            } else {
+                Log.e(TAG, "SettingsUI: recordLinkButton not found");
+            }
+
+            if (replayLinkButton != null) {
+                replayLinkButton.setOnClickListener(v -> toggleLinkReplay());
+            } else {
+                Log.e(TAG, "SettingsUI: replayLinkButton not found");
+            }
+
+            if (simulateRangeButton != null) {
+                simulateRangeButton.setOnClickListener(v -> toggleRangeSimulation());
+            } else {
+                Log.e(TAG, "SettingsUI: simulateRangeButton not found");
+            }
+
             if (backButtonSettings != null) {
                 backButtonSettings.setOnClickListener(v -> showMainView());
             } else {
@@ -388,7 +509,7 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
     }
 
     private void drawLineToTarget(Target target) {
-        if (target == null || target.getLocation() == null)
+        if (target == null || target.getPosition() == null)
             return;
 
         try {
@@ -464,7 +585,7 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
 
         // 2) Grab points
         GeoPoint me = mapView.getSelfMarker().getPoint();
-        GeoPoint tgt = target.getLocation();
+        FixedPosition tgt = target.getPosition();
         if (me == null || tgt == null) {
             detailRangeText.setText("Range:            —");
             detailBearingText.setText("Bearing:          —");
@@ -481,11 +602,9 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
         // etc.)
 
         // 3) Compute distances & angles
-        double ground = horizontalDistance(me, tgt); // Assuming horizontalDistance is defined
-        double slant = slantDistance(me, tgt); // Assuming slantDistance is defined
-        double bearing = me.bearingTo(tgt);
-        if (bearing < 0)
-            bearing += 360;
+        double ground = horizontalDistance(me, tgt);
+        double slant = slantDistance(me, tgt);
+        double bearing = bearingTo(me, tgt);
 
         // --- Determine MSL Altitudes ---
         // Target MSL (Assuming tgt.getAltitude() IS the raw MSL value)
@@ -644,24 +763,37 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
         return selfMSL;
     }
 
-    private double horizontalDistance(GeoPoint p1, GeoPoint p2) {
+    private double horizontalDistance(GeoPoint p1, FixedPosition p2) {
         if (p1 == null || p2 == null)
             return 0;
 
-        // Create copies of the points with the same altitude to get true horizontal
-        // distance
-        GeoPoint p1Horizontal = new GeoPoint(p1.getLatitude(), p1.getLongitude(), 0.0);
-        GeoPoint p2Horizontal = new GeoPoint(p2.getLatitude(), p2.getLongitude(), 0.0);
-
-        // Now distanceTo will give us true horizontal distance
-        return p1Horizontal.distanceTo(p2Horizontal);
+        // Straight from the primitives; no GeoPoint copies at zero altitude
+        float[] results = new float[1];
+        Location.distanceBetween(p1.getLatitude(), p1.getLongitude(),
+                p2.getLatitude(), p2.getLongitude(), results);
+        return results[0];
     }
 
-    private double slantDistance(GeoPoint p1, GeoPoint p2) {
+    private double slantDistance(GeoPoint p1, FixedPosition p2) {
         if (p1 == null || p2 == null)
             return 0;
-        // Use the built-in distanceTo which calculates slant distance
-        return p1.distanceTo(p2);
+        double ground = horizontalDistance(p1, p2);
+        double vertical = p2.getAltitude() - p1.getAltitude();
+        if (Double.isNaN(vertical)) {
+            return ground;
+        }
+        return Math.sqrt(ground * ground + vertical * vertical);
+    }
+
+    /**
+     * Initial bearing from p1 to p2, 0-360 degrees.
+     */
+    private double bearingTo(GeoPoint p1, FixedPosition p2) {
+        float[] results = new float[2];
+        Location.distanceBetween(p1.getLatitude(), p1.getLongitude(),
+                p2.getLatitude(), p2.getLongitude(), results);
+        double bearing = results[1];
+        return bearing < 0 ? bearing + 360 : bearing;
     }
 
     // --- UI Update Helpers ---
@@ -728,13 +860,6 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
         }
     }
 
-    /**
-     * Update the target adapter (alias for updateTargetList)
-     */
-    private void updateTargetAdapter() {
-        updateTargetList();
-    }
-
     /**
      * Update the status text view on the UI thread.
      */
@@ -857,13 +982,25 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
             return;
         }
         updateStatus("Scanning for targets...");
-        byte[] queryMessage = MessageParser.createQueryMessage();
-        if (!bleManager.writeToAllDevices(queryMessage)) {
+        commandEncoder.setMaxWriteLength(bleManager.getMaxWriteLength());
+        if (!bleManager.writeToAllDevices(commandEncoder.query().finish())) {
             showToast("Send error");
             updateStatus("Error sending scan");
         }
     }
 
+    /**
+     * Send a scheduled QUERY without touching the status line.
+     */
+    private boolean pollTargets() {
+        BLEManager manager = bleManager;
+        if (manager == null || !manager.hasConnectedDevices()) {
+            return false;
+        }
+        commandEncoder.setMaxWriteLength(manager.getMaxWriteLength());
+        return manager.writeToAllDevices(commandEncoder.query().finish());
+    }
+
     /**
      * Reset hit counts for all targets.
      */
@@ -908,7 +1045,8 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
     }
 
     /**
-     * Start calibration process (simple version: calibrates first target).
+     * Calibrate every known target in one pass; the engine keeps a window of
+     * CALs in flight and packs each burst into as few writes as it can.
      */
     private void calibrateAllTargets() {
         if (bleManager == null || !bleManager.hasConnectedDevices()) {
@@ -924,8 +1062,12 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
             updateStatus("No targets to calibrate");
             return;
         }
-        updateStatus("Starting calibration...");
-        calibrateTarget(targets.get(0).getId());
+        List<String> ids = new ArrayList<>(targets.size());
+        for (Target target : targets) {
+            ids.add(target.getId());
+        }
+        int added = calibrationEngine.calibrate(ids);
+        updateStatus("Calibrating " + added + " targets...");
     }
 
     // private void clearTargetLine() {
@@ -945,10 +1087,8 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
             showToast("No connected devices");
             return;
         }
-        currentCalibrationTargetId = targetId;
-        calibrationStartTime = System.currentTimeMillis();
         updateStatus("Calibrating target " + targetId + "...");
-        bleManager.writeToAllDevices(MessageParser.createCalibrationMessage(targetId));
+        calibrationEngine.calibrate(targetId);
     }
 
     // --- Map Marker Logic ---
@@ -989,12 +1129,10 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
         }
 
         // 2) Grab the raw GPS point (expecting MSL altitude)
-        GeoPoint rawGeo = target.getLocation();
-        Log.d(TAG, "Target ID: " + targetId + " | Raw Location: " + rawGeo);
-        boolean locationValid = rawGeo != null && GeoPoint.isValid(rawGeo.getLatitude(), rawGeo.getLongitude()); // More
-                                                                                                                 // robust
-                                                                                                                 // validity
-                                                                                                                 // check
+        FixedPosition rawPosition = target.getPosition();
+        Log.d(TAG, "Target ID: " + targetId + " | Raw Location: " + rawPosition);
+        boolean locationValid = rawPosition != null
+                && GeoPoint.isValid(rawPosition.getLatitude(), rawPosition.getLongitude());
 
         if (!locationValid) {
             Log.d(TAG, "Target location invalid or null for ID: " + targetId + ". Removing marker.");
@@ -1015,9 +1153,9 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
         }
 
         // Location is valid, proceed with marker creation/update
-        double lat = rawGeo.getLatitude();
-        double lon = rawGeo.getLongitude();
-        double rawMSL = rawGeo.getAltitude(); // Assuming this is MSL from your target source
+        double lat = rawPosition.getLatitude();
+        double lon = rawPosition.getLongitude();
+        double rawMSL = rawPosition.getAltitude(); // Assuming this is MSL from your target source
 
         // 4) Convert MSL to HAE for proper placement
         double haeAltitude = rawMSL; // Default to MSL if conversion fails
@@ -1176,10 +1314,34 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
     @Override
     public void disposeImpl() {
         Log.d(TAG, "Disposing HitIndicatorDropDownReceiver");
+        if (calibrationEngine != null) {
+            calibrationEngine.cancel();
+        }
+        if (queryScheduler != null) {
+            queryScheduler.stop();
+        }
         if (bleManager != null) {
             bleManager.destroy();
             bleManager = null;
         }
+        if (rangeSimulator != null) {
+            rangeSimulator.stop();
+            rangeSimulator = null;
+        }
+        if (linkRecorder != null) {
+            linkRecorder.stop();
+        }
+        ReplayEngine replay = linkReplay;
+        if (replay != null) {
+            replay.cancel();
+        }
+        if (ingestPipeline != null) {
+            ingestPipeline.stop();
+            ingestPipeline = null;
+        }
+        if (targetManager != null) {
+            targetManager.saveIfDirty();
+        }
         if (!targetMarkers.isEmpty() && mapView != null && mapView.getRootGroup() != null) {
             for (Marker marker : targetMarkers.values()) {
                 try {
@@ -1266,6 +1428,7 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
             name = "device";
         }
         updateStatus("Connected to " + name);
+        queryScheduler.start();
         mapView.post(this::updateConnectionStatus);
     }
 
@@ -1280,19 +1443,30 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
         } catch (SecurityException e) {
             name = "device";
         }
+        if (messageParser != null) {
+            messageParser.releaseDevice(device.getAddress());
+        }
+        if (ingestPipeline != null) {
+            ingestPipeline.releaseDevice(device.getAddress());
+        }
         updateStatus("Disconnected from " + name);
+        if (bleManager == null || !bleManager.hasConnectedDevices()) {
+            queryScheduler.stop();
+        }
         mapView.post(this::updateConnectionStatus);
     }
 
     @Override
-    public void onDataReceived(BluetoothDevice device, String characteristicUuid, byte[] data) {
-        if (messageParser != null) {
+    public void onDataReceived(BluetoothDevice device, String characteristicUuid, byte[] data,
+            long receivedAtNanos) {
+        if (linkRecorder != null) {
             // Process data based on characteristic UUID
             if (BLEManager.POSITION_CHARACTERISTIC_UUID.toString().equals(characteristicUuid) ||
                     BLEManager.HIT_CHARACTERISTIC_UUID.toString().equals(characteristicUuid) ||
                     BLEManager.BATTERY_CHARACTERISTIC_UUID.toString().equals(characteristicUuid) ||
                     BLEManager.CALIBRATION_CHARACTERISTIC_UUID.toString().equals(characteristicUuid)) {
-                messageParser.processData(data);
+                // Frame each device/characteristic separately so relays cannot interleave
+                linkRecorder.offer(device.getAddress(), characteristicUuid, data, receivedAtNanos);
             }
         }
     }
@@ -1316,87 +1490,137 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
      * MESSAGE PARSER LISTENER METHODS
      *****************************/
     @Override
-    public void onPositionMessage(String id, GeoPoint location, double voltage) {
+    public void onPositionMessage(int handle, FixedPosition position, double voltage, long receivedAtNanos) {
         if (targetManager == null)
             return;
-        Target target = targetManager.updateTargetPosition(id, location);
-        targetManager.updateTargetVoltage(id, voltage);
-        mapView.post(() -> {
-            updateStatus("Pos: " + id + " V:" + String.format(Locale.US, "%.2f", voltage));
-            updateTargetMarker(target);
-            updateTargetList();
-        });
+        Target target = targetManager.updateTargetPosition(handle, position);
+        targetManager.updateTargetVoltage(handle, voltage);
+        markTargetDirty(handle, target, "Pos: " + target.getId() + " V:" + String.format(Locale.US, "%.2f", voltage));
     }
 
     @Override
-    public void onPositionMessageEnhanced(String id, GeoPoint location, double voltage,
-            int satellites, double hdop, String altitudeRef) {
+    public void onPositionMessageEnhanced(int handle, FixedPosition position, double voltage,
+            int satellites, double hdop, String altitudeRef, long receivedAtNanos) {
         if (targetManager == null)
             return;
 
-        Target target = targetManager.updateTargetPosition(id, location);
-        targetManager.updateTargetVoltage(id, voltage);
+        Target target = targetManager.updateTargetPosition(handle, position);
+        targetManager.updateTargetVoltage(handle, voltage);
+        String id = target.getId();
 
         // Update GPS quality information
         target.setGpsQuality(satellites, hdop, altitudeRef);
 
         // Update shot tracker with enhanced position
         if (shotTracker != null) {
-            shotTracker.updateTargetPosition(id, location);
+            shotTracker.updateTargetPosition(handle, position);
         }
 
-        mapView.post(() -> {
-            String gpsQuality = target.isGpsQualityGood() ? "Good" : "Poor";
-            updateStatus(String.format("Pos: %s V:%.2f %s (%s)",
-                    id, voltage, gpsQuality, altitudeRef));
-            updateTargetMarker(target);
-            updateTargetList();
+        String gpsQuality = target.isGpsQualityGood() ? "Good" : "Poor";
+        markTargetDirty(handle, target, String.format("Pos: %s V:%.2f %s (%s)",
+                id, voltage, gpsQuality, altitudeRef));
 
-            // Log detailed GPS quality for debugging
-            Log.d(TAG, String.format("Target %s GPS: %s", id, target.getGpsQualitySummary()));
+        // Log detailed GPS quality for debugging
+        Log.d(TAG, String.format("Target %s GPS: %s", id, target.getGpsQualitySummary()));
 
-            // Warn if GPS quality is poor
-            if (!target.isGpsQualityGood()) {
-                Log.w(TAG, String.format("Poor GPS quality for target %s: Sats=%d, HDOP=%.1f",
-                        id, satellites, hdop));
-            }
-        });
+        // Warn if GPS quality is poor
+        if (!target.isGpsQualityGood()) {
+            Log.w(TAG, String.format("Poor GPS quality for target %s: Sats=%d, HDOP=%.1f",
+                    id, satellites, hdop));
+        }
     }
 
     @Override
-    public void onHitMessage(String id) {
+    public void onHitMessage(int handle, long receivedAtNanos) {
         if (targetManager == null)
             return;
-        Target target = targetManager.processHit(id); // Creates if not exists
-        mapView.post(() -> {
-            updateStatus("Hit: " + id + " (Total: " + target.getHitCount() + ")");
-            updateTargetMarker(target);
-            updateTargetList();
-        });
+        Target target = targetManager.processHit(handle); // Creates if not exists
+        if (shotTracker != null) {
+            shotTracker.recordHit(handle, clockEstimator.eventTime(handle, receivedAtNanos));
+        }
+        markTargetDirty(handle, target, "Hit: " + target.getId() + " (Total: " + target.getHitCount() + ")");
     }
 
     @Override
-    public void onCalibrationResponse(String id, long roundTripTime) {
+    public void onCalibrationResponse(int handle, long receivedAtNanos) {
         if (targetManager == null)
             return;
-        if (id != null && id.equals(currentCalibrationTargetId) && calibrationStartTime > 0) {
-            long elapsedTime = System.currentTimeMillis() - calibrationStartTime;
-            targetManager.setCalibrationTime(id, elapsedTime);
-            String status = "Calibrated " + id + ": " + elapsedTime + "ms";
-            mapView.post(() -> {
-                updateStatus(status);
-                Target target = targetManager.getTarget(id);
-                if (target != null)
-                    updateTargetMarker(target);
-                updateTargetList();
-            });
-            currentCalibrationTargetId = null;
+        if (!calibrationEngine.onCalibrationAck(handle, receivedAtNanos)) {
+            Log.d(TAG, "CALACK without a pending request: " + targetIds.getId(handle));
         }
     }
 
     @Override
     public void onParseError(String error) {
-        updateStatus("Parse error: " + error);
+        pendingStatus = "Parse error: " + error;
+    }
+
+    /**
+     * Note a target changed by ingest; the UI picks it up after the drain.
+     */
+    private void markTargetDirty(int handle, Target target, String status) {
+        dirtyTargets.put(handle, target);
+        pendingStatus = status;
+    }
+
+    /**
+     * Runs on the ingest thread. While the previous refresh is still waiting
+     * for the UI thread, positions keep coalescing; otherwise the newest one
+     * per target is applied to the model and a single refresh is posted.
+     */
+    @Override
+    public void onDrainComplete(int frames) {
+        boolean refresh = uiRefreshPosted.compareAndSet(false, true);
+        if (refresh) {
+            positionCoalescer.flush();
+        }
+        // One save per drain rather than one per frame
+        if (targetManager != null) {
+            targetManager.saveIfDirty();
+        }
+        if (!refresh) {
+            return;
+        }
+        if (dirtyTargets.isEmpty() && pendingStatus == null && !detailRefreshPending) {
+            uiRefreshPosted.set(false);
+            return;
+        }
+        mapView.post(this::publishIngestResults);
+    }
+
+    /**
+     * Apply everything ingest changed since the last refresh in one UI pass:
+     * one marker update per changed target, one list update and the latest
+     * status line.
+     */
+    private void publishIngestResults() {
+        uiRefreshPosted.set(false);
+        if (positionCoalescer.hasPending() && ingestPipeline != null) {
+            // Positions held back while this refresh was queued
+            ingestPipeline.requestDrainCallback();
+        }
+
+        String status = pendingStatus;
+        pendingStatus = null;
+        if (status != null) {
+            updateStatus(status);
+        }
+        if (detailRefreshPending) {
+            detailRefreshPending = false;
+            refreshDetailView();
+        }
+
+        if (targetManager == null || dirtyTargets.isEmpty()) {
+            return;
+        }
+        // Unmark before reading the target so a change arriving meanwhile marks it again
+        dirtyTargets.forEach((handle, target) -> {
+            dirtyTargets.remove(handle);
+            updateTargetMarker(target);
+        });
+        if (targetAdapter != null) {
+            targetAdapter.updateTargets(targetManager.getAllTargets());
+        }
     }
 
     /****************************
@@ -1477,10 +1701,10 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
         showDetailView(target);
 
         // Optionally, also pan to the target
-        GeoPoint loc = target.getLocation();
-        if (loc != null && (loc.getLatitude() != 0.0 || loc.getLongitude() != 0.0)) {
+        FixedPosition position = target.getPosition();
+        if (position != null && position.isValid()) {
             Log.d(TAG, "Locating target " + target.getId());
-            mapView.getMapController().panTo(loc, true);
+            mapView.getMapController().panTo(position.toGeoPoint(), true);
         } else {
             showToast("Target has no valid location.");
         }
@@ -1530,6 +1754,29 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
             userMessage.append(locationPerm ? "✓" : "✗").append(" Location Permission\n");
         }
 
+        userMessage.append(bleManager.getLinkSummary()).append("\n");
+        if (messageParser != null) {
+            userMessage.append(messageParser.getFramingSummary()).append("\n");
+            userMessage.append(messageParser.getLinkStatistics().getSummary()).append("\n");
+        }
+        if (ingestPipeline != null) {
+            userMessage.append(ingestPipeline.getSummary()).append("\n");
+            userMessage.append(positionCoalescer.getSummary()).append("\n");
+        }
+        if (linkRecorder != null) {
+            userMessage.append(linkRecorder.getSummary()).append("\n");
+        }
+        if (calibrationEngine != null) {
+            userMessage.append(calibrationEngine.getSummary()).append("\n");
+        }
+        if (queryScheduler != null) {
+            userMessage.append(queryScheduler.getSummary()).append("\n");
+        }
+        userMessage.append(clockEstimator.getSummary()).append("\n");
+        if (rangeSimulator != null) {
+            userMessage.append(rangeSimulator.getSummary()).append("\n");
+        }
+
         // Update status and show toast
         updateStatus(userMessage.toString().replace("\n", " | "));
         showToast("Check logs for full diagnostics");
@@ -1538,19 +1785,175 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
         bleManager.logDiagnostics();
     }
 
-    @Override
-    public void onShotFiredMessage(String targetId, long timestamp) {
-        Log.d(TAG, "Shot fired message received for target: " + targetId);
+    /**
+     * Start or stop capturing raw BLE notifications to the plugin's files directory
+     */
+    private void toggleLinkRecording() {
+        if (linkRecorder == null) {
+            return;
+        }
+        if (linkRecorder.isRecording()) {
+            linkRecorder.stop();
+            recordLinkButton.setText("Record Link");
+            updateStatus(linkRecorder.getSummary());
+            return;
+        }
 
-        if (shotTracker != null) {
-            shotTracker.recordShotFired(targetId, timestamp);
+        File captureDir = getCaptureDirectory();
+        try {
+            linkRecorder.start(captureDir);
+            recordLinkButton.setText("Stop Recording");
+            updateStatus("Recording link to " + captureDir.getAbsolutePath());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to start link capture", e);
+            showToast("Could not start recording: " + e.getMessage());
         }
+    }
 
+    private File getCaptureDirectory() {
+        Context context = mapView.getContext();
+        File baseDir = context.getExternalFilesDir(null);
+        if (baseDir == null) {
+            baseDir = context.getFilesDir();
+        }
+        return new File(baseDir, "hitIndicator/captures");
+    }
+
+    /**
+     * Replay the newest link capture through the live ingest path, or stop
+     * the replay in progress. Frames go into the ingest pipeline like BLE
+     * notifications, so they update the targets, hit counts and ballistics;
+     * the status then shows the replay summary and a digest of that model.
+     */
+    private void toggleLinkReplay() {
+        ReplayEngine running = linkReplay;
+        if (running != null) {
+            running.cancel();
+            return;
+        }
+        IngestPipeline pipeline = ingestPipeline;
+        if (pipeline == null) {
+            return;
+        }
+        // The replay reuses the captured device addresses, which must have no other producer
+        if ((bleManager != null && bleManager.hasConnectedDevices())
+                || (rangeSimulator != null && rangeSimulator.isRunning())
+                || (linkRecorder != null && linkRecorder.isRecording())) {
+            showToast("Disconnect devices and stop recording and simulation before replaying");
+            return;
+        }
+
+        File[] captures = getCaptureDirectory().listFiles((dir, name) -> name.endsWith(LinkRecorder.FILE_EXTENSION));
+        if (captures == null || captures.length == 0) {
+            showToast("No link capture to replay");
+            return;
+        }
+        // Names start with the creation time
+        Arrays.sort(captures);
+        File capture = captures[captures.length - 1];
+
+        ReplayEngine replay = new ReplayEngine(null, targetIds);
+        linkReplay = replay;
+        replayLinkButton.setText("Stop Replay");
+        updateStatus("Replaying " + capture.getName());
+        new Thread(() -> runLinkReplay(replay, capture, pipeline), "HitIndicatorReplay").start();
+    }
+
+    private void runLinkReplay(ReplayEngine replay, File capture, IngestPipeline pipeline) {
+        String status;
+        try {
+            List<ReplayEngine.CaptureRecord> records = ReplayEngine.readCapture(capture);
+            ReplayEngine.Result result = replay.feed(records, pipeline, ReplayEngine.Mode.REAL_TIME, 1.0);
+            awaitIngestIdle(pipeline);
+            long model = ReplayEngine.digestState(targetManager.getAllTargets(),
+                    shotTracker.getAllCompletedShots());
+            status = result.getSummary() + String.format(Locale.US, ", model digest %016x", model);
+        } catch (IOException e) {
+            Log.e(TAG, "Link replay failed", e);
+            status = "Replay failed: " + e.getMessage();
+        }
+        String message = status;
         mapView.post(() -> {
-            updateStatus("Shot fired at " + targetId);
+            linkReplay = null;
+            if (replayLinkButton != null) {
+                replayLinkButton.setText("Replay Link");
+            }
+            updateStatus(message);
         });
     }
 
+    /**
+     * Wait, for a few seconds at most, until ingest has decoded everything
+     * queued and the UI has applied it.
+     */
+    private void awaitIngestIdle(IngestPipeline pipeline) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((pipeline.getDepth() > 0 || positionCoalescer.hasPending() || uiRefreshPosted.get())
+                && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Start or stop the synthetic range, which feeds relay traffic for
+     * hundreds of virtual targets into the same path as the BLE callbacks
+     */
+    private void toggleRangeSimulation() {
+        if (rangeSimulator != null && rangeSimulator.isRunning()) {
+            rangeSimulator.stop();
+            simulateRangeButton.setText("Simulate Range");
+            updateStatus(rangeSimulator.getSummary());
+            return;
+        }
+        if (linkRecorder == null) {
+            return;
+        }
+
+        RangeSimulator.Config config = new RangeSimulator.Config();
+        Marker selfMarker = mapView.getSelfMarker();
+        GeoPoint selfPoint = selfMarker != null ? selfMarker.getPoint() : null;
+        if (selfPoint != null && GeoPoint.isValid(selfPoint.getLatitude(), selfPoint.getLongitude())) {
+            config.centerLat = selfPoint.getLatitude();
+            config.centerLon = selfPoint.getLongitude();
+            if (!Double.isNaN(selfPoint.getAltitude())) {
+                config.centerAlt = selfPoint.getAltitude();
+            }
+        }
+        updateShotTrackerPosition();
+
+        rangeSimulator = new RangeSimulator(config, linkRecorder);
+        rangeSimulator.start();
+        simulateRangeButton.setText("Stop Simulation");
+        updateStatus("Simulating " + config.targetCount + " targets and " + config.shooterCount + " shooters");
+    }
+
+    /**
+     * Run the message parser microbenchmark off the UI thread and show the result
+     */
+    private void runParserBenchmark() {
+        updateStatus("Running parser benchmark...");
+        new Thread(() -> updateStatus(MessageParserBenchmark.run(20000)), "ParserBenchmark").start();
+    }
+
+    @Override
+    public void onShotFiredMessage(int handle, String shooter, long timestamp, long receivedAtNanos) {
+        String targetId = targetIds.getId(handle);
+        Log.d(TAG, "Shot fired message received for target: " + targetId + " from " + shooter);
+
+        // The timestamp is the shooter's millis(); put it on the phone's clock
+        long shotTime = clockEstimator.onRemoteTimestamp(shooter, timestamp, receivedAtNanos);
+        if (shotTracker != null) {
+            shotTracker.recordShotFired(handle, shotTime);
+        }
+
+        pendingStatus = "Shot fired at " + targetId;
+    }
+
     /**
      * Update shot tracker with current self position for accurate ballistics
      * calculations
@@ -1617,7 +2020,7 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
                                                                                                 // meters to degrees
         double target1Lon = baseLon
                 + (300 * 0.9144 * Math.sin(Math.toRadians(45))) / (111111.0 * Math.cos(Math.toRadians(baseLat)));
-        GeoPoint target1Pos = new GeoPoint(target1Lat, target1Lon, baseAltMSL + 5.0); // 5m higher
+        FixedPosition target1Pos = FixedPosition.fromDegrees(target1Lat, target1Lon, baseAltMSL + 5.0); // 5m higher
 
         Target target1 = targetManager.updateTargetPosition("T001", target1Pos);
         targetManager.updateTargetVoltage("T001", 4.1);
@@ -1629,7 +2032,7 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
         double target2Lat = baseLat + (500 * 0.9144 * Math.cos(Math.toRadians(225))) / 111111.0;
         double target2Lon = baseLon
                 + (500 * 0.9144 * Math.sin(Math.toRadians(225))) / (111111.0 * Math.cos(Math.toRadians(baseLat)));
-        GeoPoint target2Pos = new GeoPoint(target2Lat, target2Lon, baseAltMSL - 8.0); // 8m lower
+        FixedPosition target2Pos = FixedPosition.fromDegrees(target2Lat, target2Lon, baseAltMSL - 8.0); // 8m lower
 
         Target target2 = targetManager.updateTargetPosition("T002", target2Pos);
         targetManager.updateTargetVoltage("T002", 3.8);
@@ -1640,7 +2043,7 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
         double target3Lat = baseLat + (800 * 0.9144 * Math.cos(Math.toRadians(0))) / 111111.0;
         double target3Lon = baseLon
                 + (800 * 0.9144 * Math.sin(Math.toRadians(0))) / (111111.0 * Math.cos(Math.toRadians(baseLat)));
-        GeoPoint target3Pos = new GeoPoint(target3Lat, target3Lon, baseAltMSL + 15.0); // 15m higher
+        FixedPosition target3Pos = FixedPosition.fromDegrees(target3Lat, target3Lon, baseAltMSL + 15.0); // 15m higher
 
         Target target3 = targetManager.updateTargetPosition("T003", target3Pos);
         targetManager.updateTargetVoltage("T003", 4.2);
@@ -1651,7 +2054,7 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
         double target4Lat = baseLat + (1000 * 0.9144 * Math.cos(Math.toRadians(135))) / 111111.0;
         double target4Lon = baseLon
                 + (1000 * 0.9144 * Math.sin(Math.toRadians(135))) / (111111.0 * Math.cos(Math.toRadians(baseLat)));
-        GeoPoint target4Pos = new GeoPoint(target4Lat, target4Lon, baseAltMSL - 3.0); // 3m lower
+        FixedPosition target4Pos = FixedPosition.fromDegrees(target4Lat, target4Lon, baseAltMSL - 3.0); // 3m lower
 
         Target target4 = targetManager.updateTargetPosition("T004", target4Pos);
         targetManager.updateTargetVoltage("T004", 3.5); // Low battery
@@ -1665,7 +2068,7 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
         double target5Lat = baseLat + (600 * 0.9144 * Math.cos(Math.toRadians(270))) / 111111.0;
         double target5Lon = baseLon
                 + (600 * 0.9144 * Math.sin(Math.toRadians(270))) / (111111.0 * Math.cos(Math.toRadians(baseLat)));
-        GeoPoint target5Pos = new GeoPoint(target5Lat, target5Lon, baseAltMSL + 10.0); // 10m higher
+        FixedPosition target5Pos = FixedPosition.fromDegrees(target5Lat, target5Lon, baseAltMSL + 10.0); // 10m higher
 
         Target target5 = targetManager.updateTargetPosition("T005", target5Pos);
         targetManager.updateTargetVoltage("T005", 4.0);
@@ -1693,6 +2096,8 @@ public class HitIndicatorDropDownReceiver extends DropDownReceiver implements
             Log.w(TAG, "Could not add ballistics data to test target: " + e.getMessage());
         }
 
+        targetManager.saveIfDirty();
+
         // Update UI
         mapView.post(() -> {
             // Update all target markers on the map
@@ -0,0 +1,318 @@
+package com.atakmap.android.hitIndicator;
+
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ingest stage between the BLE callbacks and the MessageParser.
+ *
+ * Notifications are queued on a bounded single-producer/single-consumer
+ * ring per device and decoded on one dedicated thread, so parsing, target
+ * updates and persistence stay off the UI looper. GATT delivers the
+ * callbacks of one connection in order on one thread at a time, which makes
+ * each ring's producer single without any locking.
+ *
+ * When a ring is full the newest notification is dropped (tail drop) and
+ * counted: the producer is the BLE thread, which must never block, and
+ * dropping the oldest entry would mean writing the consumer's index.
+ * After each pass that emptied every ring the {@link DrainListener} is told,
+ * so the UI can be refreshed once per burst instead of once per frame.
+ */
+public class IngestPipeline implements BLEManager.DataSink {
+    private static final String TAG = "IngestPipeline";
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    // Upper bound on an idle wait, in case a wake-up is missed
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    public interface DrainListener {
+        /**
+         * Called on the ingest thread after every ring has been emptied.
+         *
+         * @param frames notifications decoded since the previous call
+         */
+        void onDrainComplete(int frames);
+    }
+
+    /**
+     * Fixed-size ring for one device. Only the producer writes tail and only
+     * the consumer writes head; the volatile writes publish the slots.
+     */
+    static final class Ring {
+        final String source;
+        private final String[] channels;
+        private final byte[][] payloads;
+        private final long[] receivedAt;
+        private final int mask;
+        private volatile long head;
+        private volatile long tail;
+
+        Ring(String source, int capacity) {
+            this.source = source;
+            channels = new String[capacity];
+            payloads = new byte[capacity][];
+            receivedAt = new long[capacity];
+            mask = capacity - 1;
+        }
+
+        boolean offer(String channel, byte[] data, long receivedAtNanos) {
+            long t = tail;
+            if (t - head > mask) {
+                return false;
+            }
+            int slot = (int) t & mask;
+            channels[slot] = channel;
+            payloads[slot] = data;
+            receivedAt[slot] = receivedAtNanos;
+            tail = t + 1;
+            return true;
+        }
+
+        int size() {
+            return (int) (tail - head);
+        }
+    }
+
+    private final MessageParser parser;
+    private final int capacity;
+    private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Ring> ringList = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long decoded;
+    private volatile int highWaterMark;
+
+    private volatile DrainListener drainListener;
+    private volatile Thread thread;
+    private volatile boolean running;
+    private volatile boolean consumerParked;
+    private volatile boolean drainCallbackRequested;
+
+    public IngestPipeline(MessageParser parser) {
+        this(parser, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity ring slots per device, rounded up to a power of two
+     */
+    public IngestPipeline(MessageParser parser, int capacity) {
+        this.parser = parser;
+        this.capacity = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    }
+
+    public void setDrainListener(DrainListener drainListener) {
+        this.drainListener = drainListener;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::runLoop, "HitIndicatorIngest");
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        Thread current = thread;
+        thread = null;
+        if (current != null) {
+            LockSupport.unpark(current);
+            try {
+                current.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queue a notification for decoding. Callable from any thread, but only
+     * one thread at a time per device.
+     *
+     * @return false if the device's ring was full and the data was dropped
+     */
+    @Override
+    public boolean offer(String deviceAddress, String characteristicUuid, byte[] data, long receivedAtNanos) {
+        Ring ring = rings.get(deviceAddress);
+        if (ring == null) {
+            ring = getOrCreateRing(deviceAddress);
+        }
+
+        offered.incrementAndGet();
+        if (!ring.offer(characteristicUuid, data, receivedAtNanos)) {
+            long total = dropped.incrementAndGet();
+            if ((total & (total - 1)) == 0) {
+                // Log at powers of two so a stalled consumer cannot flood the log
+                Log.w(TAG, "Ingest ring full for " + deviceAddress + ", dropped " + total + " notifications");
+            }
+            return false;
+        }
+
+        int depth = ring.size();
+        if (depth > highWaterMark) {
+            highWaterMark = depth;
+        }
+        if (consumerParked) {
+            Thread consumer = thread;
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Have the ingest thread call {@link DrainListener#onDrainComplete} again
+     * even if no new data arrives, e.g. once the UI is ready for more.
+     */
+    public void requestDrainCallback() {
+        drainCallbackRequested = true;
+        Thread consumer = thread;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Drop the ring of a disconnected device so rings do not build up as
+     * devices come and go. Call once the device has disconnected, so nothing
+     * more is offered for it. A ring still holding notifications is kept for
+     * the consumer to drain and is reused if the device reconnects.
+     *
+     * @return false if the device had no ring or its ring was not empty
+     */
+    public synchronized boolean releaseDevice(String deviceAddress) {
+        Ring ring = deviceAddress != null ? rings.get(deviceAddress) : null;
+        if (ring == null || ring.size() > 0) {
+            return false;
+        }
+        rings.remove(deviceAddress);
+        ringList.remove(ring);
+        return true;
+    }
+
+    private synchronized Ring getOrCreateRing(String deviceAddress) {
+        Ring ring = rings.get(deviceAddress);
+        if (ring == null) {
+            ring = new Ring(deviceAddress, capacity);
+            rings.put(deviceAddress, ring);
+            ringList.add(ring);
+        }
+        return ring;
+    }
+
+    private void runLoop() {
+        int sinceDrain = 0;
+        while (running) {
+            int frames = drainOnce();
+            sinceDrain += frames;
+            if (frames > 0) {
+                continue;
+            }
+
+            if (sinceDrain > 0 || drainCallbackRequested) {
+                drainCallbackRequested = false;
+                DrainListener listener = drainListener;
+                if (listener != null) {
+                    try {
+                        listener.onDrainComplete(sinceDrain);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Drain listener failed", e);
+                    }
+                }
+                sinceDrain = 0;
+            }
+
+            // Announce the wait before the final check so a concurrent offer either
+            // is seen here or sees the flag and unparks us
+            consumerParked = true;
+            if (getDepth() == 0 && !drainCallbackRequested && running) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            consumerParked = false;
+        }
+    }
+
+    /**
+     * Decode whatever is queued on every ring.
+     *
+     * @return number of notifications decoded
+     */
+    private int drainOnce() {
+        int frames = 0;
+        for (Ring ring : ringList) {
+            long h = ring.head;
+            long t = ring.tail;
+            for (; h < t; h++) {
+                int slot = (int) h & ring.mask;
+                String channel = ring.channels[slot];
+                byte[] data = ring.payloads[slot];
+                ring.channels[slot] = null;
+                ring.payloads[slot] = null;
+                try {
+                    parser.processData(ring.source, channel, data, ring.receivedAt[slot]);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Error decoding data from " + ring.source, e);
+                }
+                // Free the slot straight away so the producer sees the room
+                ring.head = h + 1;
+                frames++;
+            }
+        }
+        decoded += frames;
+        return frames;
+    }
+
+    /**
+     * Notifications currently queued across all devices.
+     */
+    public int getDepth() {
+        int depth = 0;
+        for (Ring ring : ringList) {
+            depth += ring.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Deepest any single ring has been since start.
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getOfferedCount() {
+        return offered.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getDecodedCount() {
+        return decoded;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public String getSummary() {
+        return "Ingest: depth " + getDepth() + "/" + capacity + " per device, high water " + highWaterMark
+                + ", decoded " + decoded + ", dropped " + dropped.get() + " (tail drop)";
+    }
+}
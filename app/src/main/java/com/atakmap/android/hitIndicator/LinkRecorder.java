@@ -0,0 +1,347 @@
+package com.atakmap.android.hitIndicator;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records raw BLE notifications to compact append-only capture files so
+ * field sessions can be replayed.
+ *
+ * Sits in front of the ingest pipeline as a {@link BLEManager.DataSink}:
+ * every notification is forwarded unchanged and, while recording, also
+ * timestamped and queued for a background writer. The hot path only
+ * allocates one small record and does a non-blocking queue offer; when the
+ * writer falls behind, records are dropped from the capture (never from
+ * decoding) and counted.
+ *
+ * <pre>
+ * File (big-endian):
+ *   magic:u32 "HILK"  version:u16  startWallClockMs:i64  startElapsedNanos:i64
+ *   channelCount:u8  channelUuid[channelCount]:16 bytes (msb, lsb)
+ *   record...
+ * Record:
+ *   elapsedRealtimeNanos:i64  mac:6 bytes  channel:u8  length:u16  data[length]
+ * </pre>
+ *
+ * The channel is an index into the header's UUID table, or 0xFF for an
+ * unknown characteristic. Files rotate once they pass the size limit and the
+ * oldest are deleted beyond the file limit. A write error stops the
+ * recording and is reported to the {@link FailureListener}.
+ */
+public class LinkRecorder implements BLEManager.DataSink {
+    private static final String TAG = "LinkRecorder";
+
+    public static final int MAGIC = 0x48494C4B; // "HILK"
+    public static final int FORMAT_VERSION = 1;
+    public static final String FILE_EXTENSION = ".hilk";
+    public static final int CHANNEL_UNKNOWN = 0xFF;
+    public static final int MAC_LENGTH = 6;
+    public static final int RECORD_HEADER_LENGTH = 8 + MAC_LENGTH + 1 + 2;
+
+    /**
+     * Characteristic table written to every file header.
+     */
+    public static final UUID[] CHANNELS = {
+            BLEManager.POSITION_CHARACTERISTIC_UUID,
+            BLEManager.HIT_CHARACTERISTIC_UUID,
+            BLEManager.BATTERY_CHARACTERISTIC_UUID,
+            BLEManager.CALIBRATION_CHARACTERISTIC_UUID
+    };
+
+    public static final long DEFAULT_MAX_FILE_BYTES = 8L * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 10;
+
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+    private static final long FLUSH_INTERVAL_MS = 500;
+    private static final String[] CHANNEL_STRINGS = new String[CHANNELS.length];
+
+    static {
+        for (int i = 0; i < CHANNELS.length; i++) {
+            CHANNEL_STRINGS[i] = CHANNELS[i].toString();
+        }
+    }
+
+    public interface FailureListener {
+        /**
+         * Called on the writer thread once recording has stopped because the
+         * capture could not be written.
+         */
+        void onRecordingFailed(IOException e);
+    }
+
+    private static final class Record {
+        final long timestampNanos;
+        final String deviceAddress;
+        final String channel;
+        final byte[] data;
+
+        Record(long timestampNanos, String deviceAddress, String channel, byte[] data) {
+            this.timestampNanos = timestampNanos;
+            this.deviceAddress = deviceAddress;
+            this.channel = channel;
+            this.data = data;
+        }
+    }
+
+    private final BLEManager.DataSink downstream;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private volatile boolean recording;
+    private volatile FailureListener failureListener;
+    private Thread writerThread;
+    private File directory;
+    private volatile File currentFile;
+    private int fileSequence;
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long bytesWritten;
+
+    public LinkRecorder(BLEManager.DataSink downstream) {
+        this(downstream, DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_FILES);
+    }
+
+    public LinkRecorder(BLEManager.DataSink downstream, long maxFileBytes, int maxFiles) {
+        this.downstream = downstream;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+    }
+
+    public void setFailureListener(FailureListener failureListener) {
+        this.failureListener = failureListener;
+    }
+
+    @Override
+    public boolean offer(String deviceAddress, String characteristicUuid, byte[] data, long receivedAtNanos) {
+        if (recording) {
+            Record record = new Record(receivedAtNanos, deviceAddress, characteristicUuid, data);
+            if (queue.offer(record)) {
+                recorded.incrementAndGet();
+            } else {
+                dropped.incrementAndGet();
+            }
+        }
+        return downstream.offer(deviceAddress, characteristicUuid, data, receivedAtNanos);
+    }
+
+    /**
+     * Start recording into new files in {@code directory}.
+     *
+     * @throws IOException if the directory cannot be created, or the writer
+     *             of the last capture is still closing its file
+     */
+    public synchronized void start(File directory) throws IOException {
+        if (recording) {
+            return;
+        }
+        if (writerThread != null && writerThread.isAlive()) {
+            // Two writers would share the queue and split one capture across files
+            throw new IOException("Previous capture is still being written");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create capture directory " + directory);
+        }
+        this.directory = directory;
+        // Records a failed or slow writer left behind belong to the last capture
+        discardQueued();
+        recording = true;
+        writerThread = new Thread(this::runWriter, "HitIndicatorLinkRecorder");
+        writerThread.start();
+        Log.i(TAG, "Recording link capture to " + directory);
+    }
+
+    /**
+     * Stop recording; queued records are written out before the file closes,
+     * unless the writer cannot keep up, in which case the rest are dropped.
+     */
+    public synchronized void stop() {
+        if (!recording) {
+            return;
+        }
+        recording = false;
+        try {
+            writerThread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Lets a writer still running finish with what it has; start() waits for it
+        discardQueued();
+        Log.i(TAG, "Stopped link capture: " + getSummary());
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    public File getCurrentFile() {
+        return currentFile;
+    }
+
+    public long getRecordedCount() {
+        return recorded.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public String getSummary() {
+        File file = currentFile;
+        return "Capture: " + (recording ? "recording" : "stopped") + ", " + recorded.get() + " records, "
+                + bytesWritten + " bytes, " + dropped.get() + " dropped"
+                + (file != null ? " (" + file.getName() + ")" : "");
+    }
+
+    private void runWriter() {
+        DataOutputStream out = null;
+        long fileBytes = 0;
+        try {
+            while (recording || !queue.isEmpty()) {
+                Record record = queue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (record == null) {
+                    if (out != null) {
+                        out.flush();
+                    }
+                    continue;
+                }
+
+                if (out == null || fileBytes >= maxFileBytes) {
+                    closeQuietly(out);
+                    out = openNextFile();
+                    fileBytes = out.size();
+                }
+
+                writeRecord(out, record);
+                fileBytes += RECORD_HEADER_LENGTH + record.data.length;
+                bytesWritten += RECORD_HEADER_LENGTH + record.data.length;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Link capture failed, recording stopped", e);
+            recording = false;
+            discardQueued();
+            closeQuietly(out);
+            out = null;
+            FailureListener listener = failureListener;
+            if (listener != null) {
+                listener.onRecordingFailed(e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Drop records that will not be written, counting them as dropped.
+     */
+    private void discardQueued() {
+        int discarded = 0;
+        while (queue.poll() != null) {
+            discarded++;
+        }
+        if (discarded > 0) {
+            recorded.addAndGet(-discarded);
+            dropped.addAndGet(discarded);
+        }
+    }
+
+    private DataOutputStream openNextFile() throws IOException {
+        String stamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+        File file = new File(directory, "link_" + stamp + "_" + (fileSequence++) + FILE_EXTENSION);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), WRITE_BUFFER_BYTES));
+
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeLong(System.currentTimeMillis());
+        out.writeLong(SystemClock.elapsedRealtimeNanos());
+        out.writeByte(CHANNELS.length);
+        for (UUID channel : CHANNELS) {
+            out.writeLong(channel.getMostSignificantBits());
+            out.writeLong(channel.getLeastSignificantBits());
+        }
+
+        currentFile = file;
+        deleteOldFiles();
+        Log.d(TAG, "Opened capture file " + file.getName());
+        return out;
+    }
+
+    private void writeRecord(DataOutputStream out, Record record) throws IOException {
+        out.writeLong(record.timestampNanos);
+        writeMac(out, record.deviceAddress);
+        out.writeByte(channelIndex(record.channel));
+        out.writeShort(record.data.length);
+        out.write(record.data);
+    }
+
+    private static int channelIndex(String channel) {
+        for (int i = 0; i < CHANNEL_STRINGS.length; i++) {
+            if (CHANNEL_STRINGS[i].equalsIgnoreCase(channel)) {
+                return i;
+            }
+        }
+        return CHANNEL_UNKNOWN;
+    }
+
+    /**
+     * Write "AA:BB:CC:DD:EE:FF" as six bytes; anything else is written as zeros.
+     */
+    private static void writeMac(DataOutputStream out, String address) throws IOException {
+        byte[] mac = new byte[MAC_LENGTH];
+        if (address != null && address.length() == 17) {
+            try {
+                for (int i = 0; i < MAC_LENGTH; i++) {
+                    mac[i] = (byte) Integer.parseInt(address.substring(i * 3, i * 3 + 2), 16);
+                }
+            } catch (NumberFormatException e) {
+                Arrays.fill(mac, (byte) 0);
+            }
+        }
+        out.write(mac);
+    }
+
+    private void deleteOldFiles() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+        if (files == null || files.length <= maxFiles) {
+            return;
+        }
+        // Names start with the creation time, so they sort oldest first
+        Arrays.sort(files);
+        for (int i = 0; i < files.length - maxFiles; i++) {
+            if (!files[i].delete()) {
+                Log.w(TAG, "Could not delete old capture " + files[i]);
+            }
+        }
+    }
+
+    private static void closeQuietly(DataOutputStream out) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing capture file", e);
+        }
+    }
+}
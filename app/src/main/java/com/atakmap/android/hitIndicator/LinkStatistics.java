@@ -0,0 +1,175 @@
+package com.atakmap.android.hitIndicator;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loss, duplicate, reordering and corruption counters for the LoRa/BLE path.
+ *
+ * Frames that carry the optional sequence number are tracked per source
+ * (relay device address) and sender (target ID, or the relay itself for batch
+ * frames). Sequence numbers are 16 bit and wrap. Frames failing their CRC are
+ * counted against the source since their sender cannot be trusted.
+ */
+public class LinkStatistics {
+    public static final int SEQUENCE_MODULUS = 1 << 16;
+
+    /**
+     * Sender name used for the sequence numbers the relay puts on batch frames.
+     */
+    public static final String RELAY_SENDER = "relay";
+
+    // Late frames are recognised as reordered or duplicate this far back
+    private static final int WINDOW = 64;
+    private static final int HALF_RANGE = SEQUENCE_MODULUS / 2;
+    // A jump further back than the window, or further ahead than this, means
+    // the sender restarted its count rather than the link losing frames
+    private static final int MAX_GAP = 1024;
+
+    /**
+     * Counters for one sender on one source.
+     */
+    public static class Counters {
+        private long received;
+        private long lost;
+        private long duplicates;
+        private long reordered;
+        private long restarts;
+        private int lastSequence = -1;
+        // Bit i set: lastSequence - i has been received
+        private long window;
+
+        synchronized void record(int sequence) {
+            if (lastSequence < 0) {
+                start(sequence);
+                return;
+            }
+
+            int ahead = (sequence - lastSequence) & (SEQUENCE_MODULUS - 1);
+            if (ahead == 0) {
+                duplicates++;
+            } else if (ahead <= MAX_GAP) {
+                received++;
+                lost += ahead - 1;
+                window = ahead < WINDOW ? (window << ahead) | 1 : 1;
+                lastSequence = sequence;
+            } else if (ahead < HALF_RANGE) {
+                restarts++;
+                start(sequence);
+            } else {
+                int behind = SEQUENCE_MODULUS - ahead;
+                if (behind >= WINDOW) {
+                    restarts++;
+                    start(sequence);
+                } else if ((window & (1L << behind)) != 0) {
+                    duplicates++;
+                } else {
+                    // Counted as lost when the newer frame arrived
+                    received++;
+                    reordered++;
+                    lost--;
+                    window |= 1L << behind;
+                }
+            }
+        }
+
+        private void start(int sequence) {
+            received++;
+            lastSequence = sequence;
+            window = 1;
+        }
+
+        public synchronized long getReceived() {
+            return received;
+        }
+
+        public synchronized long getLost() {
+            return lost;
+        }
+
+        public synchronized long getDuplicates() {
+            return duplicates;
+        }
+
+        public synchronized long getReordered() {
+            return reordered;
+        }
+
+        public synchronized long getRestarts() {
+            return restarts;
+        }
+
+        /**
+         * Fraction of sequenced frames that never arrived.
+         */
+        public synchronized double getLossRatio() {
+            long expected = received + lost;
+            return expected > 0 ? (double) lost / expected : 0;
+        }
+    }
+
+    // Per source, then per sender
+    private final Map<String, Map<String, Counters>> counters = new ConcurrentHashMap<>();
+    private final Map<String, Long> corrupted = new ConcurrentHashMap<>();
+
+    public void recordSequence(String source, String sender, int sequence) {
+        getCounters(source, sender).record(sequence & (SEQUENCE_MODULUS - 1));
+    }
+
+    public void recordCorrupted(String source) {
+        corrupted.merge(source, 1L, Long::sum);
+    }
+
+    public Counters getCounters(String source, String sender) {
+        Map<String, Counters> senders = counters.get(source);
+        if (senders == null) {
+            senders = counters.computeIfAbsent(source, k -> new ConcurrentHashMap<>());
+        }
+        Counters result = senders.get(sender);
+        if (result == null) {
+            result = senders.computeIfAbsent(sender, k -> new Counters());
+        }
+        return result;
+    }
+
+    public Map<String, Map<String, Counters>> getAllCounters() {
+        return counters;
+    }
+
+    public long getCorrupted(String source) {
+        Long count = corrupted.get(source);
+        return count != null ? count : 0;
+    }
+
+    public long getTotalCorrupted() {
+        long total = 0;
+        for (Long count : corrupted.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    public void clear() {
+        counters.clear();
+        corrupted.clear();
+    }
+
+    /**
+     * One line per sender plus the corruption count, for diagnostics.
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, Map<String, Counters>> source : counters.entrySet()) {
+            for (Map.Entry<String, Counters> sender : source.getValue().entrySet()) {
+                Counters c = sender.getValue();
+                summary.append(String.format(Locale.US,
+                        "%s %s: %d rx, %d lost (%.1f%%), %d dup, %d reordered, %d restarts%n",
+                        source.getKey(), sender.getKey(), c.getReceived(), c.getLost(), c.getLossRatio() * 100,
+                        c.getDuplicates(), c.getReordered(), c.getRestarts()));
+            }
+        }
+        summary.append("CRC failures: ").append(getTotalCorrupted());
+        return summary.toString();
+    }
+}
@@ -0,0 +1,123 @@
+package com.atakmap.android.hitIndicator;
+
+/**
+ * Message type to handler lookup for MessageParser.
+ *
+ * ASCII types of up to eight characters are packed into a long and found in
+ * a small open-addressing table, so dispatch reads the type straight from the
+ * frame buffer without creating a String. Binary types index a 256 entry
+ * array. Registration copies the table and publishes it through a volatile
+ * field, so lookups from the decode threads never lock.
+ */
+final class MessageHandlerRegistry {
+    static final int MAX_ASCII_TYPE_LENGTH = 8;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Open-addressing table, never modified once published; a zero key marks
+     * a free slot, which no packed type can produce.
+     */
+    private static final class AsciiTable {
+        final long[] keys;
+        final MessageParser.MessageHandler[] handlers;
+
+        AsciiTable(int capacity) {
+            keys = new long[capacity];
+            handlers = new MessageParser.MessageHandler[capacity];
+        }
+
+        int slot(long key) {
+            int mask = keys.length - 1;
+            int i = (int) ((key * HASH_MULTIPLIER) >>> 40) & mask;
+            while (keys[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+    }
+
+    private volatile AsciiTable asciiTable = new AsciiTable(INITIAL_CAPACITY);
+    private volatile MessageParser.MessageHandler[] binaryHandlers = new MessageParser.MessageHandler[256];
+
+    /**
+     * Pack up to eight ASCII type bytes into a long.
+     *
+     * @return the key, or 0 if the type is empty or too long to register
+     */
+    static long packType(byte[] buffer, int start, int end) {
+        int length = end - start;
+        if (length <= 0 || length > MAX_ASCII_TYPE_LENGTH) {
+            return 0;
+        }
+        long key = 0;
+        for (int i = start; i < end; i++) {
+            key = (key << 8) | (buffer[i] & 0xFF);
+        }
+        return key;
+    }
+
+    MessageParser.MessageHandler findAscii(byte[] buffer, int start, int end) {
+        long key = packType(buffer, start, end);
+        if (key == 0) {
+            return null;
+        }
+        AsciiTable table = asciiTable;
+        return table.handlers[table.slot(key)];
+    }
+
+    MessageParser.MessageHandler findBinary(int type) {
+        return binaryHandlers[type & 0xFF];
+    }
+
+    /**
+     * Register, replace or (with a null handler) remove the handler of an
+     * ASCII type.
+     */
+    synchronized void registerAscii(byte[] type, MessageParser.MessageHandler handler) {
+        long key = packType(type, 0, type.length);
+        if (key == 0) {
+            throw new IllegalArgumentException("ASCII message type must be 1-" + MAX_ASCII_TYPE_LENGTH
+                    + " characters");
+        }
+
+        AsciiTable current = asciiTable;
+        int size = handler != null ? 1 : 0;
+        for (long existing : current.keys) {
+            if (existing != 0 && existing != key) {
+                size++;
+            }
+        }
+        int capacity = INITIAL_CAPACITY;
+        // Keep the load at or below one half so probe chains stay short
+        while (size * 2 > capacity) {
+            capacity *= 2;
+        }
+
+        AsciiTable next = new AsciiTable(capacity);
+        for (int i = 0; i < current.keys.length; i++) {
+            if (current.keys[i] != 0 && current.keys[i] != key) {
+                int slot = next.slot(current.keys[i]);
+                next.keys[slot] = current.keys[i];
+                next.handlers[slot] = current.handlers[i];
+            }
+        }
+        if (handler != null) {
+            int slot = next.slot(key);
+            next.keys[slot] = key;
+            next.handlers[slot] = handler;
+        }
+        asciiTable = next;
+    }
+
+    /**
+     * Register, replace or (with a null handler) remove the handler of a
+     * binary type.
+     */
+    synchronized void registerBinary(int type, MessageParser.MessageHandler handler) {
+        MessageParser.MessageHandler[] next = binaryHandlers.clone();
+        next[type & 0xFF] = handler;
+        binaryHandlers = next;
+    }
+}
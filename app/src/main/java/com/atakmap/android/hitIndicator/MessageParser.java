@@ -1,8 +1,16 @@
 package com.atakmap.android.hitIndicator;
 
+import android.os.SystemClock;
 import android.util.Log;
 
-import com.atakmap.coremap.maps.coords.GeoPoint;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MessageParser {
     private static final String TAG = "MessageParser";
@@ -13,6 +21,7 @@ public class MessageParser {
 
     // Message types
     public static final String TYPE_POSITION = "POS";
+    public static final String TYPE_POSITION_QUALITY = "POSQ"; // Position with GPS quality fields
     public static final String TYPE_HIT = "HIT";
     public static final String TYPE_SHOT_FIRED = "SHOT"; // New message type for rifle shot detection
     public static final String TYPE_CALIBRATE_ACK = "CALACK";
@@ -22,48 +31,878 @@ public class MessageParser {
     public static final String TYPE_CALIBRATE = "CAL";
     public static final String TYPE_READY = "READY";
 
+    /**
+     * How a completed frame is turned into listener callbacks.
+     * STRING is the original split/parse path, BYTES scans the frame in place
+     * without allocating per field.
+     */
+    public enum DecodeMode {
+        STRING,
+        BYTES
+    }
+
+    /**
+     * Encoding used for outgoing frames. Incoming frames are recognised in
+     * either format automatically.
+     */
+    public enum WireFormat {
+        ASCII,
+        BINARY
+    }
+
+    /**
+     * Decoded messages. Targets are passed as {@link TargetIdRegistry}
+     * handles; {@link #getIdRegistry()} maps them back to their IDs.
+     * {@code receivedAtNanos} is the {@link SystemClock#elapsedRealtimeNanos()}
+     * at which the notification holding the start of the frame arrived,
+     * so queueing and parsing delays do not show in event times.
+     */
     public interface MessageListener {
-        void onPositionMessage(String id, GeoPoint location, double voltage);
+        void onPositionMessage(int target, FixedPosition position, double voltage, long receivedAtNanos);
 
-        void onPositionMessageEnhanced(String id, GeoPoint location, double voltage, int satellites, double hdop,
-                String altitudeRef);
+        void onPositionMessageEnhanced(int target, FixedPosition position, double voltage, int satellites,
+                double hdop, String altitudeRef, long receivedAtNanos);
 
-        void onHitMessage(String id);
+        void onHitMessage(int target, long receivedAtNanos);
 
-        void onShotFiredMessage(String targetId, long timestamp); // New callback for shot detection
+        /**
+         * @param shooter device whose {@code millis()} is {@code timestamp}: the
+         *            shooter ID the frame names, else the relay it arrived from
+         */
+        void onShotFiredMessage(int target, String shooter, long timestamp, long receivedAtNanos);
 
-        void onCalibrationResponse(String id, long roundTripTime);
+        void onCalibrationResponse(int target, long receivedAtNanos);
 
         void onParseError(String error);
     }
 
+    /**
+     * Read access to a frame being dispatched to a {@link MessageHandler}.
+     * ASCII frames expose their comma separated fields, field 0 being the
+     * type. Binary frames expose a little-endian read cursor positioned just
+     * after the TYPE byte. Failed parses, missing fields and reads past the
+     * end set {@link #hasError()} instead of throwing.
+     */
+    public interface MessageFrame {
+        boolean isBinary();
+
+        /**
+         * Address of the device the frame arrived from.
+         */
+        String getSource();
+
+        /**
+         * {@link SystemClock#elapsedRealtimeNanos()} when the notification
+         * holding the start of the frame arrived.
+         */
+        long getReceivedAtNanos();
+
+        int getFieldCount();
+
+        String fieldString(int field);
+
+        /**
+         * Handle of the ID held by an ASCII field, see {@link TargetIdRegistry}.
+         */
+        int fieldTarget(int field);
+
+        double parseDouble(int field);
+
+        long parseLong(int field);
+
+        int remaining();
+
+        int readU8();
+
+        int readU16();
+
+        int readS24();
+
+        int readS32();
+
+        long readU32();
+
+        long readS64();
+
+        int readVarint();
+
+        /**
+         * Handle of the varint ID in the v2 encoding, see BinaryProtocol.
+         */
+        int readTarget();
+
+        /**
+         * As {@link #readTarget()}, returning the ID itself.
+         */
+        String readId();
+
+        boolean hasError();
+    }
+
+    /**
+     * Decoder for one message type, registered with
+     * {@link #registerHandler(String, MessageHandler)} or
+     * {@link #registerBinaryHandler(int, MessageHandler)}. Called on the thread
+     * feeding the parser; the frame is only valid during the call.
+     */
+    public interface MessageHandler {
+        void handle(MessageFrame frame);
+    }
+
+    /**
+     * Where the parser's diagnostics go. {@link #ANDROID_LOG} by default;
+     * tools running on a plain JVM, which has no {@code android.util.Log},
+     * supply their own.
+     */
+    public interface Logger {
+        /**
+         * @param priority one of the {@link Log} priorities, e.g. {@link Log#DEBUG}
+         */
+        void log(int priority, String tag, String message);
+    }
+
+    public static final Logger ANDROID_LOG = new Logger() {
+        @Override
+        public void log(int priority, String tag, String message) {
+            Log.println(priority, tag, message);
+        }
+    };
+
+    /**
+     * TargetGPS sends every fix as POSQ followed by a legacy POS copy. A legacy
+     * POS for a target that sent POSQ within this window is that copy and is
+     * dropped; targets running older firmware never send POSQ and are unaffected.
+     */
+    public static final long LEGACY_POSITION_SUPPRESS_WINDOW_MS = 2000;
+
+    // Key used by processData(byte[]) for callers with a single stream
+    private static final String DEFAULT_SOURCE = "default";
+
     private final MessageListener listener;
-    private final StringBuilder buffer = new StringBuilder();
-    private boolean inMessage = false;
+    private final TargetIdRegistry ids;
+    private final MessageHandlerRegistry handlers = new MessageHandlerRegistry();
+    private volatile DecodeMode decodeMode = DecodeMode.BYTES;
+    private volatile Logger logger = ANDROID_LOG;
+
+    // Framing state per device address, then per characteristic
+    private final Map<String, Map<String, FrameContext>> contexts = new ConcurrentHashMap<>();
+
+    // Totals across all streams, kept after a device is released
+    private final AtomicLong discardedBytes = new AtomicLong();
+    private final AtomicLong discardedFrames = new AtomicLong();
+
+    // receivedAtNanos of the last POSQ per target handle, used to drop the duplicate legacy POS
+    private final HandleMap<long[]> lastQualityPositionTime = new HandleMap<>();
+    private final AtomicLong suppressedLegacyPositions = new AtomicLong();
+
+    // Last POSKEY per target handle; POSDELTA frames are decoded against it
+    private final HandleMap<PositionKeyframe> positionKeyframes = new HandleMap<>();
+    private final AtomicLong deltaPositions = new AtomicLong();
+    private final AtomicLong orphanedDeltaPositions = new AtomicLong();
+
+    // Sequence and CRC accounting for frames that carry the trailer
+    private final LinkStatistics linkStatistics = new LinkStatistics();
+
+    // Batch frames decoded and the records they carried
+    private final AtomicLong batchFrames = new AtomicLong();
+    private final AtomicLong batchedRecords = new AtomicLong();
 
     public MessageParser(MessageListener listener) {
+        this(listener, new TargetIdRegistry());
+    }
+
+    /**
+     * @param ids registry shared with the listener's target state
+     */
+    public MessageParser(MessageListener listener, TargetIdRegistry ids) {
         this.listener = listener;
+        this.ids = ids;
+        registerBuiltInHandlers();
+    }
+
+    public TargetIdRegistry getIdRegistry() {
+        return ids;
+    }
+
+    private void registerBuiltInHandlers() {
+        registerHandler(TYPE_POSITION_QUALITY, frame -> decodePositionFrame(frame, true));
+        registerHandler(TYPE_POSITION, frame -> decodePositionFrame(frame, false));
+        registerHandler(TYPE_HIT, this::decodeHitFrame);
+        registerHandler(TYPE_SHOT_FIRED, this::decodeShotFiredFrame);
+        registerHandler(TYPE_CALIBRATE_ACK, this::decodeCalibrationAckFrame);
+
+        registerBinaryHandler(BinaryProtocol.TYPE_POSITION_QUALITY, frame -> decodeBinaryPosition(frame, true));
+        registerBinaryHandler(BinaryProtocol.TYPE_POSITION, frame -> decodeBinaryPosition(frame, false));
+        registerBinaryHandler(BinaryProtocol.TYPE_HIT, this::decodeBinaryHit);
+        registerBinaryHandler(BinaryProtocol.TYPE_SHOT_FIRED, this::decodeBinaryShotFired);
+        registerBinaryHandler(BinaryProtocol.TYPE_CALIBRATE_ACK, this::decodeBinaryCalibrationAck);
+        registerBinaryHandler(BinaryProtocol.TYPE_POSITION_KEY, this::decodeBinaryPositionKey);
+        registerBinaryHandler(BinaryProtocol.TYPE_POSITION_DELTA, this::decodeBinaryPositionDelta);
     }
 
+    /**
+     * Register the decoder for an ASCII message type of up to eight
+     * characters, replacing any existing one (built-in types included).
+     * Pass null to remove it. Safe to call while data is being decoded.
+     * The STRING decode mode keeps its fixed built-in decoders and only uses
+     * the registry for other types.
+     */
+    public void registerHandler(String type, MessageHandler handler) {
+        handlers.registerAscii(type.getBytes(StandardCharsets.US_ASCII), handler);
+    }
+
+    /**
+     * Register the decoder for a binary (v2) message type. Types below 0x20
+     * can also travel inside batch frames.
+     */
+    public void registerBinaryHandler(int type, MessageHandler handler) {
+        if (type < 0 || type > 0xFF || type == BinaryProtocol.TYPE_BATCH) {
+            throw new IllegalArgumentException("Invalid binary message type: " + type);
+        }
+        handlers.registerBinary(type, handler);
+    }
+
+    public void setDecodeMode(DecodeMode decodeMode) {
+        this.decodeMode = decodeMode;
+    }
+
+    public DecodeMode getDecodeMode() {
+        return decodeMode;
+    }
+
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Process bytes from a single, unnamed stream, received now.
+     */
     public void processData(byte[] data) {
+        processData(DEFAULT_SOURCE, DEFAULT_SOURCE, data, SystemClock.elapsedRealtimeNanos());
+    }
+
+    /**
+     * As {@link #processData(String, String, byte[], long)} for data received now.
+     */
+    public void processData(String deviceAddress, String channel, byte[] data) {
+        processData(deviceAddress, channel, data, SystemClock.elapsedRealtimeNanos());
+    }
+
+    /**
+     * Process bytes received from one characteristic of one device.
+     * Each device/characteristic pair is framed independently, so interleaved
+     * fragments from several relays do not corrupt each other and different
+     * sources may be fed from different threads.
+     *
+     * @param receivedAtNanos {@link SystemClock#elapsedRealtimeNanos()} when the notification arrived
+     */
+    public void processData(String deviceAddress, String channel, byte[] data, long receivedAtNanos) {
+        FrameContext context = getContext(deviceAddress, channel);
+        synchronized (context) {
+            context.chunkReceivedAt = receivedAtNanos;
+            processData(context, data);
+        }
+    }
+
+    /**
+     * Drop the framing state of every channel of a device, e.g. on disconnect.
+     * A partial frame left in the buffer is discarded.
+     */
+    public void releaseDevice(String deviceAddress) {
+        Map<String, FrameContext> channels = deviceAddress != null ? contexts.remove(deviceAddress) : null;
+        if (channels != null) {
+            long frames = 0;
+            long bytes = 0;
+            for (FrameContext context : channels.values()) {
+                frames += context.discardedFrames;
+                bytes += context.discardedBytes;
+            }
+            logger.log(Log.DEBUG, TAG, "Released framing state for " + deviceAddress + " (discarded " + frames
+                    + " frames / " + bytes + " bytes)");
+        }
+    }
+
+    /**
+     * Number of device/characteristic streams currently being framed.
+     */
+    public int getActiveSourceCount() {
+        int count = 0;
+        for (Map<String, FrameContext> channels : contexts.values()) {
+            count += channels.size();
+        }
+        return count;
+    }
+
+    /**
+     * Total bytes thrown away: unterminated or oversized frames and stray
+     * bytes between frames.
+     */
+    public long getDiscardedBytes() {
+        return discardedBytes.get();
+    }
+
+    /**
+     * Total partial frames abandoned because their END byte never arrived
+     * within {@link FrameContext#MAX_FRAME_LENGTH}.
+     */
+    public long getDiscardedFrames() {
+        return discardedFrames.get();
+    }
+
+    /**
+     * Legacy POS frames dropped because the same fix already arrived as POSQ.
+     */
+    public long getSuppressedLegacyPositions() {
+        return suppressedLegacyPositions.get();
+    }
+
+    public LinkStatistics getLinkStatistics() {
+        return linkStatistics;
+    }
+
+    /**
+     * POSDELTA frames decoded against their keyframe.
+     */
+    public long getDeltaPositions() {
+        return deltaPositions.get();
+    }
+
+    /**
+     * POSDELTA frames dropped because their keyframe was never received.
+     */
+    public long getOrphanedDeltaPositions() {
+        return orphanedDeltaPositions.get();
+    }
+
+    public long getBatchFrames() {
+        return batchFrames.get();
+    }
+
+    public long getBatchedRecords() {
+        return batchedRecords.get();
+    }
+
+    public String getFramingSummary() {
+        return "Discarded " + discardedFrames.get() + " frames / " + discardedBytes.get() + " bytes, "
+                + suppressedLegacyPositions.get() + " duplicate POS dropped, "
+                + batchFrames.get() + " batches / " + batchedRecords.get() + " records, "
+                + deltaPositions.get() + " delta positions (" + orphanedDeltaPositions.get() + " without keyframe)";
+    }
+
+    private FrameContext getContext(String deviceAddress, String channel) {
+        Map<String, FrameContext> channels = contexts.get(deviceAddress);
+        if (channels == null) {
+            channels = contexts.computeIfAbsent(deviceAddress, k -> new ConcurrentHashMap<>());
+        }
+        FrameContext context = channels.get(channel);
+        if (context == null) {
+            context = channels.computeIfAbsent(channel, k -> new FrameContext(deviceAddress, ids));
+        }
+        return context;
+    }
+
+    private void processData(FrameContext context, byte[] data) {
+        int strayBytes = 0;
         for (byte b : data) {
-            if (b == START_BYTE) {
-                // Start of a new message
-                inMessage = true;
-                buffer.setLength(0); // Clear buffer
-            } else if (b == END_BYTE) {
-                // End of message - process it
-                inMessage = false;
-                processMessage(buffer.toString());
-            } else if (inMessage) {
-                // Regular character within a message
-                buffer.append((char) b);
+            strayBytes += processByte(context, b);
+        }
+
+        if (strayBytes > 0) {
+            context.discardedBytes += strayBytes;
+            discardedBytes.addAndGet(strayBytes);
+        }
+    }
+
+    /**
+     * Feed one byte to the framing state machine. A frame starting with
+     * START_BYTE is ASCII, one starting with the binary SYNC byte is a v2
+     * frame, so both formats can share a stream.
+     *
+     * @return number of bytes found not to belong to any frame
+     */
+    private int processByte(FrameContext context, byte b) {
+        switch (context.state) {
+            case FrameContext.STATE_ASCII:
+                if (b == START_BYTE) {
+                    // Previous frame lost its END byte - drop it and resync here
+                    discardFrame(context);
+                    context.startFrame();
+                } else if (b == END_BYTE) {
+                    // End of message - process it
+                    context.state = FrameContext.STATE_IDLE;
+                    int end = checkAsciiTrailer(context, 0, context.bufferLength);
+                    if (end < 0) {
+                        return 0;
+                    }
+                    if (decodeMode == DecodeMode.BYTES) {
+                        processFrame(context, end);
+                    } else {
+                        processMessage(context, end);
+                    }
+                } else if (!context.append(b)) {
+                    // Longer than any real frame; the rest counts as stray until the next START
+                    discardFrame(context);
+                    return 1;
+                }
+                return 0;
+
+            case FrameContext.STATE_BINARY_LENGTH: {
+                int length = b & 0xFF;
+                if (length < BinaryProtocol.MIN_PAYLOAD_LENGTH || length > BinaryProtocol.MAX_PAYLOAD_LENGTH) {
+                    // Not a real SYNC byte - drop it and look at this byte afresh
+                    context.state = FrameContext.STATE_IDLE;
+                    return 1 + processByte(context, b);
+                }
+                context.binaryLength = length;
+                context.state = FrameContext.STATE_BINARY_PAYLOAD;
+                return 0;
+            }
+
+            case FrameContext.STATE_BINARY_PAYLOAD:
+                if (context.bufferLength == 0 && (b & 0xF0) != BinaryProtocol.VERSION << 4) {
+                    // Not a v2 header either - rescan the length byte and this one
+                    context.state = FrameContext.STATE_IDLE;
+                    return 1 + processByte(context, (byte) context.binaryLength) + processByte(context, b);
+                }
+                context.appendPayload(b);
+                if (context.bufferLength == context.binaryLength) {
+                    context.state = FrameContext.STATE_IDLE;
+                    processBinaryFrame(context);
+                }
+                return 0;
+
+            default:
+                if (b == START_BYTE) {
+                    context.startFrame();
+                } else if (b == BinaryProtocol.SYNC_BYTE) {
+                    context.startBinaryFrame();
+                } else {
+                    return 1;
+                }
+                return 0;
+        }
+    }
+
+    private void discardFrame(FrameContext context) {
+        int dropped = context.abandonFrame();
+        discardedBytes.addAndGet(dropped);
+        long frames = discardedFrames.incrementAndGet();
+        logger.log(Log.WARN, TAG, "Discarded unterminated frame (" + dropped + " bytes), total discarded frames: "
+                + frames);
+    }
+
+    // --- Byte-level decoder ---
+
+    /**
+     * Decode the frame held by the context in place.
+     * Field boundaries are recorded as offsets into the frame and numbers are
+     * parsed straight from the ASCII digits, so the only objects created are
+     * the ones handed to the listener.
+     */
+    private void processFrame(FrameContext frame, int end) {
+        if (end == 0) {
+            notifyError("Empty message");
+            return;
+        }
+
+        frame.splitFields(0, end);
+        dispatchFields(frame);
+    }
+
+    /**
+     * Dispatch an ASCII frame or batch record whose fields have been split.
+     * A handler that throws is reported as a parse error, so a faulty
+     * registered decoder cannot take down the thread feeding the parser.
+     */
+    private void dispatchFields(FrameContext frame) {
+        MessageHandler handler = handlers.findAscii(frame.buffer, frame.fieldStart(0), frame.fieldEnd(0));
+        if (handler != null) {
+            try {
+                handler.handle(frame);
+            } catch (RuntimeException e) {
+                notifyError("Error decoding " + frame.fieldString(0) + " message: " + e);
+            }
+        } else {
+            notifyError("Unknown message type: " + frame.fieldString(0));
+        }
+    }
+
+    private void decodePositionFrame(MessageFrame frame, boolean qualityFrame) {
+        // Same layouts as processPositionMessage: 6 fields legacy, 9 fields enhanced
+        if (qualityFrame && frame.getFieldCount() < 9) {
+            notifyError("Invalid POSQ message format - 9 parts required");
+            return;
+        }
+        if (frame.getFieldCount() < 6) {
+            notifyError("Invalid position message format - minimum 6 parts required");
+            return;
+        }
+
+        double lat = frame.parseDouble(2);
+        double lon = frame.parseDouble(3);
+        double alt = frame.parseDouble(4);
+        double voltage = frame.parseDouble(5);
+        int satellites = 0;
+        double hdop = 0;
+        boolean enhanced = frame.getFieldCount() >= 9;
+        if (enhanced) {
+            satellites = (int) frame.parseLong(6);
+            hdop = frame.parseDouble(7);
+        }
+        if (frame.hasError()) {
+            notifyError("Invalid position coordinates: " + frame.fieldString(0));
+            return;
+        }
+
+        if (listener == null) {
+            return;
+        }
+
+        int target = frame.fieldTarget(1);
+        if (qualityFrame) {
+            notePositionQuality(target, frame.getReceivedAtNanos());
+        } else if (!enhanced && isDuplicateLegacyPosition(target, frame.getReceivedAtNanos())) {
+            return;
+        }
+
+        FixedPosition position = FixedPosition.fromDegrees(lat, lon, alt);
+        if (enhanced) {
+            listener.onPositionMessageEnhanced(target, position, voltage, satellites, hdop, frame.fieldString(8),
+                    frame.getReceivedAtNanos());
+        } else {
+            listener.onPositionMessage(target, position, voltage, frame.getReceivedAtNanos());
+        }
+    }
+
+    private void decodeHitFrame(MessageFrame frame) {
+        if (frame.getFieldCount() < 2) {
+            notifyError("Invalid hit message format");
+            return;
+        }
+
+        if (listener != null) {
+            listener.onHitMessage(frame.fieldTarget(1), frame.getReceivedAtNanos());
+        }
+    }
+
+    private void decodeShotFiredFrame(MessageFrame frame) {
+        if (frame.getFieldCount() < 3) {
+            notifyError("Invalid shot fired message format - expected: SHOT,targetId,timestamp[,shooterId]");
+            return;
+        }
+
+        long timestamp = frame.parseLong(2);
+        if (frame.hasError()) {
+            notifyError("Invalid timestamp in shot fired message");
+            return;
+        }
+        String shooter = frame.getFieldCount() > 3 ? frame.fieldString(3) : frame.getSource();
+
+        if (listener != null) {
+            listener.onShotFiredMessage(frame.fieldTarget(1), shooter, timestamp, frame.getReceivedAtNanos());
+        }
+    }
+
+    private void decodeCalibrationAckFrame(MessageFrame frame) {
+        if (frame.getFieldCount() < 2) {
+            notifyError("Invalid calibration ack format");
+            return;
+        }
+
+        if (listener != null) {
+            listener.onCalibrationResponse(frame.fieldTarget(1), frame.getReceivedAtNanos());
+        }
+    }
+
+    // --- Integrity trailer ---
+
+    /**
+     * Verify and strip the optional trailer of an ASCII body in
+     * {@code buffer[from, to)}, feeding its sequence number to the link
+     * statistics.
+     *
+     * @return end of the body to decode, or -1 if the frame is corrupt
+     */
+    private int checkAsciiTrailer(FrameContext frame, int from, int to) {
+        int end = frame.stripAsciiTrailer(from, to);
+        if (end < 0) {
+            reportCorruptFrame(frame);
+            return -1;
+        }
+        if (frame.sequence >= 0) {
+            String sender = frame.asciiSender(from, end);
+            if (sender != null) {
+                linkStatistics.recordSequence(frame.source, sender, frame.sequence);
+            }
+        }
+        return end;
+    }
+
+    private void reportCorruptFrame(FrameContext frame) {
+        linkStatistics.recordCorrupted(frame.source);
+        notifyError("CRC mismatch, frame from " + frame.source + " dropped");
+    }
+
+    // --- Binary (v2) decoder ---
+
+    /**
+     * Decode a v2 frame whose payload (VERSION_FLAGS onwards) is held by the
+     * context. Numbers are read as scaled integers straight from the buffer.
+     */
+    private void processBinaryFrame(FrameContext frame) {
+        int end = frame.stripBinaryTrailer();
+        if (end < 0) {
+            reportCorruptFrame(frame);
+            return;
+        }
+        int sequence = frame.sequence;
+
+        frame.beginRead(1, end);
+        int type = frame.readU8();
+        if (type == BinaryProtocol.TYPE_BATCH) {
+            if (sequence >= 0) {
+                linkStatistics.recordSequence(frame.source, LinkStatistics.RELAY_SENDER, sequence);
+            }
+            processBatchFrame(frame, end);
+            return;
+        }
+
+        if (sequence >= 0) {
+            // Every incoming message starts with the sender's ID
+            String sender = frame.readId();
+            if (!frame.numberError) {
+                linkStatistics.recordSequence(frame.source, sender, sequence);
+            }
+            frame.beginRead(2, end);
+        }
+        dispatchBinaryRecord(frame, type);
+    }
+
+    /**
+     * Decode every record of a batch frame in one pass over the buffer.
+     * A malformed record is reported and skipped; a record running past the
+     * end of the frame ends the batch.
+     */
+    private void processBatchFrame(FrameContext frame, int frameEnd) {
+        int count = frame.readU8();
+        int position = frame.readPosition;
+        int decoded = 0;
+        for (; decoded < count; decoded++) {
+            int length = position < frameEnd ? frame.buffer[position] & 0xFF : 0;
+            int start = position + 1;
+            int end = start + length;
+            if (length == 0 || end > frameEnd) {
+                notifyError("Truncated batch record " + (decoded + 1) + " of " + count);
+                break;
+            }
+
+            int first = frame.buffer[start] & 0xFF;
+            if (first < BinaryProtocol.FIRST_ASCII_RECORD_BYTE) {
+                frame.beginRead(start + 1, end);
+                if (first == BinaryProtocol.TYPE_BATCH) {
+                    notifyError("Nested batch record ignored");
+                } else {
+                    dispatchBinaryRecord(frame, first);
+                }
+            } else {
+                // ASCII records may carry their own sequence/CRC trailer
+                int recordEnd = checkAsciiTrailer(frame, start, end);
+                if (recordEnd > start) {
+                    frame.splitFields(start, recordEnd);
+                    dispatchFields(frame);
+                }
+            }
+            position = end;
+        }
+
+        batchFrames.incrementAndGet();
+        batchedRecords.addAndGet(decoded);
+    }
+
+    /**
+     * Decode a binary message whose fields start at the read position. As
+     * with ASCII frames, a handler that throws is reported as a parse error.
+     */
+    private void dispatchBinaryRecord(FrameContext frame, int type) {
+        MessageHandler handler = handlers.findBinary(type);
+        if (handler != null) {
+            try {
+                handler.handle(frame);
+            } catch (RuntimeException e) {
+                notifyError("Error decoding binary message 0x" + Integer.toHexString(type) + ": " + e);
             }
+        } else {
+            notifyError("Unknown binary message type: 0x" + Integer.toHexString(type));
+        }
+    }
+
+    private void decodeBinaryHit(MessageFrame frame) {
+        int target = frame.readTarget();
+        if (frame.hasError()) {
+            notifyError("Invalid binary hit message");
+        } else if (listener != null) {
+            listener.onHitMessage(target, frame.getReceivedAtNanos());
+        }
+    }
+
+    private void decodeBinaryShotFired(MessageFrame frame) {
+        int target = frame.readTarget();
+        long timestamp = frame.readU32();
+        String shooter = frame.remaining() > 0 ? frame.readId() : frame.getSource();
+        if (frame.hasError()) {
+            notifyError("Invalid binary shot fired message");
+        } else if (listener != null) {
+            listener.onShotFiredMessage(target, shooter, timestamp, frame.getReceivedAtNanos());
+        }
+    }
+
+    private void decodeBinaryCalibrationAck(MessageFrame frame) {
+        int target = frame.readTarget();
+        if (frame.hasError()) {
+            notifyError("Invalid binary calibration ack");
+        } else if (listener != null) {
+            listener.onCalibrationResponse(target, frame.getReceivedAtNanos());
+        }
+    }
+
+    private void decodeBinaryPosition(MessageFrame frame, boolean qualityFrame) {
+        int target = frame.readTarget();
+        int latE6 = frame.readS32();
+        int lonE6 = frame.readS32();
+        int altDm = frame.readS24();
+        int voltageMv = frame.readU16();
+        int satellites = 0;
+        int hdopTenths = 0;
+        int altitudeRef = BinaryProtocol.ALT_REF_UNKNOWN;
+        if (qualityFrame) {
+            satellites = frame.readU8();
+            hdopTenths = frame.readU8();
+            altitudeRef = frame.readU8();
+        }
+        if (frame.hasError()) {
+            notifyError("Invalid binary position message");
+            return;
+        }
+
+        if (listener == null) {
+            return;
         }
+
+        if (qualityFrame) {
+            notePositionQuality(target, frame.getReceivedAtNanos());
+        } else if (isDuplicateLegacyPosition(target, frame.getReceivedAtNanos())) {
+            return;
+        }
+
+        // The wire already carries microdegrees; only the altitude changes unit
+        FixedPosition position = new FixedPosition(latE6, lonE6, altDm * 10);
+        double voltage = voltageMv / BinaryProtocol.VOLTAGE_SCALE;
+        if (qualityFrame) {
+            listener.onPositionMessageEnhanced(target, position, voltage, satellites,
+                    hdopTenths / BinaryProtocol.HDOP_SCALE, BinaryProtocol.altitudeRefName(altitudeRef),
+                    frame.getReceivedAtNanos());
+        } else {
+            listener.onPositionMessage(target, position, voltage, frame.getReceivedAtNanos());
+        }
+    }
+
+    /**
+     * Full fix of a POSKEY frame, kept per target as the base of its deltas.
+     * Only touched by the thread feeding the parser.
+     */
+    private static final class PositionKeyframe {
+        int key;
+        int latE6;
+        int lonE6;
+        int altDm;
+        int voltageMv;
+        int satellites;
+        int hdopTenths;
+        int altitudeRef;
     }
 
-    private void processMessage(String message) {
+    private void decodeBinaryPositionKey(MessageFrame frame) {
+        int target = frame.readTarget();
+        int key = frame.readU8();
+        int latE6 = frame.readS32();
+        int lonE6 = frame.readS32();
+        int altDm = frame.readS24();
+        int voltageMv = frame.readU16();
+        int satellites = frame.readU8();
+        int hdopTenths = frame.readU8();
+        int altitudeRef = frame.readU8();
+        if (frame.hasError()) {
+            notifyError("Invalid binary position keyframe");
+            return;
+        }
+
+        PositionKeyframe keyframe = positionKeyframes.computeIfAbsent(target, handle -> new PositionKeyframe());
+        keyframe.key = key;
+        keyframe.latE6 = latE6;
+        keyframe.lonE6 = lonE6;
+        keyframe.altDm = altDm;
+        keyframe.voltageMv = voltageMv;
+        keyframe.satellites = satellites;
+        keyframe.hdopTenths = hdopTenths;
+        keyframe.altitudeRef = altitudeRef;
+        deliverQualityPosition(target, latE6, lonE6, altDm, voltageMv, satellites, hdopTenths, altitudeRef,
+                frame.getReceivedAtNanos());
+    }
+
+    private void decodeBinaryPositionDelta(MessageFrame frame) {
+        int target = frame.readTarget();
+        int key = frame.readU8();
+        int mask = frame.readU8();
+        int latDelta = (mask & BinaryProtocol.DELTA_LATITUDE) != 0 ? readSignedVarint(frame) : 0;
+        int lonDelta = (mask & BinaryProtocol.DELTA_LONGITUDE) != 0 ? readSignedVarint(frame) : 0;
+        int altDelta = (mask & BinaryProtocol.DELTA_ALTITUDE) != 0 ? readSignedVarint(frame) : 0;
+        int voltageDelta = (mask & BinaryProtocol.DELTA_VOLTAGE) != 0 ? readSignedVarint(frame) : 0;
+        int satellites = (mask & BinaryProtocol.DELTA_SATELLITES) != 0 ? frame.readU8() : -1;
+        int hdopTenths = (mask & BinaryProtocol.DELTA_HDOP) != 0 ? frame.readU8() : -1;
+        int altitudeRef = (mask & BinaryProtocol.DELTA_ALTITUDE_REF) != 0 ? frame.readU8() : -1;
+        if (frame.hasError()) {
+            notifyError("Invalid binary position delta");
+            return;
+        }
+
+        PositionKeyframe keyframe = positionKeyframes.get(target);
+        if (keyframe == null || keyframe.key != key) {
+            // Keyframe lost or not yet seen; the next one resynchronises the target
+            orphanedDeltaPositions.incrementAndGet();
+            return;
+        }
+        deltaPositions.incrementAndGet();
+        deliverQualityPosition(target, keyframe.latE6 + latDelta, keyframe.lonE6 + lonDelta,
+                keyframe.altDm + altDelta, keyframe.voltageMv + voltageDelta,
+                satellites >= 0 ? satellites : keyframe.satellites,
+                hdopTenths >= 0 ? hdopTenths : keyframe.hdopTenths,
+                altitudeRef >= 0 ? altitudeRef : keyframe.altitudeRef, frame.getReceivedAtNanos());
+    }
+
+    private static int readSignedVarint(MessageFrame frame) {
+        return BinaryProtocol.zigzagDecode(frame.readVarint());
+    }
+
+    /**
+     * Pass on a fix in wire units as POSQ would; keyframes and deltas stand
+     * in for POSQ, so they also mark the legacy POS copy as a duplicate.
+     */
+    private void deliverQualityPosition(int target, int latE6, int lonE6, int altDm, int voltageMv,
+            int satellites, int hdopTenths, int altitudeRef, long receivedAtNanos) {
+        if (listener == null) {
+            return;
+        }
+        notePositionQuality(target, receivedAtNanos);
+        listener.onPositionMessageEnhanced(target, new FixedPosition(latE6, lonE6, altDm * 10),
+                voltageMv / BinaryProtocol.VOLTAGE_SCALE, satellites, hdopTenths / BinaryProtocol.HDOP_SCALE,
+                BinaryProtocol.altitudeRefName(altitudeRef), receivedAtNanos);
+    }
+
+    // --- String decoder ---
+
+    private void processMessage(FrameContext context, int end) {
         try {
+            String message = new String(context.buffer, 0, end, StandardCharsets.US_ASCII);
             String[] parts = message.split(",");
 
             if (parts.length == 0) {
@@ -72,26 +911,33 @@ public class MessageParser {
             }
 
             String messageType = parts[0];
+            long receivedAtNanos = context.getReceivedAtNanos();
 
             switch (messageType) {
                 case TYPE_POSITION:
-                    processPositionMessage(parts);
+                    processPositionMessage(parts, false, receivedAtNanos);
+                    break;
+
+                case TYPE_POSITION_QUALITY:
+                    processPositionMessage(parts, true, receivedAtNanos);
                     break;
 
                 case TYPE_HIT:
-                    processHitMessage(parts);
+                    processHitMessage(parts, receivedAtNanos);
                     break;
 
                 case TYPE_SHOT_FIRED:
-                    processShotFiredMessage(parts);
+                    processShotFiredMessage(parts, context.source, receivedAtNanos);
                     break;
 
                 case TYPE_CALIBRATE_ACK:
-                    processCalibrationAck(parts);
+                    processCalibrationAck(parts, receivedAtNanos);
                     break;
 
                 default:
-                    notifyError("Unknown message type: " + messageType);
+                    // Types added at runtime only exist in the registry
+                    context.splitFields(0, end);
+                    dispatchFields(context);
                     break;
             }
 
@@ -100,9 +946,14 @@ public class MessageParser {
         }
     }
 
-    private void processPositionMessage(String[] parts) {
+    private void processPositionMessage(String[] parts, boolean qualityFrame, long receivedAtNanos) {
         // Support both old format: POS,ID,LAT,LON,ALT,BATT
         // and new enhanced format: POS,ID,LAT,LON,ALT,BATT,SATS,HDOP,ALTREF
+        // POSQ always carries the enhanced layout
+        if (qualityFrame && parts.length < 9) {
+            notifyError("Invalid POSQ message format - 9 parts required");
+            return;
+        }
         if (parts.length < 6) {
             notifyError("Invalid position message format - minimum 6 parts required");
             return;
@@ -110,12 +961,13 @@ public class MessageParser {
 
         try {
             String id = parts[1];
+            int target = ids.intern(id);
             double lat = Double.parseDouble(parts[2]);
             double lon = Double.parseDouble(parts[3]);
             double alt = Double.parseDouble(parts[4]);
             double voltage = Double.parseDouble(parts[5]);
 
-            GeoPoint location = new GeoPoint(lat, lon, alt);
+            FixedPosition position = FixedPosition.fromDegrees(lat, lon, alt);
 
             // Check if enhanced format with GPS quality data
             if (parts.length >= 9) {
@@ -123,17 +975,25 @@ public class MessageParser {
                 double hdop = Double.parseDouble(parts[7]);
                 String altitudeRef = parts[8]; // "MSL" or "HAE"
 
-                Log.d(TAG, String.format("Enhanced position: %s, Sats: %d, HDOP: %.1f, AltRef: %s",
+                logger.log(Log.DEBUG, TAG, String.format("Enhanced position: %s, Sats: %d, HDOP: %.1f, AltRef: %s",
                         id, satellites, hdop, altitudeRef));
 
+                if (qualityFrame) {
+                    notePositionQuality(target, receivedAtNanos);
+                }
+
                 if (listener != null) {
-                    listener.onPositionMessageEnhanced(id, location, voltage, satellites, hdop, altitudeRef);
+                    listener.onPositionMessageEnhanced(target, position, voltage, satellites, hdop, altitudeRef,
+                            receivedAtNanos);
                 }
             } else {
                 // Legacy format
-                Log.d(TAG, "Legacy position message for: " + id);
+                if (isDuplicateLegacyPosition(target, receivedAtNanos)) {
+                    return;
+                }
+                logger.log(Log.DEBUG, TAG, "Legacy position message for: " + id);
                 if (listener != null) {
-                    listener.onPositionMessage(id, location, voltage);
+                    listener.onPositionMessage(target, position, voltage, receivedAtNanos);
                 }
             }
 
@@ -142,22 +1002,22 @@ public class MessageParser {
         }
     }
 
-    private void processHitMessage(String[] parts) {
+    private void processHitMessage(String[] parts, long receivedAtNanos) {
         if (parts.length < 2) {
             notifyError("Invalid hit message format");
             return;
         }
 
-        String id = parts[1];
+        int target = ids.intern(parts[1]);
 
         if (listener != null) {
-            listener.onHitMessage(id);
+            listener.onHitMessage(target, receivedAtNanos);
         }
     }
 
-    private void processShotFiredMessage(String[] parts) {
+    private void processShotFiredMessage(String[] parts, String source, long receivedAtNanos) {
         if (parts.length < 3) {
-            notifyError("Invalid shot fired message format - expected: SHOT,targetId,timestamp");
+            notifyError("Invalid shot fired message format - expected: SHOT,targetId,timestamp[,shooterId]");
             return;
         }
 
@@ -171,49 +1031,226 @@ public class MessageParser {
             return;
         }
 
-        Log.d(TAG, "Shot fired message received: target=" + targetId + ", timestamp=" + timestamp);
+        String shooter = parts.length > 3 ? parts[3] : source;
+        logger.log(Log.DEBUG, TAG, "Shot fired message received: target=" + targetId + ", timestamp=" + timestamp
+                + ", shooter=" + shooter);
 
         if (listener != null) {
-            listener.onShotFiredMessage(targetId, timestamp);
+            listener.onShotFiredMessage(ids.intern(targetId), shooter, timestamp, receivedAtNanos);
         }
     }
 
-    private void processCalibrationAck(String[] parts) {
+    private void processCalibrationAck(String[] parts, long receivedAtNanos) {
         if (parts.length < 2) {
             notifyError("Invalid calibration ack format");
             return;
         }
 
-        String id = parts[1];
-        long roundTripTime = System.currentTimeMillis(); // Will be calculated by caller
+        int target = ids.intern(parts[1]);
 
         if (listener != null) {
-            listener.onCalibrationResponse(id, roundTripTime);
+            listener.onCalibrationResponse(target, receivedAtNanos);
         }
     }
 
+    // --- Encoders ---
+    // The no-argument forms keep producing ASCII for firmware without v2 support
+
     public static byte[] createQueryMessage() {
+        return createQueryMessage(WireFormat.ASCII);
+    }
+
+    public static byte[] createQueryMessage(WireFormat format) {
+        if (format == WireFormat.BINARY) {
+            return new BinaryProtocol.Writer(BinaryProtocol.TYPE_QUERY).toFrame();
+        }
         return createMessage(TYPE_QUERY);
     }
 
     public static byte[] createCalibrationMessage(String id) {
+        return createCalibrationMessage(WireFormat.ASCII, id);
+    }
+
+    public static byte[] createCalibrationMessage(WireFormat format, String id) {
+        if (format == WireFormat.BINARY) {
+            return new BinaryProtocol.Writer(BinaryProtocol.TYPE_CALIBRATE).writeId(id).toFrame();
+        }
         return createMessage(TYPE_CALIBRATE + "," + id);
     }
 
     public static byte[] createReadyMessage(String id) {
+        return createReadyMessage(WireFormat.ASCII, id);
+    }
+
+    public static byte[] createReadyMessage(WireFormat format, String id) {
+        if (format == WireFormat.BINARY) {
+            return new BinaryProtocol.Writer(BinaryProtocol.TYPE_READY).writeId(id).toFrame();
+        }
         return createMessage(TYPE_READY + "," + id);
     }
 
     public static byte[] createShotExpectedMessage(String targetId, long timestamp) {
+        return createShotExpectedMessage(WireFormat.ASCII, targetId, timestamp);
+    }
+
+    public static byte[] createShotExpectedMessage(WireFormat format, String targetId, long timestamp) {
+        if (format == WireFormat.BINARY) {
+            return new BinaryProtocol.Writer(BinaryProtocol.TYPE_SHOT_EXPECTED).writeId(targetId)
+                    .writeS64(timestamp).toFrame();
+        }
         return createMessage("EXPECT," + targetId + "," + timestamp);
     }
 
     public static byte[] createBallisticsRequestMessage(String targetId) {
+        return createBallisticsRequestMessage(WireFormat.ASCII, targetId);
+    }
+
+    public static byte[] createBallisticsRequestMessage(WireFormat format, String targetId) {
+        if (format == WireFormat.BINARY) {
+            return new BinaryProtocol.Writer(BinaryProtocol.TYPE_BALLISTICS).writeId(targetId).toFrame();
+        }
         return createMessage("BALLISTICS," + targetId);
     }
 
+    /**
+     * Target-side messages, encoded the way TargetGPS formats them. Used to
+     * exercise the decoder without hardware.
+     */
+    public static byte[] createPositionMessage(WireFormat format, String id, double lat, double lon, double alt,
+            double voltage) {
+        if (format == WireFormat.BINARY) {
+            return new BinaryProtocol.Writer(BinaryProtocol.TYPE_POSITION).writeId(id).writeCoordinate(lat)
+                    .writeCoordinate(lon).writeAltitude(alt).writeVoltage(voltage).toFrame();
+        }
+        return createMessage(String.format(Locale.US, "%s,%s,%.6f,%.6f,%.1f,%.2f",
+                TYPE_POSITION, id, lat, lon, alt, voltage));
+    }
+
+    public static byte[] createPositionQualityMessage(WireFormat format, String id, double lat, double lon,
+            double alt, double voltage, int satellites, double hdop, String altitudeRef) {
+        if (format == WireFormat.BINARY) {
+            return new BinaryProtocol.Writer(BinaryProtocol.TYPE_POSITION_QUALITY).writeId(id)
+                    .writeCoordinate(lat).writeCoordinate(lon).writeAltitude(alt).writeVoltage(voltage)
+                    .writeU8(Math.max(0, Math.min(0xFF, satellites))).writeHdop(hdop)
+                    .writeU8(BinaryProtocol.altitudeRefCode(altitudeRef)).toFrame();
+        }
+        return createMessage(String.format(Locale.US, "%s,%s,%.6f,%.6f,%.1f,%.2f,%d,%.1f,%s",
+                TYPE_POSITION_QUALITY, id, lat, lon, alt, voltage, satellites, hdop, altitudeRef));
+    }
+
+    public static byte[] createHitMessage(WireFormat format, String id) {
+        if (format == WireFormat.BINARY) {
+            return new BinaryProtocol.Writer(BinaryProtocol.TYPE_HIT).writeId(id).toFrame();
+        }
+        return createMessage(TYPE_HIT + "," + id);
+    }
+
+    public static byte[] createShotFiredMessage(WireFormat format, String targetId, long timestamp) {
+        return createShotFiredMessage(format, targetId, timestamp, null);
+    }
+
+    /**
+     * @param shooterId ID of the detector whose clock stamped the shot, or
+     *            null to leave it out as older detectors do
+     */
+    public static byte[] createShotFiredMessage(WireFormat format, String targetId, long timestamp,
+            String shooterId) {
+        if (format == WireFormat.BINARY) {
+            BinaryProtocol.Writer writer = new BinaryProtocol.Writer(BinaryProtocol.TYPE_SHOT_FIRED)
+                    .writeId(targetId).writeS32((int) timestamp);
+            if (shooterId != null) {
+                writer.writeId(shooterId);
+            }
+            return writer.toFrame();
+        }
+        return createMessage(TYPE_SHOT_FIRED + "," + targetId + "," + timestamp
+                + (shooterId != null ? "," + shooterId : ""));
+    }
+
+    public static byte[] createCalibrationAckMessage(WireFormat format, String id) {
+        if (format == WireFormat.BINARY) {
+            return new BinaryProtocol.Writer(BinaryProtocol.TYPE_CALIBRATE_ACK).writeId(id).toFrame();
+        }
+        return createMessage(TYPE_CALIBRATE_ACK + "," + id);
+    }
+
+    /**
+     * Pack already encoded frames, ASCII or binary, into one batch frame as
+     * the relay does with queued LoRa frames.
+     *
+     * @throws IllegalArgumentException if the records do not fit one frame
+     */
+    public static byte[] createBatchMessage(List<byte[]> frames) {
+        if (frames.size() > BinaryProtocol.MAX_BATCH_RECORDS) {
+            throw new IllegalArgumentException("Too many records for one batch: " + frames.size());
+        }
+        BinaryProtocol.Writer writer = new BinaryProtocol.Writer(BinaryProtocol.TYPE_BATCH)
+                .writeU8(frames.size());
+        for (byte[] frame : frames) {
+            int offset;
+            int length;
+            if (frame.length > 0 && frame[0] == START_BYTE) {
+                // ASCII body without its markers
+                offset = 1;
+                length = frame.length - 2;
+            } else {
+                // Binary message from its TYPE byte on
+                offset = BinaryProtocol.HEADER_LENGTH + 1;
+                length = frame.length - offset;
+            }
+            if (length <= 0 || writer.length() + 1 + length
+                    > BinaryProtocol.HEADER_LENGTH + BinaryProtocol.MAX_PAYLOAD_LENGTH) {
+                throw new IllegalArgumentException("Batch record does not fit: " + length + " bytes");
+            }
+            writer.writeU8(length).writeBytes(frame, offset, length);
+        }
+        return writer.toFrame();
+    }
+
+    /**
+     * Append the optional integrity trailer to an encoded frame, ASCII
+     * ({@code #seq*crc} before the END byte) or binary (flag bits and a
+     * little-endian trailer). Only send it to firmware that understands it.
+     *
+     * @param sequence 16 bit sequence number, or negative for none
+     * @param crc      whether to add a CRC-16 over the frame body
+     */
+    public static byte[] addIntegrityTrailer(byte[] frame, int sequence, boolean crc) {
+        if (frame.length > 0 && frame[0] == START_BYTE) {
+            StringBuilder body = new StringBuilder(new String(frame, 1, frame.length - 2, StandardCharsets.US_ASCII));
+            if (sequence >= 0) {
+                body.append('#').append(sequence & (LinkStatistics.SEQUENCE_MODULUS - 1));
+            }
+            if (crc) {
+                byte[] covered = body.toString().getBytes(StandardCharsets.US_ASCII);
+                body.append('*').append(String.format(Locale.US, "%04X", Crc16.compute(covered, 0, covered.length)));
+            }
+            return createMessage(body.toString());
+        }
+
+        int payloadLength = frame.length - BinaryProtocol.HEADER_LENGTH + (sequence >= 0 ? 2 : 0) + (crc ? 2 : 0);
+        if (payloadLength > BinaryProtocol.MAX_PAYLOAD_LENGTH) {
+            throw new IllegalArgumentException("No room for integrity trailer: " + payloadLength + " bytes");
+        }
+        byte[] sealed = Arrays.copyOf(frame, BinaryProtocol.HEADER_LENGTH + payloadLength);
+        int position = frame.length;
+        if (sequence >= 0) {
+            sealed[BinaryProtocol.HEADER_LENGTH] |= BinaryProtocol.FLAG_SEQUENCE;
+            sealed[position++] = (byte) sequence;
+            sealed[position++] = (byte) (sequence >>> 8);
+        }
+        if (crc) {
+            sealed[BinaryProtocol.HEADER_LENGTH] |= BinaryProtocol.FLAG_CRC;
+            int value = Crc16.compute(sealed, BinaryProtocol.HEADER_LENGTH, position - BinaryProtocol.HEADER_LENGTH);
+            sealed[position++] = (byte) value;
+            sealed[position] = (byte) (value >>> 8);
+        }
+        sealed[1] = (byte) payloadLength;
+        return sealed;
+    }
+
     private static byte[] createMessage(String content) {
-        byte[] contentBytes = content.getBytes();
+        byte[] contentBytes = content.getBytes(StandardCharsets.US_ASCII);
         byte[] message = new byte[contentBytes.length + 2]; // +2 for START and END bytes
 
         message[0] = START_BYTE;
@@ -223,8 +1260,29 @@ public class MessageParser {
         return message;
     }
 
+    private void notePositionQuality(int target, long receivedAtNanos) {
+        // One holder per target, updated in place from then on
+        lastQualityPositionTime.computeIfAbsent(target, handle -> new long[1])[0] = receivedAtNanos;
+    }
+
+    /**
+     * True if a legacy POS for this target is the copy of a POSQ received
+     * within {@link #LEGACY_POSITION_SUPPRESS_WINDOW_MS}. Timed on the
+     * frames' receive times rather than the clock at decode, so a backlog
+     * in the ingest queue or a replayed capture suppresses the same frames.
+     */
+    private boolean isDuplicateLegacyPosition(int target, long receivedAtNanos) {
+        long[] lastQuality = lastQualityPositionTime.get(target);
+        if (lastQuality == null || receivedAtNanos - lastQuality[0]
+                > TimeUnit.MILLISECONDS.toNanos(LEGACY_POSITION_SUPPRESS_WINDOW_MS)) {
+            return false;
+        }
+        suppressedLegacyPositions.incrementAndGet();
+        return true;
+    }
+
     private void notifyError(String error) {
-        Log.e(TAG, error);
+        logger.log(Log.ERROR, TAG, error);
         if (listener != null) {
             listener.onParseError(error);
         }
@@ -0,0 +1,168 @@
+package com.atakmap.android.hitIndicator;
+
+import android.util.Log;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Microbenchmark for the MessageParser decode paths.
+ * Feeds the same stream of representative relay frames through the STRING
+ * and BYTES decoders, and its binary (v2) encoding through the binary
+ * decoder, and reports the cost and wire size per frame for each.
+ */
+public class MessageParserBenchmark {
+    private static final String TAG = "MessageParserBenchmark";
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    // ATT payload of a notification at the default 23 byte MTU
+    private static final int DEFAULT_BLE_PAYLOAD = 20;
+
+    private static final String[] SAMPLE_FRAMES = {
+            "<POSQ,ID1234,38.284639,-77.144028,100.0,4.10,12,1.2,HAE>",
+            "<POS,ID1234,38.284639,-77.144028,100.0,4.10>",
+            "<POS,ID5A7F,38.287120,-77.139551,112.4,3.92,9,1.8,HAE>",
+            "<HIT,ID1234>",
+            "<SHOT,ID1234,81234567>",
+            "<CALACK,ID5A7F>"
+    };
+
+    /**
+     * SAMPLE_FRAMES in the binary format, field for field.
+     */
+    private static byte[][] binarySamples() {
+        MessageParser.WireFormat binary = MessageParser.WireFormat.BINARY;
+        return new byte[][] {
+                MessageParser.createPositionQualityMessage(binary, "ID1234", 38.284639, -77.144028, 100.0, 4.10,
+                        12, 1.2, "HAE"),
+                MessageParser.createPositionMessage(binary, "ID1234", 38.284639, -77.144028, 100.0, 4.10),
+                MessageParser.createPositionQualityMessage(binary, "ID5A7F", 38.287120, -77.139551, 112.4, 3.92,
+                        9, 1.8, "HAE"),
+                MessageParser.createHitMessage(binary, "ID1234"),
+                MessageParser.createShotFiredMessage(binary, "ID1234", 81234567),
+                MessageParser.createCalibrationAckMessage(binary, "ID5A7F")
+        };
+    }
+
+    /**
+     * Listener that only counts callbacks so the benchmark measures decoding.
+     */
+    private static class CountingListener implements MessageParser.MessageListener {
+        long callbacks;
+        long errors;
+
+        @Override
+        public void onPositionMessage(int target, FixedPosition position, double voltage, long receivedAtNanos) {
+            callbacks++;
+        }
+
+        @Override
+        public void onPositionMessageEnhanced(int target, FixedPosition position, double voltage, int satellites,
+                double hdop, String altitudeRef, long receivedAtNanos) {
+            callbacks++;
+        }
+
+        @Override
+        public void onHitMessage(int target, long receivedAtNanos) {
+            callbacks++;
+        }
+
+        @Override
+        public void onShotFiredMessage(int target, String shooter, long timestamp, long receivedAtNanos) {
+            callbacks++;
+        }
+
+        @Override
+        public void onCalibrationResponse(int target, long receivedAtNanos) {
+            callbacks++;
+        }
+
+        @Override
+        public void onParseError(String error) {
+            errors++;
+        }
+    }
+
+    private MessageParserBenchmark() {
+    }
+
+    /**
+     * Run every decode path over {@code rounds} passes of the sample stream.
+     *
+     * @return a summary of decode cost and wire size, also written to the log
+     */
+    public static String run(int rounds) {
+        byte[][] stream = new byte[SAMPLE_FRAMES.length][];
+        for (int i = 0; i < SAMPLE_FRAMES.length; i++) {
+            stream[i] = SAMPLE_FRAMES[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        byte[][] binaryStream = binarySamples();
+
+        long framesPerMode = (long) rounds * stream.length;
+        double stringNs = measure(MessageParser.DecodeMode.STRING, stream, rounds);
+        double bytesNs = measure(MessageParser.DecodeMode.BYTES, stream, rounds);
+        double binaryNs = measure(MessageParser.DecodeMode.BYTES, binaryStream, rounds);
+        // The same binary records as one batch frame, as a relay with a queue would send them
+        byte[][] batchStream = {MessageParser.createBatchMessage(Arrays.asList(binaryStream))};
+        double batchNs = measure(MessageParser.DecodeMode.BYTES, batchStream, rounds) / binaryStream.length;
+
+        String summary = String.format(Locale.US,
+                "Parser benchmark (%d frames): STRING %.0f ns/frame, BYTES %.0f ns/frame (%.1fx), "
+                        + "BINARY %.0f ns/frame (%.1fx), BATCH %.0f ns/frame (%.1fx). "
+                        + "Size: ASCII %.1f B/frame, %d BLE packets; BINARY %.1f B/frame, %d BLE packets; "
+                        + "BATCH %d B in one notification",
+                framesPerMode, stringNs, bytesNs, stringNs / bytesNs, binaryNs, stringNs / binaryNs,
+                batchNs, stringNs / batchNs, averageLength(stream), packetCount(stream),
+                averageLength(binaryStream), packetCount(binaryStream), batchStream[0].length);
+        Log.i(TAG, summary);
+        return summary;
+    }
+
+    private static double averageLength(byte[][] stream) {
+        long total = 0;
+        for (byte[] frame : stream) {
+            total += frame.length;
+        }
+        return (double) total / stream.length;
+    }
+
+    /**
+     * Notifications needed to carry the stream at the default BLE payload size.
+     */
+    private static int packetCount(byte[][] stream) {
+        int packets = 0;
+        for (byte[] frame : stream) {
+            packets += (frame.length + DEFAULT_BLE_PAYLOAD - 1) / DEFAULT_BLE_PAYLOAD;
+        }
+        return packets;
+    }
+
+    private static double measure(MessageParser.DecodeMode mode, byte[][] stream, int rounds) {
+        CountingListener listener = new CountingListener();
+        MessageParser parser = new MessageParser(listener);
+        parser.setDecodeMode(mode);
+
+        for (int w = 0; w < WARMUP_ROUNDS; w++) {
+            feed(parser, stream, rounds);
+        }
+
+        long start = System.nanoTime();
+        feed(parser, stream, rounds);
+        long elapsed = System.nanoTime() - start;
+
+        if (listener.errors > 0) {
+            Log.w(TAG, mode + " reported " + listener.errors + " parse errors");
+        }
+        return (double) elapsed / ((long) rounds * stream.length);
+    }
+
+    private static void feed(MessageParser parser, byte[][] stream, int rounds) {
+        for (int r = 0; r < rounds; r++) {
+            for (byte[] frame : stream) {
+                parser.processData(frame);
+            }
+        }
+    }
+}
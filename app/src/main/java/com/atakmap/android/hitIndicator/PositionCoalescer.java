@@ -0,0 +1,170 @@
+package com.atakmap.android.hitIndicator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Latest-wins coalescing of position reports between the MessageParser and
+ * its listener.
+ *
+ * Position callbacks are held per target until {@link #flush()}; a newer
+ * report for the same target replaces the held one. Hit, shot and
+ * calibration events pass straight through in arrival order, after first
+ * flushing that target's held position so the listener never sees an event
+ * before the fix that preceded it.
+ *
+ * Must be driven from a single thread (the ingest thread); only
+ * {@link #hasPending()} may be called from elsewhere.
+ */
+public class PositionCoalescer implements MessageParser.MessageListener {
+
+    /**
+     * Newest held report for one target, reused between flushes.
+     */
+    private static class PendingPosition {
+        final int target;
+        FixedPosition position;
+        double voltage;
+        boolean enhanced;
+        int satellites;
+        double hdop;
+        String altitudeRef;
+        long receivedAtNanos;
+        boolean pending;
+
+        PendingPosition(int target) {
+            this.target = target;
+        }
+    }
+
+    private final MessageParser.MessageListener downstream;
+    private final HandleMap<PendingPosition> positions = new HandleMap<>();
+    private final List<PendingPosition> pendingOrder = new ArrayList<>();
+    private volatile int pendingCount;
+
+    // Position reports received and passed on, to show how much was coalesced
+    private volatile long received;
+    private volatile long delivered;
+
+    public PositionCoalescer(MessageParser.MessageListener downstream) {
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void onPositionMessage(int target, FixedPosition fix, double voltage, long receivedAtNanos) {
+        PendingPosition position = hold(target);
+        position.position = fix;
+        position.voltage = voltage;
+        position.receivedAtNanos = receivedAtNanos;
+        position.enhanced = false;
+    }
+
+    @Override
+    public void onPositionMessageEnhanced(int target, FixedPosition fix, double voltage, int satellites,
+            double hdop, String altitudeRef, long receivedAtNanos) {
+        PendingPosition position = hold(target);
+        position.position = fix;
+        position.voltage = voltage;
+        position.receivedAtNanos = receivedAtNanos;
+        position.enhanced = true;
+        position.satellites = satellites;
+        position.hdop = hdop;
+        position.altitudeRef = altitudeRef;
+    }
+
+    @Override
+    public void onHitMessage(int target, long receivedAtNanos) {
+        flush(target);
+        downstream.onHitMessage(target, receivedAtNanos);
+    }
+
+    @Override
+    public void onShotFiredMessage(int target, String shooter, long timestamp, long receivedAtNanos) {
+        flush(target);
+        downstream.onShotFiredMessage(target, shooter, timestamp, receivedAtNanos);
+    }
+
+    @Override
+    public void onCalibrationResponse(int target, long receivedAtNanos) {
+        flush(target);
+        downstream.onCalibrationResponse(target, receivedAtNanos);
+    }
+
+    @Override
+    public void onParseError(String error) {
+        downstream.onParseError(error);
+    }
+
+    /**
+     * Deliver every held position, oldest target first.
+     *
+     * @return number of positions delivered
+     */
+    public int flush() {
+        int count = pendingOrder.size();
+        for (int i = 0; i < count; i++) {
+            deliver(pendingOrder.get(i));
+        }
+        pendingOrder.clear();
+        pendingCount = 0;
+        return count;
+    }
+
+    public boolean hasPending() {
+        return pendingCount > 0;
+    }
+
+    public long getReceivedCount() {
+        return received;
+    }
+
+    public long getDeliveredCount() {
+        return delivered;
+    }
+
+    public String getSummary() {
+        long in = received;
+        long out = delivered;
+        return "Positions: " + in + " received, " + out + " delivered, " + (in - out - pendingCount) + " coalesced";
+    }
+
+    private PendingPosition hold(int target) {
+        received++;
+        PendingPosition position = positions.get(target);
+        if (position == null) {
+            position = new PendingPosition(target);
+            positions.put(target, position);
+        }
+        if (!position.pending) {
+            position.pending = true;
+            pendingOrder.add(position);
+            pendingCount = pendingOrder.size();
+        }
+        return position;
+    }
+
+    /**
+     * Deliver the held position of one target, if any, ahead of an event.
+     */
+    private void flush(int target) {
+        PendingPosition position = positions.get(target);
+        if (position != null && position.pending) {
+            pendingOrder.remove(position);
+            pendingCount = pendingOrder.size();
+            deliver(position);
+        }
+    }
+
+    private void deliver(PendingPosition position) {
+        position.pending = false;
+        delivered++;
+        if (position.enhanced) {
+            downstream.onPositionMessageEnhanced(position.target, position.position, position.voltage,
+                    position.satellites, position.hdop, position.altitudeRef, position.receivedAtNanos);
+        } else {
+            downstream.onPositionMessage(position.target, position.position, position.voltage,
+                    position.receivedAtNanos);
+        }
+        position.position = null;
+    }
+}
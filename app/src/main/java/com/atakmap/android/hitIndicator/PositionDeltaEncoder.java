@@ -0,0 +1,178 @@
+package com.atakmap.android.hitIndicator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reference encoder for POSKEY/POSDELTA position frames, following the
+ * target firmware: a keyframe every {@code keyframeInterval} fixes and
+ * deltas against it in between. See BinaryProtocol for the layout.
+ *
+ * A keyframe is also sent early when the target has moved so far from the
+ * last one that a delta would not be smaller. Keeps state per target ID and
+ * is not thread safe; the simulator drives it from its own thread.
+ */
+public final class PositionDeltaEncoder {
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 10;
+
+    // Offsets beyond this take four varint bytes; a keyframe is better value then
+    private static final int MAX_DELTA = (1 << 20) - 1;
+
+    /**
+     * The last keyframe sent for one target, in wire units.
+     */
+    private static final class Keyframe {
+        int key = -1;
+        int fixesSinceKey;
+        int latE6;
+        int lonE6;
+        int altDm;
+        int voltageMv;
+        int satellites;
+        int hdopTenths;
+        int altitudeRef;
+    }
+
+    private final int keyframeInterval;
+    private final Map<String, Keyframe> keyframes = new HashMap<>();
+
+    // Read for summaries from other threads
+    private volatile long keyframeCount;
+    private volatile long deltaCount;
+
+    public PositionDeltaEncoder() {
+        this(DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * @param keyframeInterval fixes per keyframe, the keyframe included
+     */
+    public PositionDeltaEncoder(int keyframeInterval) {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Keyframe interval must be at least 1");
+        }
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Encode one fix as a binary frame, a keyframe or a delta against the
+     * target's last keyframe.
+     */
+    public byte[] encode(String id, double lat, double lon, double alt, double voltage, int satellites,
+            double hdop, String altitudeRef) {
+        int latE6 = (int) Math.round(lat * BinaryProtocol.COORDINATE_SCALE);
+        int lonE6 = (int) Math.round(lon * BinaryProtocol.COORDINATE_SCALE);
+        int altDm = BinaryProtocol.clamp(Math.round(alt * BinaryProtocol.ALTITUDE_SCALE),
+                BinaryProtocol.S24_MIN, BinaryProtocol.S24_MAX);
+        int voltageMv = BinaryProtocol.clamp(Math.round(voltage * BinaryProtocol.VOLTAGE_SCALE), 0, 0xFFFF);
+        int sats = BinaryProtocol.clamp(satellites, 0, 0xFF);
+        int hdopTenths = BinaryProtocol.clamp(Math.round(hdop * BinaryProtocol.HDOP_SCALE), 0, 0xFF);
+        int altRef = BinaryProtocol.altitudeRefCode(altitudeRef);
+
+        Keyframe keyframe = keyframes.get(id);
+        if (keyframe == null) {
+            keyframe = new Keyframe();
+            keyframes.put(id, keyframe);
+        }
+
+        if (keyframe.key < 0 || keyframe.fixesSinceKey >= keyframeInterval
+                || Math.abs((long) latE6 - keyframe.latE6) > MAX_DELTA
+                || Math.abs((long) lonE6 - keyframe.lonE6) > MAX_DELTA
+                || Math.abs(altDm - keyframe.altDm) > MAX_DELTA) {
+            return encodeKeyframe(id, keyframe, latE6, lonE6, altDm, voltageMv, sats, hdopTenths, altRef);
+        }
+
+        int mask = 0;
+        if (latE6 != keyframe.latE6) {
+            mask |= BinaryProtocol.DELTA_LATITUDE;
+        }
+        if (lonE6 != keyframe.lonE6) {
+            mask |= BinaryProtocol.DELTA_LONGITUDE;
+        }
+        if (altDm != keyframe.altDm) {
+            mask |= BinaryProtocol.DELTA_ALTITUDE;
+        }
+        if (voltageMv != keyframe.voltageMv) {
+            mask |= BinaryProtocol.DELTA_VOLTAGE;
+        }
+        if (sats != keyframe.satellites) {
+            mask |= BinaryProtocol.DELTA_SATELLITES;
+        }
+        if (hdopTenths != keyframe.hdopTenths) {
+            mask |= BinaryProtocol.DELTA_HDOP;
+        }
+        if (altRef != keyframe.altitudeRef) {
+            mask |= BinaryProtocol.DELTA_ALTITUDE_REF;
+        }
+
+        BinaryProtocol.Writer writer = new BinaryProtocol.Writer(BinaryProtocol.TYPE_POSITION_DELTA).writeId(id)
+                .writeU8(keyframe.key).writeU8(mask);
+        if ((mask & BinaryProtocol.DELTA_LATITUDE) != 0) {
+            writer.writeSignedVarint(latE6 - keyframe.latE6);
+        }
+        if ((mask & BinaryProtocol.DELTA_LONGITUDE) != 0) {
+            writer.writeSignedVarint(lonE6 - keyframe.lonE6);
+        }
+        if ((mask & BinaryProtocol.DELTA_ALTITUDE) != 0) {
+            writer.writeSignedVarint(altDm - keyframe.altDm);
+        }
+        if ((mask & BinaryProtocol.DELTA_VOLTAGE) != 0) {
+            writer.writeSignedVarint(voltageMv - keyframe.voltageMv);
+        }
+        if ((mask & BinaryProtocol.DELTA_SATELLITES) != 0) {
+            writer.writeU8(sats);
+        }
+        if ((mask & BinaryProtocol.DELTA_HDOP) != 0) {
+            writer.writeU8(hdopTenths);
+        }
+        if ((mask & BinaryProtocol.DELTA_ALTITUDE_REF) != 0) {
+            writer.writeU8(altRef);
+        }
+        keyframe.fixesSinceKey++;
+        deltaCount++;
+        return writer.toFrame();
+    }
+
+    /**
+     * Send the next fix of a target as a keyframe, e.g. after the receiver
+     * reconnected and lost its decoder state.
+     */
+    public void requestKeyframe(String id) {
+        Keyframe keyframe = keyframes.get(id);
+        if (keyframe != null) {
+            keyframe.fixesSinceKey = keyframeInterval;
+        }
+    }
+
+    public void requestAllKeyframes() {
+        for (Keyframe keyframe : keyframes.values()) {
+            keyframe.fixesSinceKey = keyframeInterval;
+        }
+    }
+
+    public long getKeyframeCount() {
+        return keyframeCount;
+    }
+
+    public long getDeltaCount() {
+        return deltaCount;
+    }
+
+    private byte[] encodeKeyframe(String id, Keyframe keyframe, int latE6, int lonE6, int altDm, int voltageMv,
+            int satellites, int hdopTenths, int altitudeRef) {
+        keyframe.key = (keyframe.key + 1) & 0xFF;
+        keyframe.fixesSinceKey = 1;
+        keyframe.latE6 = latE6;
+        keyframe.lonE6 = lonE6;
+        keyframe.altDm = altDm;
+        keyframe.voltageMv = voltageMv;
+        keyframe.satellites = satellites;
+        keyframe.hdopTenths = hdopTenths;
+        keyframe.altitudeRef = altitudeRef;
+        keyframeCount++;
+
+        return new BinaryProtocol.Writer(BinaryProtocol.TYPE_POSITION_KEY).writeId(id).writeU8(keyframe.key)
+                .writeS32(latE6).writeS32(lonE6).writeS24(altDm).writeU16(voltageMv)
+                .writeU8(satellites).writeU8(hdopTenths).writeU8(altitudeRef).toFrame();
+    }
+}
@@ -0,0 +1,267 @@
+package com.atakmap.android.hitIndicator;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Polls targets with QUERY on its own, as often as each target needs.
+ *
+ * Every target gets a poll interval from {@link Config#baseIntervalMs},
+ * shortened while it is being engaged, moving or reporting a poor GPS fix
+ * and lengthened while it is stationary or low on battery. A target is due
+ * once it has been silent for its interval, so targets that report on
+ * their own are never polled. Each poll a target leaves unanswered doubles
+ * its interval, up to {@link Config#maxIntervalMs}, until it is heard again.
+ *
+ * The firmware answers QUERY from every target regardless of ID, so a
+ * single broadcast serves all due targets and costs one reply per target
+ * that is answering. Queries are spaced so those replies stay within
+ * {@link Config#replyBudgetPerSecond}. Targets restored from a previous
+ * session are not polled for, nor counted against the budget, until they
+ * report.
+ *
+ * Runs on the main looper; {@link #noteEngagement(String)} may be called
+ * from any thread.
+ */
+public class QueryScheduler {
+    private static final String TAG = "QueryScheduler";
+
+    // Battery below this is treated as low; the target cells are single Li-ion
+    private static final double LOW_BATTERY_VOLTS = 3.6;
+
+    // Movement below GPS jitter is ignored
+    private static final double MOVE_THRESHOLD_METERS = 5.0;
+    private static final long MOVING_HOLD_MS = 30000;
+    private static final long STATIONARY_AFTER_MS = 120000;
+
+    private static final double METERS_PER_E6_DEGREE = 0.111195;
+
+    /**
+     * Sends one QUERY to every connected device.
+     */
+    public interface Sender {
+        boolean sendQuery();
+    }
+
+    public static final class Config {
+        public long baseIntervalMs = 15000;
+        public long minIntervalMs = 2000;
+        public long maxIntervalMs = 120000;
+        /** Position replies per second the link may spend on polling. */
+        public double replyBudgetPerSecond = 2.0;
+        /** How long a target counts as engaged after a shot at it. */
+        public long engagementWindowMs = 60000;
+    }
+
+    /**
+     * Polls of one target that went unanswered.
+     */
+    private static final class Polls {
+        long lastPolled;
+        long lastSeen;
+        int unanswered;
+    }
+
+    /**
+     * Last movement seen for one target, sampled at each tick.
+     */
+    private static final class Motion {
+        int latE6;
+        int lonE6;
+        long lastMoved;
+        long since;
+    }
+
+    private final TargetManager targetManager;
+    private final TargetIdRegistry ids;
+    private final Sender sender;
+    private final Config config;
+    private final Handler handler;
+    private final Runnable tick = this::tick;
+
+    private final HandleMap<Long> engagedAt = new HandleMap<>();
+    private final HandleMap<Motion> motion = new HandleMap<>();
+    // Targets last seen before this are left over from an earlier session
+    private final long sessionStart = System.currentTimeMillis();
+
+    // Main looper only
+    private final HandleMap<Polls> polls = new HandleMap<>();
+    private boolean running;
+    private long lastQueryTime;
+    private long queryCount;
+    private long budgetDeferrals;
+    private long unansweredPolls;
+    private String nextTarget;
+    private long nextDueIn;
+
+    public QueryScheduler(TargetManager targetManager, Sender sender) {
+        this(targetManager, sender, new Config());
+    }
+
+    public QueryScheduler(TargetManager targetManager, Sender sender, Config config) {
+        if (config.minIntervalMs < 1 || config.maxIntervalMs < config.minIntervalMs
+                || config.replyBudgetPerSecond <= 0) {
+            throw new IllegalArgumentException("Invalid polling config");
+        }
+        this.targetManager = targetManager;
+        this.ids = targetManager.getIdRegistry();
+        this.sender = sender;
+        this.config = config;
+        this.handler = new Handler(Looper.getMainLooper());
+    }
+
+    public void start() {
+        handler.post(() -> {
+            if (!running) {
+                running = true;
+                Log.d(TAG, "Polling started");
+                tick();
+            }
+        });
+    }
+
+    public void stop() {
+        handler.post(() -> {
+            running = false;
+            handler.removeCallbacks(tick);
+        });
+    }
+
+    /**
+     * Poll a target more often for a while, e.g. after a shot at it.
+     */
+    public void noteEngagement(String targetId) {
+        engagedAt.put(ids.intern(targetId), System.currentTimeMillis());
+    }
+
+    public String getSummary() {
+        return String.format("Polling: %s, %d queries, %d deferred by budget, %d unanswered polls, next %s in %d ms",
+                running ? "on" : "off", queryCount, budgetDeferrals, unansweredPolls,
+                nextTarget != null ? nextTarget : "-", Math.max(0, nextDueIn));
+    }
+
+    /**
+     * Poll interval for one target in its current state.
+     */
+    long intervalFor(Target target, int handle, long now) {
+        double interval = config.baseIntervalMs;
+        Long engaged = engagedAt.get(handle);
+        if (engaged != null && now - engaged < config.engagementWindowMs) {
+            interval *= 0.25;
+        }
+        Motion m = motion.get(handle);
+        if (m != null) {
+            if (now - m.lastMoved < MOVING_HOLD_MS) {
+                interval *= 0.5;
+            } else if (now - Math.max(m.lastMoved, m.since) > STATIONARY_AFTER_MS) {
+                interval *= 2;
+            }
+        }
+        if (target.hasGpsQuality() && !target.isGpsQualityGood()) {
+            interval *= 0.5;
+        }
+        double voltage = target.getBatteryVoltage();
+        if (voltage > 0 && voltage < LOW_BATTERY_VOLTS) {
+            interval *= 2;
+        }
+        return Math.max(config.minIntervalMs, Math.min(config.maxIntervalMs, (long) interval));
+    }
+
+    private void tick() {
+        if (!running) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<Target> targets = targetManager.getAllTargets();
+        List<Polls> due = new ArrayList<>();
+
+        long earliestDue = Long.MAX_VALUE;
+        String earliest = null;
+        int answering = 0;
+        for (Target target : targets) {
+            long lastSeen = target.getLastSeen();
+            if (lastSeen < sessionStart) {
+                continue;
+            }
+            answering++;
+            int handle = ids.intern(target.getId());
+            sampleMotion(handle, target, now);
+            Polls p = polls.computeIfAbsent(handle, h -> new Polls());
+            p.lastSeen = lastSeen;
+            if (lastSeen >= p.lastPolled) {
+                p.unanswered = 0;
+            }
+            long interval = intervalFor(target, handle, now);
+            long targetDue = Math.max(lastSeen, p.lastPolled)
+                    + Math.min(config.maxIntervalMs, interval << Math.min(p.unanswered, 16));
+            if (targetDue <= now) {
+                due.add(p);
+            }
+            if (targetDue < earliestDue) {
+                earliestDue = targetDue;
+                earliest = target.getId();
+            }
+        }
+        // With no target heard yet, a slow broadcast discovers them
+        if (answering == 0) {
+            earliestDue = lastQueryTime + config.maxIntervalMs;
+        }
+
+        // Every target answers a QUERY, so each one costs a reply per target
+        long minGap = (long) (Math.max(1, answering) * 1000 / config.replyBudgetPerSecond);
+        long allowed = lastQueryTime + minGap;
+        if (now >= earliestDue) {
+            if (now >= allowed) {
+                if (sender.sendQuery()) {
+                    queryCount++;
+                }
+                lastQueryTime = now;
+                allowed = now + minGap;
+                for (Polls p : due) {
+                    // Still silent since the previous poll
+                    if (p.lastSeen < p.lastPolled) {
+                        p.unanswered++;
+                        unansweredPolls++;
+                    }
+                    p.lastPolled = now;
+                }
+            } else {
+                budgetDeferrals++;
+            }
+        }
+
+        nextTarget = earliest;
+        nextDueIn = earliestDue - now;
+        // Re-evaluate at the next deadline, but at least every minimum interval
+        // so new replies and engagements are picked up
+        long next = Math.max(earliestDue, allowed) - now;
+        handler.postDelayed(tick, Math.max(250, Math.min(next, config.minIntervalMs)));
+    }
+
+    private void sampleMotion(int handle, Target target, long now) {
+        FixedPosition position = target.getPosition();
+        if (position == null || !position.isValid()) {
+            return;
+        }
+        Motion m = motion.get(handle);
+        if (m == null) {
+            m = new Motion();
+            m.latE6 = position.getLatitudeE6();
+            m.lonE6 = position.getLongitudeE6();
+            m.since = now;
+            motion.put(handle, m);
+            return;
+        }
+        double dNorth = (position.getLatitudeE6() - m.latE6) * METERS_PER_E6_DEGREE;
+        double dEast = (position.getLongitudeE6() - m.lonE6) * METERS_PER_E6_DEGREE
+                * Math.cos(Math.toRadians(position.getLatitude()));
+        if (dNorth * dNorth + dEast * dEast >= MOVE_THRESHOLD_METERS * MOVE_THRESHOLD_METERS) {
+            m.latE6 = position.getLatitudeE6();
+            m.lonE6 = position.getLongitudeE6();
+            m.lastMoved = now;
+        }
+    }
+}
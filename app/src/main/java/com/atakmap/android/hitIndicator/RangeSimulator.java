@@ -0,0 +1,501 @@
+package com.atakmap.android.hitIndicator;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synthetic range that emits the real relay wire traffic of many TargetGPS
+ * units and RifleShotDetectors, for load testing without hardware.
+ *
+ * Targets report POSQ followed by its legacy POS copy (or legacy POS alone)
+ * on a fixed interval with GPS jitter, or POSKEY/POSDELTA when binary delta
+ * positions are enabled; shooters fire at targets in their lane, sending
+ * SHOT stamped with their own millis() and, after the time of flight, HIT
+ * when the round lands. Every message crosses a lossy LoRa
+ * hop with random latency before a relay forwards it as BLE notifications
+ * cut to the notification payload size. Output goes to a
+ * {@link BLEManager.DataSink}, the same entry point as the BLE callbacks.
+ *
+ * Runs a discrete-event clock either against the wall clock (scaled by the
+ * speed factor) or as fast as the sink accepts data.
+ */
+public class RangeSimulator {
+    private static final String TAG = "RangeSimulator";
+
+    private static final double METERS_PER_DEGREE = 111111.0;
+
+    /**
+     * Simulation parameters; the defaults describe a busy range day.
+     */
+    public static class Config {
+        public int targetCount = 200;
+        public int shooterCount = 24;
+        public int relayCount = 2;
+        public double centerLat = 38.284639;
+        public double centerLon = -77.144028;
+        public double centerAlt = 100.0;
+        public double minRangeMeters = 100;
+        public double maxRangeMeters = 1200;
+
+        public long positionIntervalMs = 1000;
+        /** Fraction of targets running firmware without the POSQ quality fields. */
+        public double legacyTargetFraction = 0.1;
+        /** Whether POSQ targets follow each fix with a legacy POS copy, as TargetGPS does. */
+        public boolean legacyPositionCopy = true;
+        /** Standard deviation of horizontal GPS error, per axis. */
+        public double gpsJitterMeters = 1.5;
+        public double gpsAltitudeJitterMeters = 3.0;
+
+        /** Mean time between shots of one shooter. */
+        public long shotIntervalMs = 6000;
+        public double hitProbability = 0.75;
+        public double muzzleVelocity = 850.0;
+        /** Velocity lost per metre of flight, as a fraction of muzzle velocity. */
+        public double velocityDecayPerMeter = 0.0004;
+        /** Mean time between unsolicited calibration acknowledgements. */
+        public long calibrationIntervalMs = 30000;
+
+        public double loraLossRate = 0.05;
+        public long loraLatencyMinMs = 80;
+        public long loraLatencyMaxMs = 400;
+
+        public MessageParser.WireFormat wireFormat = MessageParser.WireFormat.ASCII;
+        /**
+         * Fixes per POSKEY keyframe for binary targets with quality fields,
+         * which send POSDELTA in between; 0 sends every fix as POSQ.
+         */
+        public int positionKeyframeInterval = 0;
+        /** ATT payload per notification; 20 at the default MTU. */
+        public int notificationPayload = 20;
+        /**
+         * Playback rate against the wall clock; 0 or less runs as fast as
+         * possible. Shooter clocks run on simulated time while frames are
+         * received on the wall clock, so shot times mapped onto the phone's
+         * clock, and the times of flight ShotTracker sees, are only true to
+         * life at 1.
+         */
+        public double speed = 1.0;
+        public long seed = 1;
+    }
+
+    private static final int EVENT_POSITION = 0;
+    private static final int EVENT_SHOT = 1;
+    private static final int EVENT_CALIBRATION = 2;
+    private static final int EVENT_DELIVER = 3;
+
+    private static final class Event implements Comparable<Event> {
+        final long timeMs;
+        final long order;
+        final int kind;
+        final int index;
+        final byte[] frame;
+        final String channel;
+
+        Event(long timeMs, long order, int kind, int index, byte[] frame, String channel) {
+            this.timeMs = timeMs;
+            this.order = order;
+            this.kind = kind;
+            this.index = index;
+            this.frame = frame;
+            this.channel = channel;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (timeMs != other.timeMs) {
+                return timeMs < other.timeMs ? -1 : 1;
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+
+    private static final class SimTarget {
+        final String id;
+        final double lat;
+        final double lon;
+        final double alt;
+        final int relay;
+        final boolean legacy;
+        final double voltage;
+
+        SimTarget(String id, double lat, double lon, double alt, int relay, boolean legacy, double voltage) {
+            this.id = id;
+            this.lat = lat;
+            this.lon = lon;
+            this.alt = alt;
+            this.relay = relay;
+            this.legacy = legacy;
+            this.voltage = voltage;
+        }
+    }
+
+    private static final class SimShooter {
+        final String id;
+        final double lat;
+        final double lon;
+        final int relay;
+        final int firstTarget;
+        final int laneSize;
+        // millis() of the detector at simulated time 0, and its rate error
+        final long bootMs;
+        final double drift;
+
+        SimShooter(String id, double lat, double lon, int relay, int firstTarget, int laneSize, long bootMs,
+                double drift) {
+            this.id = id;
+            this.lat = lat;
+            this.lon = lon;
+            this.relay = relay;
+            this.firstTarget = firstTarget;
+            this.laneSize = laneSize;
+            this.bootMs = bootMs;
+            this.drift = drift;
+        }
+
+        /**
+         * The detector's millis() at a simulated time.
+         */
+        long millis(long simTimeMs) {
+            return bootMs + Math.round(simTimeMs * (1 + drift));
+        }
+    }
+
+    private final Config config;
+    private final BLEManager.DataSink sink;
+    private final Random random;
+    private final List<SimTarget> targets = new ArrayList<>();
+    private final List<SimShooter> shooters = new ArrayList<>();
+    private final String[] relayAddresses;
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long eventOrder;
+    // Null unless targets send delta positions
+    private final PositionDeltaEncoder deltaEncoder;
+
+    private final String positionChannel = BLEManager.POSITION_CHARACTERISTIC_UUID.toString();
+    private final String hitChannel = BLEManager.HIT_CHARACTERISTIC_UUID.toString();
+    private final String calibrationChannel = BLEManager.CALIBRATION_CHARACTERISTIC_UUID.toString();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    // Written by the simulation thread only
+    private volatile long simTimeMs;
+    private volatile long messages;
+    private volatile long lost;
+    private volatile long notifications;
+    private volatile long rejected;
+    private volatile long bytes;
+    private volatile long shotsFired;
+    private volatile long hitsScored;
+
+    public RangeSimulator(Config config, BLEManager.DataSink sink) {
+        this.config = config;
+        this.sink = sink;
+        this.random = new Random(config.seed);
+        deltaEncoder = config.wireFormat == MessageParser.WireFormat.BINARY && config.positionKeyframeInterval > 0
+                ? new PositionDeltaEncoder(config.positionKeyframeInterval)
+                : null;
+        relayAddresses = new String[Math.max(1, config.relayCount)];
+        for (int i = 0; i < relayAddresses.length; i++) {
+            // Locally administered addresses cannot clash with real relays
+            relayAddresses[i] = String.format(Locale.US, "02:53:49:4D:00:%02X", i);
+        }
+        buildRange();
+    }
+
+    /**
+     * Lay targets out in a fan downrange of the firing line, split into one
+     * lane per shooter.
+     */
+    private void buildRange() {
+        double metersPerDegreeLon = METERS_PER_DEGREE * Math.cos(Math.toRadians(config.centerLat));
+        for (int i = 0; i < config.targetCount; i++) {
+            double range = config.minRangeMeters
+                    + random.nextDouble() * (config.maxRangeMeters - config.minRangeMeters);
+            double bearing = Math.toRadians(-45 + 90 * random.nextDouble());
+            double lat = config.centerLat + range * Math.cos(bearing) / METERS_PER_DEGREE;
+            double lon = config.centerLon + range * Math.sin(bearing) / metersPerDegreeLon;
+            double alt = config.centerAlt + random.nextGaussian() * 5.0;
+            targets.add(new SimTarget(BinaryProtocol.canonicalId(i + 1), lat, lon, alt, i % relayAddresses.length,
+                    random.nextDouble() < config.legacyTargetFraction, 3.6 + random.nextDouble() * 0.6));
+        }
+
+        int shooterCount = Math.max(1, config.shooterCount);
+        int laneSize = Math.max(1, config.targetCount / shooterCount);
+        for (int i = 0; i < shooterCount; i++) {
+            // Firing line runs east-west through the centre, 2 m per point
+            double offset = (i - shooterCount / 2.0) * 2.0;
+            // Detectors were switched on at different times within the last
+            // hour and run within the tolerance of their ceramic resonators
+            shooters.add(new SimShooter("SHOOTER" + (i + 1), config.centerLat,
+                    config.centerLon + offset / metersPerDegreeLon, i % relayAddresses.length,
+                    (i * laneSize) % Math.max(1, config.targetCount), laneSize,
+                    (long) (random.nextDouble() * 3600000), (random.nextDouble() * 2 - 1) * 0.001));
+        }
+    }
+
+    public void start() {
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+            running = true;
+            thread = new Thread(() -> run(Long.MAX_VALUE), "HitIndicatorRangeSim");
+            thread.start();
+        }
+        Log.i(TAG, "Range simulation started: " + config.targetCount + " targets, " + config.shooterCount
+                + " shooters");
+    }
+
+    public void stop() {
+        Thread current;
+        synchronized (this) {
+            running = false;
+            current = thread;
+            thread = null;
+        }
+        if (current != null) {
+            current.interrupt();
+            try {
+                current.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Log.i(TAG, "Range simulation stopped: " + getSummary());
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Run the simulation on the calling thread until {@code durationMs} of
+     * simulated time has passed or {@link #stop()} is called.
+     */
+    public void run(long durationMs) {
+        running = true;
+        if (events.isEmpty()) {
+            scheduleInitialEvents();
+        }
+
+        long wallStart = System.nanoTime();
+        long simStart = simTimeMs;
+        try {
+            while (running && !events.isEmpty()) {
+                Event event = events.peek();
+                if (event.timeMs - simStart > durationMs) {
+                    break;
+                }
+                if (config.speed > 0) {
+                    long dueNanos = wallStart + (long) ((event.timeMs - simStart) * 1e6 / config.speed);
+                    long waitNanos = dueNanos - System.nanoTime();
+                    if (waitNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    }
+                }
+                events.poll();
+                simTimeMs = event.timeMs;
+                handle(event);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+        }
+    }
+
+    private void scheduleInitialEvents() {
+        // Spread the first reports so the targets do not all speak at once
+        for (int i = 0; i < targets.size(); i++) {
+            schedule((long) (random.nextDouble() * config.positionIntervalMs), EVENT_POSITION, i, null, null);
+        }
+        for (int i = 0; i < shooters.size(); i++) {
+            schedule(nextInterval(config.shotIntervalMs), EVENT_SHOT, i, null, null);
+        }
+        if (config.calibrationIntervalMs > 0 && !targets.isEmpty()) {
+            schedule(nextInterval(config.calibrationIntervalMs), EVENT_CALIBRATION, 0, null, null);
+        }
+    }
+
+    private void handle(Event event) {
+        long now = event.timeMs;
+        switch (event.kind) {
+            case EVENT_POSITION:
+                reportPosition(targets.get(event.index));
+                schedule(now + config.positionIntervalMs, EVENT_POSITION, event.index, null, null);
+                break;
+            case EVENT_SHOT:
+                fireShot(shooters.get(event.index));
+                schedule(now + nextInterval(config.shotIntervalMs), EVENT_SHOT, event.index, null, null);
+                break;
+            case EVENT_CALIBRATION:
+                SimTarget target = targets.get(random.nextInt(targets.size()));
+                sendOverLora(target.relay, MessageParser.createCalibrationAckMessage(config.wireFormat, target.id),
+                        calibrationChannel);
+                schedule(now + nextInterval(config.calibrationIntervalMs), EVENT_CALIBRATION, 0, null, null);
+                break;
+            case EVENT_DELIVER:
+                notifyRelay(event.index, event.frame, event.channel);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void reportPosition(SimTarget target) {
+        double metersPerDegreeLon = METERS_PER_DEGREE * Math.cos(Math.toRadians(target.lat));
+        double lat = target.lat + random.nextGaussian() * config.gpsJitterMeters / METERS_PER_DEGREE;
+        double lon = target.lon + random.nextGaussian() * config.gpsJitterMeters / metersPerDegreeLon;
+        double alt = target.alt + random.nextGaussian() * config.gpsAltitudeJitterMeters;
+
+        byte[] frame;
+        if (target.legacy) {
+            frame = MessageParser.createPositionMessage(config.wireFormat, target.id, lat, lon, alt, target.voltage);
+        } else {
+            int satellites = 7 + random.nextInt(8);
+            double hdop = 0.7 + random.nextDouble() * 1.8;
+            if (deltaEncoder != null) {
+                frame = deltaEncoder.encode(target.id, lat, lon, alt, target.voltage, satellites, hdop, "MSL");
+            } else {
+                frame = MessageParser.createPositionQualityMessage(config.wireFormat, target.id, lat, lon, alt,
+                        target.voltage, satellites, hdop, "MSL");
+                if (config.legacyPositionCopy) {
+                    // The copy goes out right behind the POSQ on the same radio, so it cannot overtake it
+                    long arrival = sendOverLora(target.relay, frame, positionChannel);
+                    byte[] copy = MessageParser.createPositionMessage(config.wireFormat, target.id, lat, lon, alt,
+                            target.voltage);
+                    scheduleLora(simTimeMs, Math.max(0, arrival + 1), target.relay, copy, positionChannel);
+                    return;
+                }
+            }
+        }
+        sendOverLora(target.relay, frame, positionChannel);
+    }
+
+    private void fireShot(SimShooter shooter) {
+        if (targets.isEmpty()) {
+            return;
+        }
+        SimTarget target = targets.get((shooter.firstTarget + random.nextInt(shooter.laneSize)) % targets.size());
+        shotsFired++;
+        // The detector stamps the shot with its own millis() and names itself
+        sendOverLora(shooter.relay, MessageParser.createShotFiredMessage(config.wireFormat, target.id,
+                shooter.millis(simTimeMs), shooter.id), hitChannel);
+
+        if (random.nextDouble() < config.hitProbability) {
+            hitsScored++;
+            double range = distanceMeters(shooter.lat, shooter.lon, target.lat, target.lon);
+            long flightMs = Math.round(timeOfFlight(range) * 1000);
+            byte[] hit = MessageParser.createHitMessage(config.wireFormat, target.id);
+            scheduleLora(simTimeMs + flightMs, 0, target.relay, hit, hitChannel);
+        }
+    }
+
+    /**
+     * Time of flight with velocity falling off linearly with distance, which
+     * is close to a G7 drag curve over supersonic ranges.
+     */
+    double timeOfFlight(double range) {
+        double k = config.velocityDecayPerMeter;
+        if (k <= 0) {
+            return range / config.muzzleVelocity;
+        }
+        double remaining = Math.max(0.3, 1 - k * range);
+        return -Math.log(remaining) / (k * config.muzzleVelocity);
+    }
+
+    private static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = (lat2 - lat1) * METERS_PER_DEGREE;
+        double dLon = (lon2 - lon1) * METERS_PER_DEGREE * Math.cos(Math.toRadians(lat1));
+        return Math.sqrt(dLat * dLat + dLon * dLon);
+    }
+
+    /**
+     * @return simulated time the frame reaches the relay, or -1 if it is lost
+     */
+    private long sendOverLora(int relay, byte[] frame, String channel) {
+        return scheduleLora(simTimeMs, 0, relay, frame, channel);
+    }
+
+    /**
+     * @param notBeforeMs earliest arrival, for a frame queued behind another
+     * @return simulated time the frame reaches the relay, or -1 if it is lost
+     */
+    private long scheduleLora(long sentMs, long notBeforeMs, int relay, byte[] frame, String channel) {
+        messages++;
+        if (random.nextDouble() < config.loraLossRate) {
+            lost++;
+            return -1;
+        }
+        long latency = config.loraLatencyMinMs
+                + (long) (random.nextDouble() * (config.loraLatencyMaxMs - config.loraLatencyMinMs));
+        long arrival = Math.max(sentMs + latency, notBeforeMs);
+        schedule(arrival, EVENT_DELIVER, relay, frame, channel);
+        return arrival;
+    }
+
+    /**
+     * Forward one frame from a relay, cut into notification-sized chunks.
+     */
+    private void notifyRelay(int relay, byte[] frame, String channel) {
+        String address = relayAddresses[relay];
+        int chunk = Math.max(1, config.notificationPayload);
+        for (int offset = 0; offset < frame.length; offset += chunk) {
+            int length = Math.min(chunk, frame.length - offset);
+            byte[] data = new byte[length];
+            System.arraycopy(frame, offset, data, 0, length);
+            notifications++;
+            bytes += length;
+            if (!sink.offer(address, channel, data, SystemClock.elapsedRealtimeNanos())) {
+                rejected++;
+            }
+        }
+    }
+
+    private void schedule(long timeMs, int kind, int index, byte[] frame, String channel) {
+        events.add(new Event(timeMs, eventOrder++, kind, index, frame, channel));
+    }
+
+    /**
+     * Exponentially distributed interval with the given mean.
+     */
+    private long nextInterval(long meanMs) {
+        return 1 + (long) (-Math.log(1 - random.nextDouble()) * meanMs);
+    }
+
+    public long getShotsFired() {
+        return shotsFired;
+    }
+
+    public long getHitsScored() {
+        return hitsScored;
+    }
+
+    public long getNotificationCount() {
+        return notifications;
+    }
+
+    public long getRejectedCount() {
+        return rejected;
+    }
+
+    public String getSummary() {
+        String summary = String.format(Locale.US,
+                "Simulator: %.1f s simulated, %d messages (%d lost on LoRa), %d notifications / %d B, "
+                        + "%d rejected by sink, %d shots, %d hits",
+                simTimeMs / 1000.0, messages, lost, notifications, bytes, rejected, shotsFired, hitsScored);
+        if (deltaEncoder != null) {
+            summary += ", " + deltaEncoder.getKeyframeCount() + " keyframes / "
+                    + deltaEncoder.getDeltaCount() + " deltas";
+        }
+        return summary;
+    }
+}
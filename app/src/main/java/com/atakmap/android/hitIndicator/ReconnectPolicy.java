@@ -0,0 +1,123 @@
+package com.atakmap.android.hitIndicator;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * When to retry a dropped link, and how long getting it back took.
+ *
+ * Attempts are spaced by an exponential backoff from
+ * {@link Config#initialDelayMs} up to {@link Config#maxDelayMs}, each delay
+ * drawn between half and all of its step so that several relays dropped by
+ * the same event do not retry in lockstep. The first attempts reuse the
+ * dropped connection, whose discovered services stay valid; later ones
+ * open a fresh connection in case the old one is wedged.
+ *
+ * Thread safe.
+ */
+public class ReconnectPolicy {
+
+    // Reconnect latencies kept for the summary
+    private static final int HISTORY = 32;
+
+    public static final class Config {
+        public long initialDelayMs = 250;
+        public long maxDelayMs = 30000;
+        /** Attempts before a device is given up; 0 keeps trying. */
+        public int maxAttempts = 20;
+        /** Attempts that reuse the dropped connection before fresh ones are opened. */
+        public int reuseAttempts = 3;
+        /** How long one attempt may take before it is abandoned. */
+        public long attemptTimeoutMs = 10000;
+    }
+
+    private final Config config;
+    private final Random random = new Random();
+
+    // Guarded by this
+    private final long[] latencies = new long[HISTORY];
+    private int latencyCount;
+    private int nextLatency;
+    private long reconnectCount;
+    private long attemptCount;
+    private long giveUpCount;
+
+    public ReconnectPolicy() {
+        this(new Config());
+    }
+
+    public ReconnectPolicy(Config config) {
+        if (config.initialDelayMs < 1 || config.maxDelayMs < config.initialDelayMs || config.maxAttempts < 0
+                || config.reuseAttempts < 0 || config.attemptTimeoutMs < 1) {
+            throw new IllegalArgumentException("Invalid reconnect config");
+        }
+        this.config = config;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    /**
+     * Wait before the next attempt.
+     *
+     * @param attempts attempts made so far for this drop
+     */
+    public long delayFor(int attempts) {
+        long step = config.initialDelayMs << Math.min(attempts, 30);
+        if (step <= 0 || step > config.maxDelayMs) {
+            step = config.maxDelayMs;
+        }
+        long half = step / 2;
+        synchronized (random) {
+            return half + (long) (random.nextDouble() * (step - half));
+        }
+    }
+
+    /**
+     * @param attempts attempts made so far for this drop
+     */
+    public boolean shouldGiveUp(int attempts) {
+        return config.maxAttempts > 0 && attempts >= config.maxAttempts;
+    }
+
+    /**
+     * @param attempt the attempt about to be made, counting from 1
+     */
+    public boolean shouldReuseConnection(int attempt) {
+        return attempt <= config.reuseAttempts;
+    }
+
+    /**
+     * Note a link back in service.
+     *
+     * @param latencyMs from the drop until notifications were set up again
+     */
+    public synchronized void recordReconnect(long latencyMs, int attempts) {
+        latencies[nextLatency] = latencyMs;
+        nextLatency = (nextLatency + 1) % HISTORY;
+        if (latencyCount < HISTORY) {
+            latencyCount++;
+        }
+        reconnectCount++;
+        attemptCount += attempts;
+    }
+
+    public synchronized void recordGiveUp(int attempts) {
+        giveUpCount++;
+        attemptCount += attempts;
+    }
+
+    public synchronized String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Reconnects: %d, %d given up, %d attempts", reconnectCount, giveUpCount,
+                attemptCount));
+        if (latencyCount > 0) {
+            long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            sb.append(String.format(", latency min %d / median %d / max %d ms", sorted[0],
+                    sorted[(sorted.length - 1) / 2], sorted[sorted.length - 1]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,278 @@
+package com.atakmap.android.hitIndicator;
+
+import android.os.SystemClock;
+import android.util.Log;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps timestamps from the remote devices' {@code millis()} clocks onto the
+ * phone's clock, so shot and hit times can be compared.
+ *
+ * Each remote clock is modelled as an offset plus a linear drift. Every
+ * timestamped frame gives a sample {@code received - latency - remote};
+ * delays on the link only ever make a sample larger, so the estimate
+ * follows the lower envelope of the samples rather than their mean.
+ *
+ * Clocks are keyed by the device that stamped the time: a SHOT carries the
+ * shooter's {@code millis()}, not the target's, so it is filed under the
+ * shooter ID it names, or the relay that delivered it for detectors that
+ * send none. Round trips are kept per target handle, since CAL/CALACK
+ * measures the path to a target. A target's own events use half its
+ * shortest round trip as one-way latency; shooter clocks, whose path is
+ * not measured, use half the shortest round trip of any target.
+ *
+ * A remote clock that jumps backwards (reboot or millis() wrap) starts a
+ * fresh estimate. Thread safe.
+ */
+public class RemoteClockEstimator {
+    private static final String TAG = "RemoteClockEstimator";
+
+    // Samples kept per clock; old ones age out of the envelope
+    private static final int MAX_SAMPLES = 64;
+    // Drift is only fitted once the samples span this much remote time
+    private static final long MIN_DRIFT_SPAN_MS = 60000;
+    // Ceramic resonators on the AVR boards are good to about 0.5 %
+    private static final double MAX_DRIFT = 0.005;
+    // A sample this far below the estimate means the remote clock restarted
+    private static final long RESET_THRESHOLD_MS = 5000;
+    // Slices of the sample window whose minima make up the envelope
+    private static final int ENVELOPE_BUCKETS = 8;
+    // Round trips kept per target for the latency estimate
+    private static final int MAX_ROUND_TRIPS = 16;
+
+    /**
+     * Samples of one remote clock.
+     */
+    private static final class Clock {
+        final long[] remote = new long[MAX_SAMPLES];
+        final long[] offset = new long[MAX_SAMPLES];
+        int count;
+        int next;
+        long lastRemote = Long.MIN_VALUE;
+        int resets;
+
+        // Fit cached after each sample
+        double drift;
+        long baseRemote;
+        long baseOffset;
+
+        void clearSamples() {
+            count = 0;
+            next = 0;
+            drift = 0;
+        }
+    }
+
+    /**
+     * CAL/CALACK round trips of one target.
+     */
+    private static final class RoundTrips {
+        final long[] roundTrips = new long[MAX_ROUND_TRIPS];
+        int roundTripCount;
+        int nextRoundTrip;
+
+        long minRoundTrip() {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < roundTripCount; i++) {
+                min = Math.min(min, roundTrips[i]);
+            }
+            return min;
+        }
+    }
+
+    private final TargetIdRegistry ids;
+    // Guarded by this
+    private final Map<String, Clock> clocks = new HashMap<>();
+    private final HandleMap<RoundTrips> roundTrips = new HandleMap<>();
+
+    public RemoteClockEstimator(TargetIdRegistry ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * Note a CAL/CALACK round trip with a target.
+     */
+    public synchronized void onRoundTrip(int target, long rttMs) {
+        if (rttMs < 0) {
+            return;
+        }
+        RoundTrips s = roundTrips.computeIfAbsent(target, h -> new RoundTrips());
+        s.roundTrips[s.nextRoundTrip] = rttMs;
+        s.nextRoundTrip = (s.nextRoundTrip + 1) % MAX_ROUND_TRIPS;
+        if (s.roundTripCount < MAX_ROUND_TRIPS) {
+            s.roundTripCount++;
+        }
+    }
+
+    /**
+     * Feed a remote timestamp and map it onto the phone's clock.
+     *
+     * @param clock the device whose {@code millis()} stamped the frame
+     * @param receivedAtNanos {@link SystemClock#elapsedRealtimeNanos()} when the frame arrived
+     * @return the remote time as {@link System#currentTimeMillis()}
+     */
+    public synchronized long onRemoteTimestamp(String clock, long remoteMillis, long receivedAtNanos) {
+        Clock s = clocks.get(clock);
+        if (s == null) {
+            s = new Clock();
+            clocks.put(clock, s);
+        }
+        long receivedAt = TimeUnit.NANOSECONDS.toMillis(receivedAtNanos);
+        long sample = receivedAt - linkLatency() - remoteMillis;
+        if (remoteMillis < s.lastRemote
+                || (s.count > 0 && sample < estimate(s, remoteMillis) - RESET_THRESHOLD_MS)) {
+            Log.d(TAG, "Remote clock of " + clock + " restarted");
+            s.clearSamples();
+            s.resets++;
+        }
+        s.lastRemote = remoteMillis;
+        s.remote[s.next] = remoteMillis;
+        s.offset[s.next] = sample;
+        s.next = (s.next + 1) % MAX_SAMPLES;
+        if (s.count < MAX_SAMPLES) {
+            s.count++;
+        }
+        fit(s, remoteMillis);
+        return toWallClock(estimate(s, remoteMillis) + remoteMillis);
+    }
+
+    /**
+     * Map a remote timestamp without feeding it to the estimate.
+     *
+     * @return the remote time as {@link System#currentTimeMillis()}, or -1
+     *         before any sample from the clock
+     */
+    public synchronized long toLocalTime(String clock, long remoteMillis) {
+        Clock s = clocks.get(clock);
+        if (s == null || s.count == 0) {
+            return -1;
+        }
+        return toWallClock(estimate(s, remoteMillis) + remoteMillis);
+    }
+
+    /**
+     * When an untimestamped event happened, from when its frame arrived.
+     *
+     * @param receivedAtNanos {@link SystemClock#elapsedRealtimeNanos()} when the frame arrived
+     * @return the event time as {@link System#currentTimeMillis()}
+     */
+    public synchronized long eventTime(int target, long receivedAtNanos) {
+        RoundTrips own = roundTrips.get(target);
+        long latency = own != null && own.roundTripCount > 0 ? own.minRoundTrip() / 2 : linkLatency();
+        return toWallClock(TimeUnit.NANOSECONDS.toMillis(receivedAtNanos) - latency);
+    }
+
+    /**
+     * One line per clock (offset, drift, sample count) and per target with
+     * round trips (latency).
+     */
+    public synchronized String getSummary() {
+        StringBuilder sb = new StringBuilder("Remote clocks:");
+        for (Map.Entry<String, Clock> entry : clocks.entrySet()) {
+            Clock s = entry.getValue();
+            sb.append("\n  ").append(entry.getKey()).append(": ");
+            if (s.count == 0) {
+                sb.append("no timestamps");
+            } else {
+                sb.append(String.format("offset %d ms, drift %+.0f ppm, %d samples", s.baseOffset,
+                        s.drift * 1e6, s.count));
+            }
+            if (s.resets > 0) {
+                sb.append(", ").append(s.resets).append(" restarts");
+            }
+        }
+        roundTrips.forEach((handle, s) -> {
+            if (s.roundTripCount > 0) {
+                sb.append(String.format("\n  %s: latency %d ms", ids.getId(handle), s.minRoundTrip() / 2));
+            }
+        });
+        return sb.toString();
+    }
+
+    /**
+     * One-way latency over the LoRa link: half the shortest round trip of
+     * any target.
+     */
+    private long linkLatency() {
+        long[] min = {Long.MAX_VALUE};
+        roundTrips.forEach((handle, s) -> {
+            if (s.roundTripCount > 0) {
+                min[0] = Math.min(min[0], s.minRoundTrip());
+            }
+        });
+        return min[0] == Long.MAX_VALUE ? 0 : min[0] / 2;
+    }
+
+    /**
+     * Fit offset and drift to the lower envelope: the samples are split into
+     * {@link #ENVELOPE_BUCKETS} slices of remote time and a least-squares
+     * line is fitted through the minimum of each slice.
+     */
+    private static void fit(Clock s, long now) {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        long lowest = Long.MAX_VALUE;
+        for (int i = 0; i < s.count; i++) {
+            first = Math.min(first, s.remote[i]);
+            last = Math.max(last, s.remote[i]);
+            lowest = Math.min(lowest, s.offset[i]);
+        }
+        s.baseRemote = now;
+        s.baseOffset = lowest;
+        s.drift = 0;
+        if (last - first < MIN_DRIFT_SPAN_MS) {
+            return;
+        }
+
+        long[] minOffset = new long[ENVELOPE_BUCKETS];
+        long[] minAt = new long[ENVELOPE_BUCKETS];
+        Arrays.fill(minOffset, Long.MAX_VALUE);
+        double width = (double) (last - first + 1) / ENVELOPE_BUCKETS;
+        for (int i = 0; i < s.count; i++) {
+            int bucket = (int) ((s.remote[i] - first) / width);
+            if (s.offset[i] < minOffset[bucket]) {
+                minOffset[bucket] = s.offset[i];
+                minAt[bucket] = s.remote[i];
+            }
+        }
+
+        // Centre on the first minimum so the sums stay small
+        int n = 0;
+        double sumX = 0;
+        double sumY = 0;
+        double sumXX = 0;
+        double sumXY = 0;
+        for (int b = 0; b < ENVELOPE_BUCKETS; b++) {
+            if (minOffset[b] == Long.MAX_VALUE) {
+                continue;
+            }
+            double x = minAt[b] - first;
+            double y = minOffset[b] - lowest;
+            n++;
+            sumX += x;
+            sumY += y;
+            sumXX += x * x;
+            sumXY += x * y;
+        }
+        double denominator = n * sumXX - sumX * sumX;
+        if (n < 3 || denominator <= 0) {
+            return;
+        }
+        double drift = (n * sumXY - sumX * sumY) / denominator;
+        drift = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, drift));
+        double intercept = (sumY - drift * sumX) / n;
+        s.drift = drift;
+        s.baseOffset = lowest + Math.round(intercept + drift * (now - first));
+    }
+
+    private static long estimate(Clock s, long remoteMillis) {
+        return s.baseOffset + Math.round(s.drift * (remoteMillis - s.baseRemote));
+    }
+
+    private static long toWallClock(long elapsedRealtime) {
+        return elapsedRealtime + System.currentTimeMillis() - SystemClock.elapsedRealtime();
+    }
+}
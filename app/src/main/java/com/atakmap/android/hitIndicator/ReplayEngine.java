@@ -0,0 +1,630 @@
+package com.atakmap.android.hitIndicator;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a captured link session (see {@link LinkRecorder} for the file
+ * format) back through a fresh MessageParser and on to a listener, without
+ * any BLE stack.
+ *
+ * Frames are released on the capture's own monotonic timeline, scaled by the
+ * replay speed, or back to back. Each run reports throughput, per-stage
+ * latency and a digest of every message the parser delivered, so a decode
+ * change can be checked to produce the same messages as before, in any
+ * mode. That digest stops at the parser.
+ *
+ * {@link #feed} instead hands the capture to the app's own ingest path, so
+ * the frames update TargetManager and ShotTracker as live notifications
+ * would. {@link #digestState} then covers what that left behind: targets,
+ * hit counts and shot ballistics.
+ *
+ * Nothing on the replay path needs the Android runtime once a {@link Clock}
+ * and {@link MessageParser.Logger} are supplied, so {@link #main(String[])}
+ * runs on a desktop JVM with only the plugin's compiled classes on the
+ * class path.
+ */
+public class ReplayEngine {
+    private static final String TAG = "ReplayEngine";
+
+    // Sleep while the next frame is further away than this, then spin
+    private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    // Pause before offering a frame the sink rejected again
+    private static final long REJECT_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    /**
+     * Source of the receive times handed to the downstream listener.
+     */
+    public interface Clock {
+        /** Monotonic time in nanoseconds, as {@link SystemClock#elapsedRealtimeNanos()}. */
+        long elapsedRealtimeNanos();
+    }
+
+    public static final Clock ANDROID_CLOCK = new Clock() {
+        @Override
+        public long elapsedRealtimeNanos() {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+    };
+
+    public enum Mode {
+        /** Original timing. */
+        REAL_TIME,
+        /** Original timing divided by the speed factor. */
+        ACCELERATED,
+        /** No waiting between frames. */
+        AS_FAST_AS_POSSIBLE
+    }
+
+    /**
+     * One notification read from a capture file.
+     */
+    public static final class CaptureRecord {
+        public final long timestampNanos;
+        public final String deviceAddress;
+        public final String characteristicUuid;
+        public final byte[] data;
+
+        public CaptureRecord(long timestampNanos, String deviceAddress, String characteristicUuid, byte[] data) {
+            this.timestampNanos = timestampNanos;
+            this.deviceAddress = deviceAddress;
+            this.characteristicUuid = characteristicUuid;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Outcome of one replay run.
+     */
+    public static final class Result {
+        public int frames;
+        public long bytes;
+        public long captureNanos;
+        public long wallNanos;
+        public long positions;
+        public long hits;
+        public long shots;
+        public long calibrations;
+        public long parseErrors;
+        public long decodeP50Nanos;
+        public long decodeP99Nanos;
+        public long decodeMaxNanos;
+        public long listenerNanos;
+        public long scheduleLagMaxNanos;
+        public long scheduleLagTotalNanos;
+        public long digest;
+        public String linkSummary;
+        public boolean cancelled;
+        /** Fed to a sink by {@link #feed}: nothing was decoded or digested here. */
+        public boolean fed;
+        /** Offers the sink turned down and that were retried. */
+        public long rejected;
+
+        public double getFramesPerSecond() {
+            return wallNanos > 0 ? frames * 1e9 / wallNanos : 0;
+        }
+
+        public String getDigestHex() {
+            return String.format(Locale.US, "%016x", digest);
+        }
+
+        public String getSummary() {
+            if (fed) {
+                return String.format(Locale.US,
+                        "Replay%s: fed %d frames (%d B) of %.1f s in %.3f s, %d offers retried; "
+                                + "schedule lag avg %.2f ms, max %.2f ms",
+                        cancelled ? " (cancelled)" : "", frames, bytes, captureNanos / 1e9, wallNanos / 1e9,
+                        rejected, frames > 0 ? scheduleLagTotalNanos / 1e6 / frames : 0,
+                        scheduleLagMaxNanos / 1e6);
+            }
+            return String.format(Locale.US,
+                    "Replay%s: %d frames (%d B) of %.1f s in %.3f s, %.0f frames/s. "
+                            + "Decode p50 %d ns, p99 %d ns, max %d ns; listener %.0f ns/frame; "
+                            + "schedule lag avg %.2f ms, max %.2f ms. "
+                            + "Results: %d positions, %d hits, %d shots, %d calibrations, %d errors, digest %s",
+                    cancelled ? " (cancelled)" : "", frames, bytes, captureNanos / 1e9, wallNanos / 1e9,
+                    getFramesPerSecond(), decodeP50Nanos, decodeP99Nanos, decodeMaxNanos,
+                    frames > 0 ? (double) listenerNanos / frames : 0,
+                    frames > 0 ? scheduleLagTotalNanos / 1e6 / frames : 0, scheduleLagMaxNanos / 1e6,
+                    positions, hits, shots, calibrations, parseErrors, getDigestHex());
+        }
+    }
+
+    private final MessageParser.MessageListener downstream;
+    private final TargetIdRegistry ids;
+    private final Clock clock;
+    private final MessageParser.Logger logger;
+    private volatile boolean cancelled;
+
+    /**
+     * @param downstream receives every decoded message, e.g. an adapter onto
+     *                   TargetManager and ShotTracker; may be null to only
+     *                   measure and digest
+     */
+    public ReplayEngine(MessageParser.MessageListener downstream) {
+        this(downstream, new TargetIdRegistry());
+    }
+
+    /**
+     * @param ids registry the downstream resolves target handles with
+     */
+    public ReplayEngine(MessageParser.MessageListener downstream, TargetIdRegistry ids) {
+        this(downstream, ids, ANDROID_CLOCK, MessageParser.ANDROID_LOG);
+    }
+
+    /**
+     * @param clock timeline the capture's receive times are moved onto
+     * @param logger takes the engine's and the parser's diagnostics
+     */
+    public ReplayEngine(MessageParser.MessageListener downstream, TargetIdRegistry ids, Clock clock,
+            MessageParser.Logger logger) {
+        this.downstream = downstream;
+        this.ids = ids;
+        this.clock = clock;
+        this.logger = logger;
+    }
+
+    /**
+     * Stop a running replay after the current frame.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public static List<CaptureRecord> readCapture(File file) throws IOException {
+        return readCapture(file, MessageParser.ANDROID_LOG);
+    }
+
+    public static List<CaptureRecord> readCapture(File file, MessageParser.Logger logger) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return readCapture(in, logger);
+        }
+    }
+
+    public static List<CaptureRecord> readCapture(InputStream stream) throws IOException {
+        return readCapture(stream, MessageParser.ANDROID_LOG);
+    }
+
+    /**
+     * Read every record of a capture. A record cut short at the end of the
+     * file, as left by a crash mid-write, is ignored.
+     */
+    public static List<CaptureRecord> readCapture(InputStream stream, MessageParser.Logger logger)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != LinkRecorder.MAGIC) {
+            throw new IOException("Not a link capture file");
+        }
+        int version = in.readUnsignedShort();
+        if (version != LinkRecorder.FORMAT_VERSION) {
+            throw new IOException("Unsupported capture version " + version);
+        }
+        in.readLong(); // wall clock at start
+        in.readLong(); // elapsedRealtimeNanos at start
+
+        String[] channels = new String[in.readUnsignedByte()];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = new UUID(in.readLong(), in.readLong()).toString();
+        }
+
+        List<CaptureRecord> records = new ArrayList<>();
+        byte[] mac = new byte[LinkRecorder.MAC_LENGTH];
+        String lastAddress = null;
+        byte[] lastMac = null;
+        while (true) {
+            long timestamp;
+            try {
+                timestamp = in.readLong();
+            } catch (EOFException e) {
+                break;
+            }
+            try {
+                in.readFully(mac);
+                int channel = in.readUnsignedByte();
+                byte[] data = new byte[in.readUnsignedShort()];
+                in.readFully(data);
+
+                // Most captures hold one or two devices; reuse the address string
+                if (lastMac == null || !Arrays.equals(mac, lastMac)) {
+                    lastMac = mac.clone();
+                    lastAddress = formatMac(mac);
+                }
+                String uuid = channel < channels.length ? channels[channel] : "unknown";
+                records.add(new CaptureRecord(timestamp, lastAddress, uuid, data));
+            } catch (EOFException e) {
+                logger.log(Log.WARN, TAG, "Capture ends in a partial record after " + records.size() + " records");
+                break;
+            }
+        }
+        return records;
+    }
+
+    private static String formatMac(byte[] mac) {
+        StringBuilder address = new StringBuilder(17);
+        for (int i = 0; i < mac.length; i++) {
+            if (i > 0) {
+                address.append(':');
+            }
+            address.append(String.format(Locale.US, "%02X", mac[i] & 0xFF));
+        }
+        return address.toString();
+    }
+
+    /**
+     * Replay a capture on the calling thread.
+     *
+     * @param speed playback rate for {@link Mode#ACCELERATED}, ignored otherwise
+     */
+    public Result replay(List<CaptureRecord> records, Mode mode, double speed) {
+        if (mode == Mode.ACCELERATED && !(speed > 0)) {
+            throw new IllegalArgumentException("Replay speed must be positive");
+        }
+        double rate = mode == Mode.REAL_TIME ? 1.0 : speed;
+        cancelled = false;
+
+        Result result = new Result();
+        ResultListener listener = new ResultListener(downstream, ids, result);
+        MessageParser parser = new MessageParser(listener, ids);
+        parser.setLogger(logger);
+        long[] decodeNanos = new long[records.size()];
+
+        long captureStart = records.isEmpty() ? 0 : records.get(0).timestampNanos;
+        // Receive times keep their capture spacing, moved onto this device's clock
+        listener.replayStartNanos = clock.elapsedRealtimeNanos();
+        long wallStart = System.nanoTime();
+        int frames = 0;
+        for (CaptureRecord record : records) {
+            if (cancelled) {
+                result.cancelled = true;
+                break;
+            }
+
+            if (mode != Mode.AS_FAST_AS_POSSIBLE) {
+                pace(result, wallStart + (long) ((record.timestampNanos - captureStart) / rate));
+            }
+
+            long listenerBefore = result.listenerNanos;
+            long start = System.nanoTime();
+            parser.processData(record.deviceAddress, record.characteristicUuid, record.data,
+                    listener.replayStartNanos + record.timestampNanos - captureStart);
+            long elapsed = System.nanoTime() - start;
+            // Decode cost alone; time spent in the listener is its own stage
+            decodeNanos[frames++] = elapsed - (result.listenerNanos - listenerBefore);
+            result.bytes += record.data.length;
+        }
+        result.wallNanos = System.nanoTime() - wallStart;
+        result.frames = frames;
+        if (frames > 0) {
+            result.captureNanos = records.get(frames - 1).timestampNanos - captureStart;
+            Arrays.sort(decodeNanos, 0, frames);
+            result.decodeP50Nanos = decodeNanos[(frames - 1) / 2];
+            result.decodeP99Nanos = decodeNanos[(int) ((frames - 1) * 0.99)];
+            result.decodeMaxNanos = decodeNanos[frames - 1];
+        }
+        result.digest = listener.digest;
+        result.linkSummary = parser.getLinkStatistics().getSummary();
+        logger.log(Log.INFO, TAG, result.getSummary());
+        return result;
+    }
+
+    /**
+     * Release a capture into a live sink, such as the app's IngestPipeline,
+     * on the calling thread. The frames then take the path BLE notifications
+     * take, through the sink's parser and listeners. Receive times keep their
+     * capture spacing, as in {@link #replay}.
+     *
+     * Decoding happens downstream, so the result has no decode latency or
+     * message digest. A frame the sink rejects is offered again after a short
+     * pause rather than lost. The sink must have no other producer for the
+     * capture's device addresses while this runs.
+     *
+     * @param speed playback rate for {@link Mode#ACCELERATED}, ignored otherwise
+     */
+    public Result feed(List<CaptureRecord> records, BLEManager.DataSink sink, Mode mode, double speed) {
+        if (mode == Mode.ACCELERATED && !(speed > 0)) {
+            throw new IllegalArgumentException("Replay speed must be positive");
+        }
+        double rate = mode == Mode.REAL_TIME ? 1.0 : speed;
+        cancelled = false;
+
+        Result result = new Result();
+        result.fed = true;
+        long captureStart = records.isEmpty() ? 0 : records.get(0).timestampNanos;
+        long replayStart = clock.elapsedRealtimeNanos();
+        long wallStart = System.nanoTime();
+        int frames = 0;
+        for (CaptureRecord record : records) {
+            if (cancelled) {
+                break;
+            }
+            if (mode != Mode.AS_FAST_AS_POSSIBLE) {
+                pace(result, wallStart + (long) ((record.timestampNanos - captureStart) / rate));
+            }
+            long receivedAt = replayStart + record.timestampNanos - captureStart;
+            while (!sink.offer(record.deviceAddress, record.characteristicUuid, record.data, receivedAt)
+                    && !cancelled) {
+                result.rejected++;
+                LockSupport.parkNanos(REJECT_RETRY_NANOS);
+            }
+            if (cancelled) {
+                break;
+            }
+            frames++;
+            result.bytes += record.data.length;
+        }
+        result.cancelled = cancelled;
+        result.wallNanos = System.nanoTime() - wallStart;
+        result.frames = frames;
+        if (frames > 0) {
+            result.captureNanos = records.get(frames - 1).timestampNanos - captureStart;
+        }
+        logger.log(Log.INFO, TAG, result.getSummary());
+        return result;
+    }
+
+    /**
+     * Digest of the model a {@link #feed} left behind: each target's
+     * position, voltage and hit count, then the time of flight and ballistics
+     * of every completed shot, at the resolution of the message digest.
+     * Targets are taken in ID order and each target's shots in completion
+     * order, so feeding one capture twice from the same starting state gives
+     * the same value at any speed.
+     */
+    public static long digestState(List<Target> targets,
+            Map<String, List<BallisticsCalculator.ShotData>> shots) {
+        List<Target> sorted = new ArrayList<>(targets);
+        sorted.sort((a, b) -> a.getId().compareTo(b.getId()));
+        long digest = FNV_OFFSET;
+        for (Target target : sorted) {
+            digest = mix(digest, target.getId());
+            FixedPosition position = target.getPosition();
+            if (position != null) {
+                digest = mix(digest, position.getLatitudeE6());
+                digest = mix(digest, position.getLongitudeE6());
+                digest = mix(digest, Math.round(position.getAltitudeCm() / 10.0));
+            }
+            digest = mix(digest, Math.round(target.getBatteryVoltage() * 1000));
+            digest = mix(digest, target.getHitCount());
+
+            List<BallisticsCalculator.ShotData> targetShots = shots.get(target.getId());
+            if (targetShots == null) {
+                continue;
+            }
+            for (BallisticsCalculator.ShotData shot : targetShots) {
+                digest = mix(digest, Math.round(shot.timeOfFlight * 1000));
+                BallisticsCalculator.BallisticsData ballistics = shot.ballistics;
+                if (ballistics != null) {
+                    digest = mix(digest, Math.round(ballistics.muzzleVelocity * 10));
+                    digest = mix(digest, Math.round(ballistics.ballisticCoefficient * 1000));
+                    digest = mix(digest, Math.round(ballistics.range * 10));
+                }
+            }
+        }
+        return digest;
+    }
+
+    private static void pace(Result result, long due) {
+        long lag = waitUntil(due);
+        result.scheduleLagTotalNanos += lag;
+        if (lag > result.scheduleLagMaxNanos) {
+            result.scheduleLagMaxNanos = lag;
+        }
+    }
+
+    /**
+     * @return how late the wait ended, in nanoseconds
+     */
+    private static long waitUntil(long due) {
+        long now = System.nanoTime();
+        while (due - now > SPIN_THRESHOLD_NANOS) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(due - now - SPIN_THRESHOLD_NANOS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+            now = System.nanoTime();
+        }
+        while (due - now > 0) {
+            Thread.yield();
+            now = System.nanoTime();
+        }
+        return now - due;
+    }
+
+    /**
+     * Counts and digests what the parser delivers, then passes it on.
+     *
+     * Values are folded in at wire resolution (1e-6 degrees, decimetres,
+     * millivolts, tenths of HDOP) so the ASCII and binary encodings of the
+     * same session give the same digest. Hits and shots include the capture
+     * time of the notification that started their frame, since shot
+     * correlation depends on it. Calibration acks are left untimed, as their
+     * round trip depends on when this device sent the request.
+     */
+    private static final class ResultListener implements MessageParser.MessageListener {
+        private final MessageParser.MessageListener downstream;
+        private final TargetIdRegistry ids;
+        private final Result result;
+        long replayStartNanos;
+        long digest = FNV_OFFSET;
+
+        ResultListener(MessageParser.MessageListener downstream, TargetIdRegistry ids, Result result) {
+            this.downstream = downstream;
+            this.ids = ids;
+            this.result = result;
+        }
+
+        @Override
+        public void onPositionMessage(int target, FixedPosition position, double voltage, long receivedAtNanos) {
+            result.positions++;
+            mix(1);
+            mixTarget(target);
+            mixPosition(position, voltage);
+            if (downstream != null) {
+                long start = System.nanoTime();
+                downstream.onPositionMessage(target, position, voltage, receivedAtNanos);
+                result.listenerNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void onPositionMessageEnhanced(int target, FixedPosition position, double voltage, int satellites,
+                double hdop, String altitudeRef, long receivedAtNanos) {
+            result.positions++;
+            mix(2);
+            mixTarget(target);
+            mixPosition(position, voltage);
+            mix(satellites);
+            mix(Math.round(hdop * 10));
+            mix(altitudeRef);
+            if (downstream != null) {
+                long start = System.nanoTime();
+                downstream.onPositionMessageEnhanced(target, position, voltage, satellites, hdop, altitudeRef,
+                        receivedAtNanos);
+                result.listenerNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void onHitMessage(int target, long receivedAtNanos) {
+            result.hits++;
+            mix(3);
+            mixTarget(target);
+            mix(receivedAtNanos - replayStartNanos);
+            if (downstream != null) {
+                long start = System.nanoTime();
+                downstream.onHitMessage(target, receivedAtNanos);
+                result.listenerNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void onShotFiredMessage(int target, String shooter, long timestamp, long receivedAtNanos) {
+            result.shots++;
+            mix(4);
+            mixTarget(target);
+            mix(shooter);
+            mix(timestamp);
+            mix(receivedAtNanos - replayStartNanos);
+            if (downstream != null) {
+                long start = System.nanoTime();
+                downstream.onShotFiredMessage(target, shooter, timestamp, receivedAtNanos);
+                result.listenerNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void onCalibrationResponse(int target, long receivedAtNanos) {
+            result.calibrations++;
+            mix(5);
+            mixTarget(target);
+            if (downstream != null) {
+                long start = System.nanoTime();
+                downstream.onCalibrationResponse(target, receivedAtNanos);
+                result.listenerNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void onParseError(String error) {
+            result.parseErrors++;
+            mix(6);
+            if (downstream != null) {
+                long start = System.nanoTime();
+                downstream.onParseError(error);
+                result.listenerNanos += System.nanoTime() - start;
+            }
+        }
+
+        private void mixPosition(FixedPosition position, double voltage) {
+            mix(position.getLatitudeE6());
+            mix(position.getLongitudeE6());
+            // Decimetres, the coarser of the two encodings
+            mix(Math.round(position.getAltitudeCm() / 10.0));
+            mix(Math.round(voltage * 1000));
+        }
+
+        // By ID rather than handle, which depends on what the registry saw first
+        private void mixTarget(int target) {
+            mix(ids.getId(target));
+        }
+
+        private void mix(String value) {
+            digest = ReplayEngine.mix(digest, value);
+        }
+
+        private void mix(long value) {
+            digest = ReplayEngine.mix(digest, value);
+        }
+    }
+
+    private static long mix(long digest, String value) {
+        return mix(digest, value != null ? value.hashCode() : 0);
+    }
+
+    /**
+     * FNV-1a over the value's eight bytes, least significant first.
+     */
+    private static long mix(long digest, long value) {
+        for (int i = 0; i < 8; i++) {
+            digest = (digest ^ (value & 0xFF)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return digest;
+    }
+
+    /**
+     * Replay a capture file on a desktop JVM, timed with
+     * {@link System#nanoTime()} and logging to stderr:
+     * {@code java -cp <plugin classes> com.atakmap.android.hitIndicator.ReplayEngine
+     * <file.hilk> [realtime | max | <speed>]}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: ReplayEngine <file.hilk> [realtime | max | <speed>]");
+            return;
+        }
+        Mode mode = Mode.AS_FAST_AS_POSSIBLE;
+        double speed = 1.0;
+        if (args.length > 1) {
+            if ("realtime".equals(args[1])) {
+                mode = Mode.REAL_TIME;
+            } else if (!"max".equals(args[1])) {
+                mode = Mode.ACCELERATED;
+                speed = Double.parseDouble(args[1]);
+            }
+        }
+
+        MessageParser.Logger logger = (priority, tag, message) -> {
+            if (priority >= Log.WARN) {
+                System.err.println(tag + ": " + message);
+            }
+        };
+        List<CaptureRecord> records = readCapture(new File(args[0]), logger);
+        Result result = new ReplayEngine(null, new TargetIdRegistry(), System::nanoTime, logger)
+                .replay(records, mode, speed);
+        System.out.println(result.getSummary());
+        System.out.println(result.linkSummary);
+    }
+}
@@ -8,12 +8,17 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Tracks shots fired and correlates them with target hits to calculate
  * ballistics data.
  * Manages the timing between rifle shot detection and target hit detection.
+ * Per-target state is held by {@link TargetIdRegistry} handle; the String
+ * forms of the methods resolve the ID first.
+ *
+ * Thread safe: shots and hits are recorded on the ingest thread while
+ * timeouts run on the main looper. Listener calls are made outside the
+ * tracker's lock.
  */
 public class ShotTracker {
     private static final String TAG = "ShotTracker";
@@ -24,6 +29,11 @@ public class ShotTracker {
     // Minimum reasonable time of flight (to filter out false positives)
     private static final double MIN_TIME_OF_FLIGHT = 0.01; // 10ms
 
+    /**
+     * Shot, hit and ballistics callbacks run on the thread that recorded the
+     * shot or hit, the ingest thread for BLE traffic; timeouts run on the
+     * main looper.
+     */
     public interface ShotTrackerListener {
         void onShotFired(String targetId, long shotTime);
 
@@ -35,26 +45,32 @@ public class ShotTracker {
     }
 
     private final ShotTrackerListener listener;
+    private final TargetIdRegistry ids;
     private final Handler timeoutHandler;
 
-    // Track pending shots waiting for hits
-    private final Map<String, List<BallisticsCalculator.ShotData>> pendingShots;
+    // Track pending shots waiting for hits; lists guarded by this
+    private final HandleMap<List<BallisticsCalculator.ShotData>> pendingShots = new HandleMap<>();
 
     // Track completed shots for analysis
-    private final Map<String, List<BallisticsCalculator.ShotData>> completedShots;
+    private final HandleMap<List<BallisticsCalculator.ShotData>> completedShots = new HandleMap<>();
 
-    // Current firing position
-    private GeoPoint currentFiringPosition;
+    // Current firing position, set from the UI thread
+    private volatile GeoPoint currentFiringPosition;
 
     // Target positions cache
-    private final Map<String, GeoPoint> targetPositions;
+    private final HandleMap<FixedPosition> targetPositions = new HandleMap<>();
 
     public ShotTracker(ShotTrackerListener listener) {
+        this(listener, new TargetIdRegistry());
+    }
+
+    /**
+     * @param ids registry shared with the MessageParser reporting the shots
+     */
+    public ShotTracker(ShotTrackerListener listener, TargetIdRegistry ids) {
         this.listener = listener;
+        this.ids = ids;
         this.timeoutHandler = new Handler(Looper.getMainLooper());
-        this.pendingShots = new ConcurrentHashMap<>();
-        this.completedShots = new ConcurrentHashMap<>();
-        this.targetPositions = new ConcurrentHashMap<>();
     }
 
     /**
@@ -68,9 +84,13 @@ public class ShotTracker {
     /**
      * Update a target's position
      */
-    public void updateTargetPosition(String targetId, GeoPoint position) {
-        targetPositions.put(targetId, position);
-        Log.d(TAG, "Target " + targetId + " position updated: " + position);
+    public void updateTargetPosition(String targetId, FixedPosition position) {
+        updateTargetPosition(ids.intern(targetId), position);
+    }
+
+    public void updateTargetPosition(int target, FixedPosition position) {
+        targetPositions.put(target, position);
+        Log.d(TAG, "Target " + ids.getId(target) + " position updated: " + position);
     }
 
     /**
@@ -81,28 +101,38 @@ public class ShotTracker {
     }
 
     /**
-     * Record a shot fired at a specific target with specific timestamp
+     * Record a shot fired at a specific target with specific timestamp.
+     * Shot and hit times must both be on the phone's clock
+     * ({@link System#currentTimeMillis()}); see {@link RemoteClockEstimator}.
      */
     public void recordShotFired(String targetId, long shotTime) {
+        recordShotFired(ids.intern(targetId), shotTime);
+    }
+
+    public void recordShotFired(int target, long shotTime) {
         if (currentFiringPosition == null) {
             Log.w(TAG, "Cannot record shot - firing position not set");
             return;
         }
 
-        GeoPoint targetPosition = targetPositions.get(targetId);
+        String targetId = ids.getId(target);
+        FixedPosition targetPosition = targetPositions.get(target);
         if (targetPosition == null) {
             Log.w(TAG, "Cannot record shot - target position unknown for: " + targetId);
             return;
         }
 
+        // The ballistics use ATAK geodesy, so convert once per shot here
         BallisticsCalculator.ShotData shotData = new BallisticsCalculator.ShotData(
-                targetId, shotTime, currentFiringPosition, targetPosition);
+                targetId, shotTime, currentFiringPosition, targetPosition.toGeoPoint());
 
         // Add to pending shots
-        pendingShots.computeIfAbsent(targetId, k -> new ArrayList<>()).add(shotData);
+        synchronized (this) {
+            pendingShots.computeIfAbsent(target, k -> new ArrayList<>()).add(shotData);
+        }
 
         // Set timeout for this shot
-        timeoutHandler.postDelayed(() -> handleShotTimeout(shotData),
+        timeoutHandler.postDelayed(() -> handleShotTimeout(target, shotData),
                 (long) (MAX_HIT_DELAY * 1000));
 
         Log.d(TAG, String.format("Shot recorded for target %s at %d", targetId, shotTime));
@@ -123,39 +153,51 @@ public class ShotTracker {
      * Record a hit detected on a target with specific timestamp
      */
     public void recordHit(String targetId, long hitTime) {
-        List<BallisticsCalculator.ShotData> pending = pendingShots.get(targetId);
-        if (pending == null || pending.isEmpty()) {
-            Log.w(TAG, "Hit recorded but no pending shots for target: " + targetId);
-            return;
-        }
+        recordHit(ids.find(targetId), hitTime);
+    }
 
-        // Find the oldest pending shot for this target
+    public void recordHit(int target, long hitTime) {
+        String targetId = ids.getId(target);
         BallisticsCalculator.ShotData matchedShot = null;
-        for (BallisticsCalculator.ShotData shot : pending) {
-            if (!shot.isValid) { // Only match unmatched shots
-                double timeOfFlight = (hitTime - shot.shotTime) / 1000.0;
-                if (timeOfFlight >= MIN_TIME_OF_FLIGHT && timeOfFlight <= MAX_HIT_DELAY) {
-                    matchedShot = shot;
-                    break; // Take the first (oldest) valid match
+        synchronized (this) {
+            List<BallisticsCalculator.ShotData> pending = pendingShots.get(target);
+            if (pending == null || pending.isEmpty()) {
+                Log.w(TAG, "Hit recorded but no pending shots for target: " + targetId);
+                return;
+            }
+
+            // Find the oldest pending shot for this target
+            for (BallisticsCalculator.ShotData shot : pending) {
+                if (!shot.isValid) { // Only match unmatched shots
+                    double timeOfFlight = (hitTime - shot.shotTime) / 1000.0;
+                    if (timeOfFlight >= MIN_TIME_OF_FLIGHT && timeOfFlight <= MAX_HIT_DELAY) {
+                        matchedShot = shot;
+                        break; // Take the first (oldest) valid match
+                    }
                 }
             }
-        }
 
-        if (matchedShot != null) {
-            // Record the hit
-            matchedShot.recordHit(hitTime);
+            if (matchedShot != null) {
+                // Record the hit
+                matchedShot.recordHit(hitTime);
 
-            // Move to completed shots
-            completedShots.computeIfAbsent(targetId, k -> new ArrayList<>()).add(matchedShot);
-            pending.remove(matchedShot);
+                // Move to completed shots
+                completedShots.computeIfAbsent(target, k -> new ArrayList<>()).add(matchedShot);
+                pending.remove(matchedShot);
 
-            // Calculate ballistics
-            calculateBallistics(matchedShot);
+                // Calculate ballistics
+                calculateBallistics(matchedShot);
+            }
+        }
 
+        if (matchedShot != null) {
             Log.d(TAG, String.format("Hit correlated for target %s: ToF=%.3fs",
                     targetId, matchedShot.timeOfFlight));
 
             if (listener != null) {
+                if (matchedShot.ballistics != null) {
+                    listener.onBallisticsCalculated(matchedShot.targetId, matchedShot.ballistics);
+                }
                 listener.onHitCorrelated(targetId, matchedShot);
             }
         } else {
@@ -164,7 +206,8 @@ public class ShotTracker {
     }
 
     /**
-     * Calculate ballistics data for a completed shot
+     * Calculate ballistics data for a completed shot. Caller holds the lock
+     * and reports the result.
      */
     private void calculateBallistics(BallisticsCalculator.ShotData shotData) {
         if (!shotData.isValid) {
@@ -182,24 +225,22 @@ public class ShotTracker {
 
         Log.d(TAG, String.format("Ballistics calculated for target %s: MV=%.1f m/s, BC=%.3f",
                 shotData.targetId, ballistics.muzzleVelocity, ballistics.ballisticCoefficient));
-
-        if (listener != null) {
-            listener.onBallisticsCalculated(shotData.targetId, ballistics);
-        }
     }
 
     /**
      * Handle shot timeout (no hit detected within time limit)
      */
-    private void handleShotTimeout(BallisticsCalculator.ShotData shotData) {
-        if (shotData.isValid) {
-            return; // Already matched with a hit
-        }
+    private void handleShotTimeout(int target, BallisticsCalculator.ShotData shotData) {
+        synchronized (this) {
+            if (shotData.isValid) {
+                return; // Already matched with a hit
+            }
 
-        // Remove from pending shots
-        List<BallisticsCalculator.ShotData> pending = pendingShots.get(shotData.targetId);
-        if (pending != null) {
-            pending.remove(shotData);
+            // Remove from pending shots
+            List<BallisticsCalculator.ShotData> pending = pendingShots.get(target);
+            if (pending == null || !pending.remove(shotData)) {
+                return; // Cleared meanwhile
+            }
         }
 
         Log.d(TAG, "Shot timeout for target: " + shotData.targetId);
@@ -227,27 +268,25 @@ public class ShotTracker {
     /**
      * Get all completed shots for a target
      */
-    public List<BallisticsCalculator.ShotData> getCompletedShots(String targetId) {
-        List<BallisticsCalculator.ShotData> shots = completedShots.get(targetId);
+    public synchronized List<BallisticsCalculator.ShotData> getCompletedShots(String targetId) {
+        List<BallisticsCalculator.ShotData> shots = completedShots.get(ids.find(targetId));
         return shots != null ? new ArrayList<>(shots) : new ArrayList<>();
     }
 
     /**
      * Get all completed shots for all targets
      */
-    public Map<String, List<BallisticsCalculator.ShotData>> getAllCompletedShots() {
+    public synchronized Map<String, List<BallisticsCalculator.ShotData>> getAllCompletedShots() {
         Map<String, List<BallisticsCalculator.ShotData>> result = new HashMap<>();
-        for (Map.Entry<String, List<BallisticsCalculator.ShotData>> entry : completedShots.entrySet()) {
-            result.put(entry.getKey(), new ArrayList<>(entry.getValue()));
-        }
+        completedShots.forEach((target, shots) -> result.put(ids.getId(target), new ArrayList<>(shots)));
         return result;
     }
 
     /**
      * Get pending shots count for a target
      */
-    public int getPendingShotsCount(String targetId) {
-        List<BallisticsCalculator.ShotData> pending = pendingShots.get(targetId);
+    public synchronized int getPendingShotsCount(String targetId) {
+        List<BallisticsCalculator.ShotData> pending = pendingShots.get(ids.find(targetId));
         return pending != null ? pending.size() : 0;
     }
 
@@ -287,7 +326,7 @@ public class ShotTracker {
     /**
      * Clear all shot data
      */
-    public void clearAllData() {
+    public synchronized void clearAllData() {
         pendingShots.clear();
         completedShots.clear();
         Log.d(TAG, "All shot data cleared");
@@ -296,9 +335,10 @@ public class ShotTracker {
     /**
      * Clear shot data for specific target
      */
-    public void clearTargetData(String targetId) {
-        pendingShots.remove(targetId);
-        completedShots.remove(targetId);
+    public synchronized void clearTargetData(String targetId) {
+        int target = ids.find(targetId);
+        pendingShots.remove(target);
+        completedShots.remove(target);
         Log.d(TAG, "Shot data cleared for target: " + targetId);
     }
 
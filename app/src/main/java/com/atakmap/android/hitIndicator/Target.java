@@ -5,23 +5,31 @@ import android.os.Parcelable;
 
 import com.atakmap.coremap.maps.coords.GeoPoint;
 
+/**
+ * A target and its latest reported state.
+ *
+ * Updated from the ingest thread and read from the UI thread. Every mutable
+ * field is volatile so single reads see the latest write; updates touching
+ * more than one field, and read-modify-write updates such as the hit count,
+ * are synchronized so they do not interleave or lose an increment.
+ */
 public class Target implements Parcelable {
-    private String id;
-    private GeoPoint location;
-    private int hitCount;
-    private long lastSeen;
-    private long calibrationTime;
-    private double batteryVoltage;
-    private BallisticsCalculator.BallisticsData ballisticsData; // New field for ballistics
-    private int shotsFired; // Track shots fired at this target
-    private long lastShotTime; // When the last shot was fired
-    private double averageTimeOfFlight; // Average ToF for this target
+    private final String id;
+    private volatile FixedPosition position;
+    private volatile int hitCount;
+    private volatile long lastSeen;
+    private volatile long calibrationTime;
+    private volatile double batteryVoltage;
+    private volatile BallisticsCalculator.BallisticsData ballisticsData; // New field for ballistics
+    private volatile int shotsFired; // Track shots fired at this target
+    private volatile long lastShotTime; // When the last shot was fired
+    private volatile double averageTimeOfFlight; // Average ToF for this target
 
     // GPS Quality tracking
-    private int satelliteCount; // Number of satellites used
-    private double hdop; // Horizontal Dilution of Precision
-    private String altitudeReference; // "MSL" or "HAE"
-    private boolean hasGpsQuality; // Whether GPS quality data is available
+    private volatile int satelliteCount; // Number of satellites used
+    private volatile double hdop; // Horizontal Dilution of Precision
+    private volatile String altitudeReference; // "MSL" or "HAE"
+    private volatile boolean hasGpsQuality; // Whether GPS quality data is available
 
     // Constructors
     public Target(String id) {
@@ -44,19 +52,31 @@ public class Target implements Parcelable {
         this.hasGpsQuality = false;
     }
 
-    public Target(String id, GeoPoint location) {
+    public Target(String id, FixedPosition position) {
         this(id);
-        this.location = location;
+        this.position = position;
     }
 
     // Parcelable implementation
     protected Target(Parcel in) {
+        this(in, false);
+    }
+
+    /**
+     * @param legacy read the layout written before positions were fixed
+     *               point, which stored them as three doubles
+     */
+    Target(Parcel in, boolean legacy) {
         id = in.readString();
-        double lat = in.readDouble();
-        double lon = in.readDouble();
-        double alt = in.readDouble();
-        if (lat != 0 && lon != 0) {
-            location = new GeoPoint(lat, lon, alt);
+        if (legacy) {
+            double lat = in.readDouble();
+            double lon = in.readDouble();
+            double alt = in.readDouble();
+            if (lat != 0 && lon != 0) {
+                position = FixedPosition.fromDegrees(lat, lon, alt);
+            }
+        } else if (in.readByte() != 0) {
+            position = new FixedPosition(in.readInt(), in.readInt(), in.readInt());
         }
         hitCount = in.readInt();
         lastSeen = in.readLong();
@@ -90,16 +110,15 @@ public class Target implements Parcelable {
     }
 
     @Override
-    public void writeToParcel(Parcel dest, int flags) {
+    public synchronized void writeToParcel(Parcel dest, int flags) {
         dest.writeString(id);
-        if (location != null) {
-            dest.writeDouble(location.getLatitude());
-            dest.writeDouble(location.getLongitude());
-            dest.writeDouble(location.getAltitude());
+        if (position != null) {
+            dest.writeByte((byte) 1);
+            dest.writeInt(position.getLatitudeE6());
+            dest.writeInt(position.getLongitudeE6());
+            dest.writeInt(position.getAltitudeCm());
         } else {
-            dest.writeDouble(0);
-            dest.writeDouble(0);
-            dest.writeDouble(0);
+            dest.writeByte((byte) 0);
         }
         dest.writeInt(hitCount);
         dest.writeLong(lastSeen);
@@ -120,12 +139,19 @@ public class Target implements Parcelable {
         return id;
     }
 
+    public FixedPosition getPosition() {
+        return position;
+    }
+
+    /**
+     * The position as a new GeoPoint, for ATAK APIs; null if unknown.
+     */
     public GeoPoint getLocation() {
-        return location;
+        return position != null ? position.toGeoPoint() : null;
     }
 
-    public void setLocation(GeoPoint location) {
-        this.location = location;
+    public synchronized void setPosition(FixedPosition position) {
+        this.position = position;
         this.lastSeen = System.currentTimeMillis();
     }
 
@@ -133,12 +159,12 @@ public class Target implements Parcelable {
         return hitCount;
     }
 
-    public void incrementHitCount() {
+    public synchronized void incrementHitCount() {
         this.hitCount++;
         this.lastSeen = System.currentTimeMillis();
     }
 
-    public void resetHitCount() {
+    public synchronized void resetHitCount() {
         this.hitCount = 0;
     }
 
@@ -162,7 +188,7 @@ public class Target implements Parcelable {
         return batteryVoltage;
     }
 
-    public void setBatteryVoltage(double batteryVoltage) {
+    public synchronized void setBatteryVoltage(double batteryVoltage) {
         this.batteryVoltage = batteryVoltage;
         this.lastSeen = System.currentTimeMillis();
     }
@@ -179,7 +205,7 @@ public class Target implements Parcelable {
         return shotsFired;
     }
 
-    public void incrementShotsFired() {
+    public synchronized void incrementShotsFired() {
         this.shotsFired++;
         this.lastShotTime = System.currentTimeMillis();
     }
@@ -227,7 +253,7 @@ public class Target implements Parcelable {
         return hasGpsQuality;
     }
 
-    public void setGpsQuality(int satellites, double hdop, String altitudeRef) {
+    public synchronized void setGpsQuality(int satellites, double hdop, String altitudeRef) {
         this.satelliteCount = satellites;
         this.hdop = hdop;
         this.altitudeReference = altitudeRef;
@@ -235,7 +261,7 @@ public class Target implements Parcelable {
         this.lastSeen = System.currentTimeMillis();
     }
 
-    public String getGpsQualitySummary() {
+    public synchronized String getGpsQualitySummary() {
         if (!hasGpsQuality) {
             return "GPS quality unknown";
         }
@@ -243,7 +269,7 @@ public class Target implements Parcelable {
                 satelliteCount, hdop, altitudeReference);
     }
 
-    public boolean isGpsQualityGood() {
+    public synchronized boolean isGpsQualityGood() {
         return hasGpsQuality && satelliteCount >= 4 && hdop <= 2.0;
     }
 
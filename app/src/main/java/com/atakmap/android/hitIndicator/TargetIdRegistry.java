@@ -0,0 +1,214 @@
+package com.atakmap.android.hitIndicator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Interns target IDs to dense int handles (0, 1, 2, ... in order of first
+ * sight).
+ *
+ * The decoders look IDs up straight from the frame bytes, so a known target
+ * costs a hash and a compare instead of a new String per frame. Each ID's
+ * String is created once, on first sight, and handed out for display and
+ * ATAK UIDs. Handles are never reused, which lets the rest of the plugin
+ * keep per-target state in arrays indexed by handle (see {@link HandleMap}).
+ *
+ * Lookups never lock. Inserts are serialised and publish a fresh probe
+ * table through a volatile field; the per-handle arrays are only appended
+ * to, so a reader reaches a new entry only after it has been written.
+ */
+public final class TargetIdRegistry {
+    public static final int NO_TARGET = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int FNV_OFFSET = 0x811C9DC5;
+    private static final int FNV_PRIME = 0x01000193;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private static final class State {
+        // Open addressing, handle + 1 per slot, 0 marks a free slot
+        final int[] slots;
+        final int[] hashes;
+        final byte[][] keys;
+        final String[] ids;
+        final int count;
+
+        State(int[] slots, int[] hashes, byte[][] keys, String[] ids, int count) {
+            this.slots = slots;
+            this.hashes = hashes;
+            this.keys = keys;
+            this.ids = ids;
+            this.count = count;
+        }
+    }
+
+    private volatile State state = new State(new int[INITIAL_CAPACITY * 2], new int[INITIAL_CAPACITY],
+            new byte[INITIAL_CAPACITY][], new String[INITIAL_CAPACITY], 0);
+
+    /**
+     * Handle of the ID in {@code buffer[offset, offset + length)}, assigning
+     * one on first sight.
+     */
+    public int intern(byte[] buffer, int offset, int length) {
+        int hash = hash(buffer, offset, length);
+        int handle = find(state, hash, buffer, offset, length);
+        if (handle != NO_TARGET) {
+            return handle;
+        }
+        byte[] key = new byte[length];
+        System.arraycopy(buffer, offset, key, 0, length);
+        return insert(hash, key, null);
+    }
+
+    public int intern(String id) {
+        byte[] key = id.getBytes(StandardCharsets.US_ASCII);
+        int hash = hash(key, 0, key.length);
+        int handle = find(state, hash, key, 0, key.length);
+        return handle != NO_TARGET ? handle : insert(hash, key, id);
+    }
+
+    /**
+     * Handle of the canonical "IDxxxx" form of a binary ID value, without
+     * formatting it unless the ID is new.
+     */
+    int internCanonical(int value) {
+        int hash = FNV_OFFSET;
+        hash = (hash ^ 'I') * FNV_PRIME;
+        hash = (hash ^ 'D') * FNV_PRIME;
+        for (int shift = 12; shift >= 0; shift -= 4) {
+            hash = (hash ^ HEX_DIGITS[(value >>> shift) & 0xF]) * FNV_PRIME;
+        }
+
+        State current = state;
+        int mask = current.slots.length - 1;
+        for (int i = hash & mask; current.slots[i] != 0; i = (i + 1) & mask) {
+            int handle = current.slots[i] - 1;
+            if (current.hashes[handle] == hash && isCanonical(current.keys[handle], value)) {
+                return handle;
+            }
+        }
+        return insert(hash, canonicalBytes(value), null);
+    }
+
+    /**
+     * Handle of a known ID, or {@link #NO_TARGET} without registering it.
+     */
+    public int find(String id) {
+        if (id == null) {
+            return NO_TARGET;
+        }
+        byte[] key = id.getBytes(StandardCharsets.US_ASCII);
+        return find(state, hash(key, 0, key.length), key, 0, key.length);
+    }
+
+    /**
+     * The ID of a handle, the same String instance every time.
+     */
+    public String getId(int handle) {
+        State current = state;
+        return handle >= 0 && handle < current.count ? current.ids[handle] : null;
+    }
+
+    public int size() {
+        return state.count;
+    }
+
+    private static int find(State current, int hash, byte[] buffer, int offset, int length) {
+        int mask = current.slots.length - 1;
+        for (int i = hash & mask; current.slots[i] != 0; i = (i + 1) & mask) {
+            int handle = current.slots[i] - 1;
+            if (current.hashes[handle] == hash && equals(current.keys[handle], buffer, offset, length)) {
+                return handle;
+            }
+        }
+        return NO_TARGET;
+    }
+
+    private synchronized int insert(int hash, byte[] key, String id) {
+        State current = state;
+        // Another thread may have added it since the lock-free lookup
+        int existing = find(current, hash, key, 0, key.length);
+        if (existing != NO_TARGET) {
+            return existing;
+        }
+
+        int handle = current.count;
+        int[] hashes = current.hashes;
+        byte[][] keys = current.keys;
+        String[] ids = current.ids;
+        if (handle == hashes.length) {
+            hashes = Arrays.copyOf(hashes, handle * 2);
+            keys = Arrays.copyOf(keys, handle * 2);
+            ids = Arrays.copyOf(ids, handle * 2);
+        }
+        hashes[handle] = hash;
+        keys[handle] = key;
+        ids[handle] = id != null ? id : new String(key, StandardCharsets.US_ASCII);
+
+        // Keep the load at or below one half so probe chains stay short
+        int[] slots;
+        if ((handle + 1) * 2 > current.slots.length) {
+            slots = new int[current.slots.length * 2];
+            for (int h = 0; h < handle; h++) {
+                place(slots, hashes[h], h);
+            }
+        } else {
+            slots = current.slots.clone();
+        }
+        place(slots, hash, handle);
+
+        state = new State(slots, hashes, keys, ids, handle + 1);
+        return handle;
+    }
+
+    private static void place(int[] slots, int hash, int handle) {
+        int mask = slots.length - 1;
+        int i = hash & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = handle + 1;
+    }
+
+    private static int hash(byte[] buffer, int offset, int length) {
+        int hash = FNV_OFFSET;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (buffer[i] & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static boolean equals(byte[] key, byte[] buffer, int offset, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != buffer[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isCanonical(byte[] key, int value) {
+        if (key.length != 6 || key[0] != 'I' || key[1] != 'D') {
+            return false;
+        }
+        for (int i = 0; i < 4; i++) {
+            if (key[2 + i] != HEX_DIGITS[(value >>> (12 - 4 * i)) & 0xF]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] canonicalBytes(int value) {
+        byte[] key = new byte[6];
+        key[0] = 'I';
+        key[1] = 'D';
+        for (int i = 0; i < 4; i++) {
+            key[2 + i] = (byte) HEX_DIGITS[(value >>> (12 - 4 * i)) & 0xF];
+        }
+        return key;
+    }
+}
@@ -1,6 +1,7 @@
 package com.atakmap.android.hitIndicator;
 
 import android.content.Context;
+import android.location.Location;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -43,6 +44,7 @@ public class TargetListAdapter extends BaseAdapter {
     private final LayoutInflater inflater;
     private final TargetActionListener listener;
     private GeoPoint myLocation; // User's current location
+    private final float[] distanceResults = new float[2]; // Reused by getView on the UI thread
     private final SimpleDateFormat timeFormatter; // Use consistent formatter
 
     public TargetListAdapter(Context context, TargetActionListener listener) {
@@ -150,30 +152,23 @@ public class TargetListAdapter extends BaseAdapter {
 
 
         // --- Populate Right Section (Ranges & Bearing) ---
-        GeoPoint targetLocation = target.getLocation();
-        if (myLocation != null && targetLocation != null) {
-            // 1. Calculate SLANT RANGE (LRF distance) using standard distanceTo
-            double slantRangeMeters = myLocation.distanceTo(targetLocation);
-
-            // 2. Calculate approximate HORIZONTAL distance
-            // Note: Uses altitudes directly from GeoPoints. For higher accuracy,
+        FixedPosition targetPosition = target.getPosition();
+        if (myLocation != null && targetPosition != null) {
+            // 1. HORIZONTAL distance and initial bearing straight from the
+            // primitives, without wrapping the target in a GeoPoint per row
+            Location.distanceBetween(myLocation.getLatitude(), myLocation.getLongitude(),
+                    targetPosition.getLatitude(), targetPosition.getLongitude(), distanceResults);
+            double horizontalRangeMeters = distanceResults[0];
+
+            // 2. SLANT RANGE (LRF distance) from the horizontal and vertical legs
+            // Note: Uses altitudes as reported. For higher accuracy,
             // ensure both points use MSL altitude before this calculation.
-            double verticalDiff = targetLocation.getAltitude() - myLocation.getAltitude();
-            double horizontalRangeMeters = Double.NaN;
-            if (!Double.isNaN(slantRangeMeters) && !Double.isNaN(verticalDiff)) {
-                double slantSq = slantRangeMeters * slantRangeMeters;
-                double vertSq = verticalDiff * verticalDiff;
-                if (slantSq >= vertSq && slantSq > 0) { // Check slantSq > 0 to avoid sqrt(0) issues if points identical
-                    horizontalRangeMeters = Math.sqrt(slantSq - vertSq);
-                } else {
-                    // Slant is less than vertical (unlikely unless points are vertically aligned)
-                    // or points are identical. Horizontal distance is effectively 0.
-                    horizontalRangeMeters = 0.0;
-                }
-            }
+            double verticalDiff = targetPosition.getAltitude() - myLocation.getAltitude();
+            double slantRangeMeters = Double.isNaN(verticalDiff) ? horizontalRangeMeters
+                    : Math.sqrt(horizontalRangeMeters * horizontalRangeMeters + verticalDiff * verticalDiff);
 
-            // 3. Calculate Bearing
-            double bearing = myLocation.bearingTo(targetLocation);
+            // 3. Bearing
+            double bearing = distanceResults[1];
             if (bearing < 0) bearing += 360; // Normalize to 0-360
 
             // 4. Format and Display Ranges
@@ -6,56 +6,81 @@ import android.os.Parcel;
 import android.util.Base64;
 import android.util.Log;
 
-import com.atakmap.coremap.maps.coords.GeoPoint;
-
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Owns the known targets and their persistence. Updated from the ingest
+ * thread and read from the UI thread, so lookups never lock and
+ * persistence is serialised.
+ *
+ * Position, voltage and hit updates arrive for every frame, so they only
+ * mark the targets dirty; the ingest side calls {@link #saveIfDirty()} once
+ * per drain. Changes made from the UI are saved straight away.
+ *
+ * Targets are held by their {@link TargetIdRegistry} handle; the String
+ * forms of the methods resolve the ID first.
+ */
 public class TargetManager {
     private static final String TAG = "TargetManager";
     private static final String PREFS_NAME = "hitIndicator_prefs";
-    private static final String PREF_TARGETS = "targets";
+    // Written before positions were fixed point; read once, then replaced
+    private static final String PREF_TARGETS_LEGACY = "targets";
+    // Compact snapshot: count, then each target's fields without a class name
+    private static final String PREF_TARGETS = "targets_v2";
 
-    private final Map<String, Target> targets;
+    private final HandleMap<Target> targets = new HandleMap<>();
+    private final TargetIdRegistry ids;
     private final Context context;
+    private final AtomicBoolean dirty = new AtomicBoolean();
 
     public TargetManager(Context context) {
+        this(context, new TargetIdRegistry());
+    }
+
+    /**
+     * @param ids registry shared with the MessageParser feeding this manager
+     */
+    public TargetManager(Context context, TargetIdRegistry ids) {
         this.context = context;
-        this.targets = new HashMap<>();
+        this.ids = ids;
         loadTargets();
     }
 
-    public Target updateTargetPosition(String id, GeoPoint location) {
-        Target target = targets.get(id);
+    public TargetIdRegistry getIdRegistry() {
+        return ids;
+    }
 
-        if (target == null) {
-            target = new Target(id, location);
-            targets.put(id, target);
-        } else {
-            target.setLocation(location);
-        }
+    public Target updateTargetPosition(String id, FixedPosition position) {
+        return updateTargetPosition(ids.intern(id), position);
+    }
 
-        saveTargets();
+    public Target updateTargetPosition(int handle, FixedPosition position) {
+        Target target = targets.computeIfAbsent(handle, h -> new Target(ids.getId(h), position));
+        target.setPosition(position);
+
+        dirty.set(true);
         return target;
     }
 
     public Target processHit(String id) {
-        Target target = targets.get(id);
+        return processHit(ids.intern(id));
+    }
 
-        if (target == null) {
-            target = new Target(id);
-            targets.put(id, target);
-        }
+    public Target processHit(int handle) {
+        Target target = targets.computeIfAbsent(handle, h -> new Target(ids.getId(h)));
 
         target.incrementHitCount();
-        saveTargets();
+        dirty.set(true);
         return target;
     }
 
     public void setCalibrationTime(String id, long calibrationTime) {
-        Target target = targets.get(id);
+        setCalibrationTime(ids.find(id), calibrationTime);
+    }
+
+    public void setCalibrationTime(int handle, long calibrationTime) {
+        Target target = targets.get(handle);
 
         if (target != null) {
             target.setCalibrationTime(calibrationTime);
@@ -64,18 +89,22 @@ public class TargetManager {
     }
 
     public void updateTargetVoltage(String id, double voltage) {
-        Target target = targets.get(id);
+        updateTargetVoltage(ids.find(id), voltage);
+    }
+
+    public void updateTargetVoltage(int handle, double voltage) {
+        Target target = targets.get(handle);
 
         if (target != null) {
             target.setBatteryVoltage(voltage);
-            saveTargets();
+            dirty.set(true);
         } else {
-            Log.w(TAG, "Received voltage for unknown target ID: " + id);
+            Log.w(TAG, "Received voltage for unknown target ID: " + ids.getId(handle));
         }
     }
 
     public void resetHitCount(String id) {
-        Target target = targets.get(id);
+        Target target = targets.get(ids.find(id));
 
         if (target != null) {
             target.resetHitCount();
@@ -84,22 +113,24 @@ public class TargetManager {
     }
 
     public void resetAllHitCounts() {
-        for (Target target : targets.values()) {
-            target.resetHitCount();
-        }
+        targets.forEach((handle, target) -> target.resetHitCount());
         saveTargets();
     }
 
     public List<Target> getAllTargets() {
-        return new ArrayList<>(targets.values());
+        return targets.values();
     }
 
     public Target getTarget(String id) {
-        return targets.get(id);
+        return targets.get(ids.find(id));
+    }
+
+    public Target getTarget(int handle) {
+        return targets.get(handle);
     }
 
     public void removeTarget(String id) {
-        targets.remove(id);
+        targets.remove(ids.find(id));
         saveTargets();
     }
 
@@ -108,17 +139,30 @@ public class TargetManager {
         saveTargets();
     }
 
-    private void saveTargets() {
+    /**
+     * Save the targets if an update has marked them dirty since the last
+     * save.
+     */
+    public void saveIfDirty() {
+        if (dirty.get()) {
+            saveTargets();
+        }
+    }
+
+    private synchronized void saveTargets() {
+        // Cleared before the snapshot so a concurrent update is saved next time
+        dirty.set(false);
         try {
             SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
             SharedPreferences.Editor editor = prefs.edit();
 
-            // Convert targets to serialized bytes
+            // Convert targets to serialized bytes; count from the same snapshot
+            List<Target> snapshot = targets.values();
             Parcel parcel = Parcel.obtain();
-            parcel.writeInt(targets.size());
+            parcel.writeInt(snapshot.size());
 
-            for (Target target : targets.values()) {
-                parcel.writeParcelable(target, 0);
+            for (Target target : snapshot) {
+                target.writeToParcel(parcel, 0);
             }
 
             byte[] bytes = parcel.marshall();
@@ -127,6 +171,7 @@ public class TargetManager {
             // Save as Base64 encoded string
             String serialized = Base64.encodeToString(bytes, Base64.DEFAULT);
             editor.putString(PREF_TARGETS, serialized);
+            editor.remove(PREF_TARGETS_LEGACY);
             editor.apply();
 
         } catch (Exception e) {
@@ -138,6 +183,11 @@ public class TargetManager {
         try {
             SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
             String serialized = prefs.getString(PREF_TARGETS, null);
+            boolean legacy = false;
+            if (serialized == null) {
+                serialized = prefs.getString(PREF_TARGETS_LEGACY, null);
+                legacy = true;
+            }
 
             if (serialized != null) {
                 byte[] bytes = Base64.decode(serialized, Base64.DEFAULT);
@@ -149,9 +199,13 @@ public class TargetManager {
                 int size = parcel.readInt();
 
                 for (int i = 0; i < size; i++) {
-                    Target target = parcel.readParcelable(Target.class.getClassLoader());
-                    if (target != null) {
-                        targets.put(target.getId(), target);
+                    if (legacy) {
+                        // writeParcelable put the class name ahead of each target
+                        parcel.readString();
+                    }
+                    Target target = new Target(parcel, legacy);
+                    if (target.getId() != null) {
+                        targets.put(ids.intern(target.getId()), target);
                     }
                 }
 